@@ -0,0 +1,68 @@
+package com.ocklund.gtfs;
+
+import com.ocklund.gtfs.configuration.GtfsProperties;
+import com.ocklund.gtfs.configuration.ZipFeedSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journey planning on the synthetic feed, from the station of the default board to stations spread over the
+ * network: the journey arriving first, and all journeys leaving in an hour, which are searched in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JourneyBenchmark {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 8, 6, 10, 30);
+    private static final String ORIGIN = "9021001004513000";
+    private static final String[] DESTINATIONS = {"9021001000000007", "9021001000000042", "9021001000000101"};
+
+    @Param({"1000000"})
+    public int stopTimes;
+
+    private GtfsService service;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        GtfsProperties properties = new GtfsProperties();
+        properties.getSnapshot().setDir("");
+        properties.getRouting().setEnabled(true);
+        service = new GtfsService(zone -> NOW, new ZipFeedSource(SyntheticFeed.zip(stopTimes)), properties);
+        service.init();
+    }
+
+    private String destination() {
+        next = (next + 1) % DESTINATIONS.length;
+        return DESTINATIONS[next];
+    }
+
+    @Benchmark
+    public List<Journey> earliestArrival() {
+        return service.planJourneys(ORIGIN, destination(), NOW, Duration.ZERO, 4);
+    }
+
+    @Benchmark
+    public List<Journey> range() {
+        return service.planJourneys(ORIGIN, destination(), NOW, Duration.ofHours(1), 4);
+    }
+}
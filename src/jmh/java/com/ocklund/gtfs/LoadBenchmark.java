@@ -0,0 +1,116 @@
+package com.ocklund.gtfs;
+
+import com.ocklund.gtfs.configuration.ClassPathFeedSource;
+import com.ocklund.gtfs.configuration.GtfsFeedSource;
+import com.ocklund.gtfs.configuration.GtfsProperties;
+import com.ocklund.gtfs.configuration.ZipFeedSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Loading the timetable: parsing the feed for the stops of the default board or for all stops, on the heap or
+ * off it, reading and writing the snapshot, and a reload through {@link GtfsService}. The feed is either the one bundled in
+ * src/main/resources/gtfs or a synthetic one, see {@link SyntheticFeed}; use {@code -p stopTimes=6000000} for
+ * the size of the full SL feed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark {
+
+    @Param({"bundled", "synthetic"})
+    public String feed;
+
+    @Param({"1000000"})
+    public int stopTimes;
+
+    private GtfsFeedSource feedSource;
+    private Path snapshotDirectory;
+    private Timetable timetable;
+    private GtfsService service;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        feedSource = feed.equals("bundled") ? new ClassPathFeedSource("gtfs") : new ZipFeedSource(SyntheticFeed.zip(stopTimes));
+        timetable = loader(false).load();
+        snapshotDirectory = Files.createTempDirectory("gtfs-benchmark-");
+        TimetableSnapshot.write(timetable, snapshotDirectory, 1);
+        GtfsProperties properties = new GtfsProperties();
+        properties.getSnapshot().setDir("");
+        service = new GtfsService(zone -> LocalDateTime.of(2025, 8, 6, 10, 30), feedSource, properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(snapshotDirectory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private TimetableLoader loader(boolean allStops) {
+        return loader(allStops, false);
+    }
+
+    private TimetableLoader loader(boolean allStops, boolean offHeap) {
+        return new TimetableLoader(feedSource, GtfsService.DEFAULT_BOARD.stopIds(), allStops, false, offHeap);
+    }
+
+    @Benchmark
+    public Timetable load() {
+        return loader(false).load();
+    }
+
+    @Benchmark
+    public Timetable loadAllStops() {
+        return loader(true).load();
+    }
+
+    @Benchmark
+    public Timetable loadAllStopsOffHeap() {
+        return loader(true, true).load();
+    }
+
+    @Benchmark
+    public Timetable readSnapshot() throws IOException {
+        return TimetableSnapshot.read(snapshotDirectory, 1);
+    }
+
+    @Benchmark
+    public Timetable readSnapshotOffHeap() throws IOException {
+        return TimetableSnapshot.read(snapshotDirectory, 1, true);
+    }
+
+    @Benchmark
+    public Path writeSnapshot() throws IOException {
+        TimetableSnapshot.write(timetable, snapshotDirectory, 2);
+        return snapshotDirectory;
+    }
+
+    @Benchmark
+    public ReloadResult reload() {
+        return service.reload();
+    }
+}
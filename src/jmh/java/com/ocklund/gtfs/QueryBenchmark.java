@@ -0,0 +1,84 @@
+package com.ocklund.gtfs;
+
+import com.ocklund.gtfs.configuration.ClassPathFeedSource;
+import com.ocklund.gtfs.configuration.GtfsFeedSource;
+import com.ocklund.gtfs.configuration.GtfsProperties;
+import com.ocklund.gtfs.configuration.ZipFeedSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work of a request: parsing and checking times, the reports of the default board, computed and from
+ * {@link ReportCache}, and stop searches. Reported both as throughput and as average latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 8, 6, 10, 30);
+
+    @Param({"bundled", "synthetic"})
+    public String feed;
+
+    @Param({"1000000"})
+    public int stopTimes;
+
+    private GtfsService service;
+    private ReportCache reportCache;
+    private LocalDateTime departure;
+
+    @Setup
+    public void setUp() throws IOException {
+        GtfsFeedSource feedSource = feed.equals("bundled") ? new ClassPathFeedSource("gtfs")
+                : new ZipFeedSource(SyntheticFeed.zip(stopTimes));
+        GtfsProperties properties = new GtfsProperties();
+        properties.getSnapshot().setDir("");
+        service = new GtfsService(zone -> NOW, feedSource, properties);
+        service.init();
+        reportCache = new ReportCache(service);
+        departure = NOW.plusMinutes(7);
+    }
+
+    @Benchmark
+    public LocalDateTime parseGtfsTime() {
+        return service.parseGtfsTime("25:41:00");
+    }
+
+    @Benchmark
+    public boolean isOutsideTimeWindow() {
+        return GtfsService.isOutsideTimeWindow(departure, NOW);
+    }
+
+    @Benchmark
+    public List<String> getStopReports() {
+        return service.getStopReports(GtfsService.DEFAULT_BOARD, NOW);
+    }
+
+    @Benchmark
+    public List<String> getStopReportsCached() {
+        return reportCache.getStopReports(GtfsService.DEFAULT_BOARD);
+    }
+
+    @Benchmark
+    public List<StopMatch> searchStops() {
+        return service.searchStops("stat", 10);
+    }
+}
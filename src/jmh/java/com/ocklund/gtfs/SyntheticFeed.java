@@ -0,0 +1,143 @@
+package com.ocklund.gtfs;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates a GTFS archive with any number of stop times, shaped like the SL feed: stations with two platforms
+ * each, lines running trips through 20-40 stations from early morning until after midnight, and one service
+ * running every day. The stops of {@link GtfsService#DEFAULT_BOARD} are on the first lines, so the default
+ * board has departures all day. The full SL feed has about six million stop times.
+ * <p>
+ * The same size always gives the same feed, and it is only generated once into target/jmh-feeds.
+ */
+final class SyntheticFeed {
+
+    private static final Path DIRECTORY = Path.of("target", "jmh-feeds");
+    private static final int MIN_STOPS_PER_TRIP = 20;
+    private static final int MAX_STOPS_PER_TRIP = 40;
+    // Platforms of the default board: tram both ways at Årstadal, bus both ways at Sjövikstorget
+    private static final String[][] BOARD_PLATFORMS = {
+            {GtfsService.STOP_ID_TRAM_FROM_LILJEHOLMEN, "9021001004513000", "Årstadal"},
+            {GtfsService.STOP_ID_TRAM_TO_LILJEHOLMEN, "9021001004513000", "Årstadal"},
+            {GtfsService.STOP_ID_BUS_TO_OSTBERGAHOJDEN, "9021001013905000", "Sjövikstorget"},
+            {GtfsService.STOP_ID_BUS_TO_LILJEHOLMEN, "9021001013905000", "Sjövikstorget"}};
+
+    private SyntheticFeed() {
+    }
+
+    /**
+     * @return Archive with about the given number of stop times, generated if it does not exist yet
+     */
+    static Path zip(int stopTimes) throws IOException {
+        Path zip = DIRECTORY.resolve("synthetic-" + stopTimes + ".zip");
+        if (Files.isRegularFile(zip)) {
+            return zip;
+        }
+        Files.createDirectories(DIRECTORY);
+        Path temporary = Files.createTempFile(DIRECTORY, "synthetic-", ".tmp");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(temporary));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16)) {
+            write(stopTimes, out, writer);
+        }
+        Files.move(temporary, zip, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return zip;
+    }
+
+    private static void write(int stopTimes, ZipOutputStream out, Writer writer) throws IOException {
+        Random random = new Random(stopTimes);
+        int stations = Math.clamp(stopTimes / 400, 200, 15_000);
+        int lines = Math.max(20, stations / 25);
+        int trips = Math.max(lines, stopTimes / ((MIN_STOPS_PER_TRIP + MAX_STOPS_PER_TRIP) / 2));
+
+        entry(out, writer, "stops.txt");
+        writer.write("stop_id,stop_name,stop_lat,stop_lon,location_type,parent_station,platform_code\n");
+        for (String[] platform : BOARD_PLATFORMS) {
+            writer.write(platform[0] + "," + platform[2] + ",59.306,18.026,0," + platform[1] + ",\n");
+        }
+        writer.write("9021001004513000,Årstadal,59.306,18.026,1,,\n");
+        writer.write("9021001013905000,Sjövikstorget,59.307,18.029,1,,\n");
+        for (int station = 0; station < stations; station++) {
+            String latitude = String.format(Locale.ROOT, "%.6f", 59.0 + random.nextDouble() * 0.6);
+            String longitude = String.format(Locale.ROOT, "%.6f", 17.6 + random.nextDouble() * 1.2);
+            writer.write(stationId(station) + ",Station " + station + "," + latitude + "," + longitude + ",1,,\n");
+            for (int side = 1; side <= 2; side++) {
+                writer.write(platformId(station, side) + ",Station " + station + "," + latitude + "," + longitude
+                        + ",0," + stationId(station) + "," + side + "\n");
+            }
+        }
+
+        // Each line runs through a fixed list of platforms, in both directions
+        int[][] linePlatforms = new int[lines][];
+        entry(out, writer, "routes.txt");
+        writer.write("route_id,agency_id,route_short_name,route_long_name,route_type,route_desc\n");
+        for (int line = 0; line < lines; line++) {
+            linePlatforms[line] = new int[MIN_STOPS_PER_TRIP + random.nextInt(MAX_STOPS_PER_TRIP - MIN_STOPS_PER_TRIP + 1)];
+            for (int i = 0; i < linePlatforms[line].length; i++) {
+                linePlatforms[line][i] = random.nextInt(stations);
+            }
+            int routeType = line == 0 ? 900 : line % 10 == 5 ? 401 : 700;
+            writer.write("route" + line + ",SL," + (line + 1) + ",," + routeType + ",\n");
+        }
+
+        entry(out, writer, "trips.txt");
+        writer.write("route_id,service_id,trip_id,trip_headsign,direction_id\n");
+        for (int trip = 0; trip < trips; trip++) {
+            writer.write("route" + (trip % lines) + ",1,trip" + trip + ",," + (trip / lines) % 2 + "\n");
+        }
+
+        entry(out, writer, "stop_times.txt");
+        writer.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign\n");
+        int tripsPerLine = Math.max(1, trips / lines);
+        for (int trip = 0; trip < trips; trip++) {
+            int line = trip % lines;
+            int[] platforms = linePlatforms[line];
+            int direction = (trip / lines) % 2;
+            int side = direction + 1;
+            // Trips of a line are spread from 05:00 until 25:00
+            int time = 5 * 3600 + (int) ((long) (trip / lines) * 20 * 3600 / tripsPerLine);
+            String headsign = "Station " + platforms[direction == 0 ? platforms.length - 1 : 0];
+            for (int i = 0; i < platforms.length; i++) {
+                int station = platforms[direction == 0 ? i : platforms.length - 1 - i];
+                // The first lines start at the board's platforms, one direction each
+                String stopId = i == 0 && line < 2 ? BOARD_PLATFORMS[line * 2 + direction][0] : platformId(station, side);
+                String clock = clock(time);
+                writer.write("trip" + trip + "," + clock + "," + clock + "," + stopId + "," + (i + 1) + "," + headsign + "\n");
+                time += 60 + random.nextInt(120);
+            }
+        }
+
+        entry(out, writer, "calendar.txt");
+        writer.write("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n");
+        writer.write("1,1,1,1,1,1,1,1,20250101,20261231\n");
+        entry(out, writer, "calendar_dates.txt");
+        writer.write("service_id,date,exception_type\n");
+    }
+
+    private static void entry(ZipOutputStream out, Writer writer, String name) throws IOException {
+        writer.flush();
+        out.putNextEntry(new ZipEntry(name));
+    }
+
+    private static String stationId(int station) {
+        return "90210010" + String.format("%08d", station);
+    }
+
+    private static String platformId(int station, int side) {
+        return "90220010" + String.format("%07d", station) + side;
+    }
+
+    private static String clock(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
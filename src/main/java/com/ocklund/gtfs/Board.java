@@ -0,0 +1,45 @@
+package com.ocklund.gtfs;
+
+import com.ocklund.gtfs.configuration.GtfsProperties;
+
+import java.util.List;
+
+/**
+ * A departure board: rows of stops, each row with a header.
+ * All boards are served from the same timetable, which indexes the stops of every board.
+ */
+public record Board(String id, List<Row> rows) {
+
+    public record Row(String title, List<String> stopIds) {
+    }
+
+    // Prefix of the ids of boards near a location, which configured boards must not use
+    static final String NEARBY_ID_PREFIX = "near:";
+
+    /**
+     * @throws IllegalArgumentException if the id is reserved for boards near a location
+     */
+    static Board of(String id, GtfsProperties.Board properties) {
+        if (id.startsWith(NEARBY_ID_PREFIX)) {
+            throw new IllegalArgumentException("Board id is reserved for boards near a location: " + id);
+        }
+        List<Row> rows = properties.getRows().stream()
+                .map(row -> new Row(row.getTitle() != null ? row.getTitle() : "", List.copyOf(row.getStops())))
+                .toList();
+        return new Board(id, rows);
+    }
+
+    /**
+     * @return Stop ids of all rows, in display order
+     */
+    public List<String> stopIds() {
+        return rows.stream().flatMap(row -> row.stopIds().stream()).toList();
+    }
+
+    /**
+     * @return Largest number of stops in a row, which is the number of columns of the board
+     */
+    public int columns() {
+        return rows.stream().mapToInt(row -> row.stopIds().size()).max().orElse(1);
+    }
+}
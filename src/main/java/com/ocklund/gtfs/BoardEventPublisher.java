@@ -0,0 +1,218 @@
+package com.ocklund.gtfs;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Pushes the departures of a board to its subscribers as server-sent events, only when they change.
+ * <p>
+ * A timer checks every board that has subscribers. The event of a board is computed once (through
+ * {@link ReportCache}) and serialized once, and is then sent to all its subscribers on virtual threads, so a slow
+ * connection does not hold up the others. Each subscriber has a mailbox of one event, so its events are sent one
+ * at a time and in order, and an event that has not been sent when a newer one arrives is dropped.
+ * Idle connections only cost their emitter.
+ */
+@Component
+public class BoardEventPublisher {
+
+    static final String EVENT_NAME = "board";
+    // Connections are closed after this long, and the browser then reconnects
+    private static final long SUBSCRIPTION_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long CHECK_INTERVAL_MILLIS = 2000;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm");
+
+    /**
+     * Content of an event: the clock shown on the board, and one report per stop
+     */
+    public record BoardUpdate(String time, List<String> reports) {
+    }
+
+    /**
+     * A serialized event, numbered per board so that an older event never replaces a newer one
+     */
+    record Event(long sequence, String data) {
+    }
+
+    private static final class Subscribers {
+        private final Board board;
+        private final Map<SseEmitter, Mailbox> emitters = new ConcurrentHashMap<>();
+        // Last event sent, so that an event is only sent when its content changes
+        private volatile BoardUpdate lastUpdate;
+        private volatile Event lastEvent;
+
+        private Subscribers(Board board) {
+            this.board = board;
+        }
+    }
+
+    /**
+     * Sends the events of one subscriber one at a time. Only the newest event that has not been sent is kept.
+     */
+    static final class Mailbox {
+        private final Executor executor;
+        private final Consumer<String> sender;
+        private final AtomicReference<Event> pending = new AtomicReference<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // Only read and written by the task that holds sending
+        private long lastSent = -1;
+
+        Mailbox(Executor executor, Consumer<String> sender) {
+            this.executor = executor;
+            this.sender = sender;
+        }
+
+        /**
+         * Queues the event, replacing an older event that has not been sent
+         */
+        void offer(Event event) {
+            pending.accumulateAndGet(event, (queued, offered) ->
+                    queued == null || offered.sequence() > queued.sequence() ? offered : queued);
+            if (sending.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Event event = pending.getAndSet(null);
+                if (event == null) {
+                    sending.set(false);
+                    // An event offered after the mailbox was found empty, but before sending was cleared
+                    if (pending.get() == null || !sending.compareAndSet(false, true)) {
+                        return;
+                    }
+                } else if (event.sequence() > lastSent) {
+                    lastSent = event.sequence();
+                    sender.accept(event.data());
+                }
+            }
+        }
+    }
+
+    private final GtfsService gtfsService;
+    private final ReportCache reportCache;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Subscribers> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private ScheduledExecutorService timer;
+
+    public BoardEventPublisher(GtfsService gtfsService, ReportCache reportCache, ObjectMapper objectMapper) {
+        this.gtfsService = gtfsService;
+        this.reportCache = reportCache;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void start() {
+        timer = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("board-events").factory());
+        timer.scheduleWithFixedDelay(this::publishChanges, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        senders.shutdownNow();
+        subscribers.values().forEach(board -> board.emitters.keySet().forEach(SseEmitter::complete));
+    }
+
+    /**
+     * Subscribes to the events of a board. The current departures are sent right away.
+     */
+    public SseEmitter subscribe(Board board) throws IOException {
+        SseEmitter emitter = new SseEmitter(SUBSCRIPTION_TIMEOUT_MILLIS);
+        Mailbox mailbox = new Mailbox(senders, event -> send(board.id(), emitter, event));
+        // Added while holding the map entry, so that a board is never removed just as it gets a subscriber
+        Subscribers boardSubscribers = subscribers.compute(board.id(), (id, existing) -> {
+            Subscribers added = existing != null ? existing : new Subscribers(board);
+            added.emitters.put(emitter, mailbox);
+            return added;
+        });
+        emitter.onCompletion(() -> boardSubscribers.emitters.remove(emitter));
+        emitter.onTimeout(() -> boardSubscribers.emitters.remove(emitter));
+        emitter.onError(e -> boardSubscribers.emitters.remove(emitter));
+        // Read after the subscriber was added, so an event published meanwhile is either this one or newer
+        Event event = boardSubscribers.lastEvent;
+        if (event == null) {
+            // Older than any published event, which then replaces it
+            event = new Event(0, serialize(update(board)));
+        }
+        mailbox.offer(event);
+        return emitter;
+    }
+
+    /**
+     * Sends an event to the subscribers of every board whose departures have changed since its last event
+     */
+    void publishChanges() {
+        for (Subscribers boardSubscribers : subscribers.values()) {
+            if (boardSubscribers.emitters.isEmpty()) {
+                // Boards near a location come and go, so boards without subscribers are dropped
+                subscribers.computeIfPresent(boardSubscribers.board.id(),
+                        (id, existing) -> existing.emitters.isEmpty() ? null : existing);
+                continue;
+            }
+            try {
+                BoardUpdate update = update(boardSubscribers.board);
+                if (update.equals(boardSubscribers.lastUpdate)) {
+                    continue;
+                }
+                Event last = boardSubscribers.lastEvent;
+                Event event = new Event(last != null ? last.sequence() + 1 : 1, serialize(update));
+                boardSubscribers.lastUpdate = update;
+                boardSubscribers.lastEvent = event;
+                for (Mailbox mailbox : boardSubscribers.emitters.values()) {
+                    mailbox.offer(event);
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to publish board " + boardSubscribers.board.id() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    int subscriberCount(String boardId) {
+        Subscribers boardSubscribers = subscribers.get(boardId);
+        return boardSubscribers != null ? boardSubscribers.emitters.size() : 0;
+    }
+
+    private BoardUpdate update(Board board) {
+        String time = gtfsService.getCurrentDateTime().format(TIME_FORMAT);
+        return new BoardUpdate(time, reportCache.getStopReports(board));
+    }
+
+    private String serialize(BoardUpdate update) throws JsonProcessingException {
+        return objectMapper.writeValueAsString(update);
+    }
+
+    private void send(String boardId, SseEmitter emitter, String event) {
+        try {
+            emitter.send(SseEmitter.event().name(EVENT_NAME).data(event));
+        } catch (IOException | IllegalStateException e) {
+            // The client has gone away
+            Subscribers boardSubscribers = subscribers.get(boardId);
+            if (boardSubscribers != null) {
+                boardSubscribers.emitters.remove(emitter);
+            }
+            emitter.completeWithError(e);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.ocklund.gtfs;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Renders the page of a departure board without a template engine.
+ * <p>
+ * The style sheet, the script and the logo are static assets, read from src/main/resources/board and gzipped
+ * once. Their names include a hash of their content, so browsers can cache them for good and a changed asset
+ * gets a new name. The page itself only holds the clock and the reports of the board. It is written as UTF-8
+ * into pooled buffers, between parts of the page that are encoded once.
+ * <p>
+ * Pages of several requests may be written at once, each into a buffer of its own.
+ */
+final class BoardPage {
+
+    static final String ASSET_PATH = "/assets/";
+    private static final String TITLE = "Avg&aring;ngar inom 15 minuter";
+
+    /**
+     * A static asset of the page
+     * @param name Name under {@link #ASSET_PATH}, with a hash of the content
+     * @param contentType Media type with charset
+     * @param gzipped The content gzipped, or null if that is not smaller
+     * @param etag Strong entity tag of the content
+     */
+    record Asset(String name, String contentType, byte[] content, byte[] gzipped, String etag) {
+    }
+
+    private final Map<String, Asset> assets;
+    // Parts of the page that are the same for every board, around the values of the board
+    private final byte[] head;
+    private final byte[] events;
+    private final byte[] header;
+    private final byte[] columns;
+    private final byte[] rowHeader;
+    private final byte[] stopBlock;
+    private final byte[] tail;
+    private final ArrayBlockingQueue<PageBuffer> bufferPool =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    BoardPage() {
+        Asset logo = asset("sl", ".svg", "image/svg+xml", read("sl.svg"));
+        // The style sheet refers to the logo by its name with the hash
+        Asset style = asset("board", ".css", "text/css;charset=UTF-8",
+                new String(read("board.css"), StandardCharsets.UTF_8).replace("url(sl.svg)", "url(" + logo.name() + ")")
+                        .getBytes(StandardCharsets.UTF_8));
+        Asset script = asset("board", ".js", "text/javascript;charset=UTF-8", read("board.js"));
+        assets = Map.of(logo.name(), logo, style.name(), style, script.name(), script);
+
+        head = utf8("""
+                <!DOCTYPE html>
+                <html lang="sv">
+                <head>
+                    <meta charset="UTF-8">
+                    <!-- Without JavaScript the page is reloaded instead of receiving events -->
+                    <noscript><meta http-equiv="refresh" content="10"></noscript>
+                    <title>SL: %s</title>
+                    <link rel="stylesheet" href="%s">
+                    <script src="%s" defer></script>
+                </head>
+                <body""".formatted(TITLE, ASSET_PATH + style.name(), ASSET_PATH + script.name()));
+        events = utf8(" data-events=\"");
+        header = utf8("\">\n    <div class=\"current-time\">");
+        columns = utf8("</div>\n    <h2><span class=\"logo\"></span>" + TITLE + "</h2>\n"
+                + "    <div class=\"grid-container\" style=\"grid-template-columns: repeat(");
+        rowHeader = utf8("\n        <h3 class=\"row-header\">");
+        stopBlock = utf8("\n        <div class=\"stop-block\">");
+        tail = utf8("\n    </div>\n</body>\n</html>\n");
+    }
+
+    /**
+     * @param name Name under {@link #ASSET_PATH}
+     * @return The asset, or null if there is none with the name
+     */
+    Asset asset(String name) {
+        return assets.get(name);
+    }
+
+    /**
+     * Writes the page of a board
+     * @param rows Rows of the board with the reports of their stops, which are HTML
+     * @param columns Number of stop blocks per line
+     * @param eventsUrl URL of the server-sent events of the board
+     */
+    void write(List<GtfsController.RowReports> rows, int columns, boolean darkMode, LocalDateTime currentTime,
+               String eventsUrl, HttpServletResponse response) throws IOException {
+        PageBuffer page = bufferPool.poll();
+        if (page == null) {
+            page = new PageBuffer();
+        }
+        try {
+            page.size = 0;
+            page.append(head);
+            if (darkMode) {
+                page.ascii(" class=\"dark-mode\"");
+            }
+            page.append(events);
+            page.text(eventsUrl);
+            page.append(header);
+            page.twoDigits(currentTime.getHour());
+            page.ascii(":");
+            page.twoDigits(currentTime.getMinute());
+            page.append(this.columns);
+            page.ascii(Integer.toString(columns));
+            page.ascii(", 1fr)\">");
+            for (GtfsController.RowReports row : rows) {
+                if (!row.title().isEmpty()) {
+                    page.append(rowHeader);
+                    page.text(row.title());
+                    page.ascii("</h3>");
+                }
+                for (String report : row.reports()) {
+                    page.append(stopBlock);
+                    page.html(report);
+                    page.ascii("</div>");
+                }
+            }
+            page.append(tail);
+            response.setContentType("text/html;charset=UTF-8");
+            response.setContentLength(page.size);
+            response.getOutputStream().write(page.bytes, 0, page.size);
+        } finally {
+            bufferPool.offer(page);
+        }
+    }
+
+    private static byte[] read(String file) {
+        try (InputStream in = BoardPage.class.getResourceAsStream("/board/" + file)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing board asset: " + file);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Asset asset(String baseName, String extension, String contentType, byte[] content) {
+        try {
+            String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content), 0, 8);
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(gzipped) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            }) {
+                out.write(content);
+            }
+            return new Asset(baseName + "." + hash + extension, contentType, content,
+                    gzipped.size() < content.length ? gzipped.toByteArray() : null, "\"" + hash + "\"");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] utf8(String string) {
+        return string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A page being written, encoded to UTF-8 as it is appended
+     */
+    private static final class PageBuffer {
+
+        private byte[] bytes = new byte[8 * 1024];
+        private int size;
+
+        void append(byte[] part) {
+            ensure(part.length);
+            System.arraycopy(part, 0, bytes, size, part.length);
+            size += part.length;
+        }
+
+        /**
+         * Appends a string that only has ASCII characters
+         */
+        void ascii(String string) {
+            ensure(string.length());
+            for (int i = 0; i < string.length(); i++) {
+                bytes[size++] = (byte) string.charAt(i);
+            }
+        }
+
+        void twoDigits(int value) {
+            ensure(2);
+            bytes[size++] = (byte) ('0' + value / 10);
+            bytes[size++] = (byte) ('0' + value % 10);
+        }
+
+        /**
+         * Appends text, escaped for HTML content and attribute values
+         */
+        void text(String string) {
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                switch (c) {
+                    case '&' -> ascii("&amp;");
+                    case '<' -> ascii("&lt;");
+                    case '>' -> ascii("&gt;");
+                    case '"' -> ascii("&quot;");
+                    case '\'' -> ascii("&#39;");
+                    default -> i = character(string, i);
+                }
+            }
+        }
+
+        /**
+         * Appends HTML as it is
+         */
+        void html(String string) {
+            for (int i = 0; i < string.length(); i++) {
+                i = character(string, i);
+            }
+        }
+
+        /**
+         * Encodes the character at the index, which may be the first of a surrogate pair
+         * @return Index of the last char encoded
+         */
+        private int character(String string, int index) {
+            ensure(4);
+            char c = string.charAt(index);
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xc0 | c >> 6);
+                bytes[size++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && index + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(index + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(index + 1));
+                bytes[size++] = (byte) (0xf0 | codePoint >> 18);
+                bytes[size++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                bytes[size++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                bytes[size++] = (byte) (0x80 | codePoint & 0x3f);
+                return index + 1;
+            } else if (Character.isSurrogate(c)) {
+                // An unpaired surrogate is not a character
+                bytes[size++] = '?';
+            } else {
+                bytes[size++] = (byte) (0xe0 | c >> 12);
+                bytes[size++] = (byte) (0x80 | c >> 6 & 0x3f);
+                bytes[size++] = (byte) (0x80 | c & 0x3f);
+            }
+            return index;
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.ocklund.gtfs;
+
+import java.time.LocalDate;
+
+/**
+ * An upcoming departure from a stop of a board
+ * @param stopId Stop of the board, which may be a parent station of the platform the trip departs from
+ * @param date Date of the expected departure
+ * @param time Expected departure on the clock, "HH:mm"
+ * @param delay Delay in seconds from the realtime feed, negative if early and 0 without updates
+ * @param headsign Destination shown for the departure
+ * @param tripId Trip of the departure
+ * @param line Name of the line, e.g. "Buss 133", or null if the route of the trip is not known
+ * @param mode Mode of transport of the line, or null if the route of the trip is not known
+ */
+public record Departure(String stopId, LocalDate date, String time, int delay, String headsign, String tripId, String line,
+                        TransportMode mode) {
+}
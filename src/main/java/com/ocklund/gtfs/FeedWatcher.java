@@ -0,0 +1,103 @@
+package com.ocklund.gtfs;
+
+import com.ocklund.gtfs.configuration.GtfsProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directory of the feed archive and reloads the feed when the archive is replaced, see
+ * {@link GtfsService#reload()}. Publishing a new feed is then a matter of copying it over the old one.
+ */
+@Component
+public class FeedWatcher {
+
+    private final GtfsService gtfsService;
+    private final GtfsProperties properties;
+    private WatchService watchService;
+    private Thread thread;
+
+    public FeedWatcher(GtfsService gtfsService, GtfsProperties properties) {
+        this.gtfsService = gtfsService;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.getReload().isWatch()) {
+            return;
+        }
+        String zip = properties.getFeed().getZip();
+        if (zip == null || zip.isBlank()) {
+            System.err.println("Failed to watch GTFS feed: gtfs.feed.zip is not set");
+            return;
+        }
+        Path zipPath = Path.of(zip).toAbsolutePath();
+        try {
+            watchService = zipPath.getFileSystem().newWatchService();
+            zipPath.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("Failed to watch GTFS feed: " + e.getMessage());
+            return;
+        }
+        System.out.println("Watching " + zipPath + " for new GTFS feeds");
+        thread = Thread.ofPlatform().name("gtfs-feed-watcher").daemon().start(() -> watch(zipPath.getFileName()));
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Waits for changes to the archive, and reloads once it has not changed for the quiet period
+     */
+    private void watch(Path fileName) {
+        long quietMillis = properties.getReload().getQuietPeriod().toMillis();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!changed(watchService.take(), fileName)) {
+                    continue;
+                }
+                WatchKey next;
+                while ((next = watchService.poll(quietMillis, TimeUnit.MILLISECONDS)) != null) {
+                    changed(next, fileName);
+                }
+                try {
+                    gtfsService.reload();
+                } catch (RuntimeException e) {
+                    System.err.println("Failed to reload GTFS feed: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * @return true if any event of the key is for the archive
+     */
+    private static boolean changed(WatchKey key, Path fileName) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= fileName.equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+}
@@ -1,39 +1,385 @@
 
 package com.ocklund.gtfs;
 
+import com.ocklund.gtfs.configuration.GtfsProperties;
 import com.ocklund.gtfs.configuration.TimeProvider;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
-import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 @Controller
 public class GtfsController {
 
     private final GtfsService gtfsService;
+    private final ReportCache reportCache;
+    private final BoardEventPublisher boardEventPublisher;
     private final TimeProvider timeProvider;
+    private final GtfsProperties properties;
+    private final Metrics metrics;
+    private final BoardPage boardPage = new BoardPage();
     private static final ZoneId STOCKHOLM_ZONE = ZoneId.of("Europe/Stockholm");
+    // Limits for searches of stops
+    private static final int MAX_RADIUS_METRES = 5000;
+    private static final int MAX_RESULTS = 100;
+    private static final int MAX_STATIONS = 12;
+    // Longest time window of departures for journeys
+    private static final int MAX_JOURNEY_MINUTES = 180;
 
-    public GtfsController(GtfsService gtfsService, TimeProvider timeProvider) {
+    /**
+     * A row of a board with the reports of its stops, as shown on the page
+     */
+    public record RowReports(String title, List<String> reports) {
+    }
+
+    /**
+     * Departures of a board, as returned by the API, by stop in the order of the board and then by time
+     */
+    public record BoardDepartures(String board, List<Departure> departures) {
+    }
+
+    public GtfsController(GtfsService gtfsService, ReportCache reportCache, BoardEventPublisher boardEventPublisher,
+                          TimeProvider timeProvider, GtfsProperties properties, Metrics metrics) {
         this.gtfsService = gtfsService;
+        this.reportCache = reportCache;
+        this.boardEventPublisher = boardEventPublisher;
         this.timeProvider = timeProvider;
+        this.properties = properties;
+        this.metrics = metrics;
     }
 
     @GetMapping("/")
-    public String index(
+    public void index(
             @RequestParam(value = "darkMode", required = false, defaultValue = "false") boolean darkMode,
-            Model model
-    ) {
+            HttpServletResponse response
+    ) throws IOException {
         LocalDateTime currentTime = timeProvider.now(STOCKHOLM_ZONE);
         //System.out.println("index(darkMode: " + darkMode + ", time: " + currentTime + ")");
-        List<String> reports = gtfsService.getStopReports();
-        model.addAttribute("reports", reports);
-        model.addAttribute("darkMode", darkMode);
-        model.addAttribute("currentTime", currentTime);
-        return "index";
+        Board board = gtfsService.getDefaultBoard();
+        // The reports are shared by all requests within a minute
+        List<String> reports = reportCache.getStopReports(board);
+        render(board, reports, darkMode, currentTime, eventsUrl(board), response);
+    }
+
+    @GetMapping("/board/{boardId}")
+    public void board(
+            @PathVariable("boardId") String boardId,
+            @RequestParam(value = "darkMode", required = false, defaultValue = "false") boolean darkMode,
+            HttpServletResponse response
+    ) throws IOException {
+        Board board = board(boardId);
+        LocalDateTime currentTime = timeProvider.now(STOCKHOLM_ZONE);
+        List<String> reports = reportCache.getStopReports(board);
+        render(board, reports, darkMode, currentTime, eventsUrl(board), response);
+    }
+
+    /**
+     * Shows the stations nearest to a location, one row per station
+     */
+    @GetMapping("/near")
+    public void nearbyBoard(
+            @RequestParam("lat") double latitude,
+            @RequestParam("lon") double longitude,
+            @RequestParam(value = "stations", required = false, defaultValue = "4") int stations,
+            @RequestParam(value = "darkMode", required = false, defaultValue = "false") boolean darkMode,
+            HttpServletResponse response
+    ) throws IOException {
+        Board board = nearbyBoard(latitude, longitude, stations);
+        LocalDateTime currentTime = timeProvider.now(STOCKHOLM_ZONE);
+        List<String> reports = reportCache.getStopReports(board);
+        String eventsUrl = "/near/events?lat=" + latitude + "&lon=" + longitude + "&stations=" + stations;
+        render(board, reports, darkMode, currentTime, eventsUrl, response);
+    }
+
+    /**
+     * Style sheet, script and logo of the board page. Their names change with their content, so they may be
+     * cached for a year. They are sent gzipped to clients that accept it.
+     */
+    @GetMapping(BoardPage.ASSET_PATH + "{name}")
+    public ResponseEntity<byte[]> asset(
+            @PathVariable("name") String name,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest request
+    ) {
+        BoardPage.Asset asset = boardPage.asset(name);
+        if (asset == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        if (request.checkNotModified(asset.etag())) {
+            return null;
+        }
+        boolean gzip = asset.gzipped() != null && acceptsGzip(acceptEncoding);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable())
+                .eTag(asset.etag())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.parseMediaType(asset.contentType()));
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(gzip ? asset.gzipped() : asset.content());
+    }
+
+    /**
+     * @return true if the Accept-Encoding header accepts gzip without a quality of 0. An entry for gzip takes
+     * precedence over "*", wherever it is in the header.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].strip().toLowerCase(Locale.ROOT);
+            if (name.equals("gzip")) {
+                return !isRefused(parts);
+            }
+            if (name.equals("*")) {
+                wildcard = !isRefused(parts);
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private static boolean isRefused(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].replace(" ", "").toLowerCase(Locale.ROOT).matches("q=0(\\.0*)?")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @GetMapping(path = "/near/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter nearbyEvents(
+            @RequestParam("lat") double latitude,
+            @RequestParam("lon") double longitude,
+            @RequestParam(value = "stations", required = false, defaultValue = "4") int stations
+    ) throws IOException {
+        return boardEventPublisher.subscribe(nearbyBoard(latitude, longitude, stations));
+    }
+
+    /**
+     * Stops within a radius of a location as JSON, nearest first
+     */
+    @GetMapping(path = "/api/stops/nearby", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<NearbyStop> nearbyStops(
+            @RequestParam("lat") double latitude,
+            @RequestParam("lon") double longitude,
+            @RequestParam(value = "radius", required = false, defaultValue = "500") double radius,
+            @RequestParam(value = "limit", required = false, defaultValue = "20") int limit
+    ) {
+        checkLocation(latitude, longitude);
+        if (!(radius >= 0 && radius <= MAX_RADIUS_METRES) || limit < 1 || limit > MAX_RESULTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Radius must be 0-" + MAX_RADIUS_METRES
+                    + " metres and limit 1-" + MAX_RESULTS);
+        }
+        return gtfsService.getNearbyStops(latitude, longitude, radius, limit);
+    }
+
+    /**
+     * Stations and stops whose name matches a query as JSON, for autocompleting stop names
+     */
+    @GetMapping(path = "/api/stops/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<StopMatch> searchStops(
+            @RequestParam("q") String query,
+            @RequestParam(value = "limit", required = false, defaultValue = "10") int limit
+    ) {
+        if (limit < 1 || limit > MAX_RESULTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be 1-" + MAX_RESULTS);
+        }
+        return gtfsService.searchStops(query, limit);
+    }
+
+    private Board nearbyBoard(double latitude, double longitude, int stations) {
+        checkLocation(latitude, longitude);
+        if (stations < 1 || stations > MAX_STATIONS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Stations must be 1-" + MAX_STATIONS);
+        }
+        return gtfsService.getNearbyBoard(latitude, longitude, stations);
+    }
+
+    private static void checkLocation(double latitude, double longitude) {
+        if (!(latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid location: " + latitude + "," + longitude);
+        }
+    }
+
+    /**
+     * Streams the departures of a board as server-sent events, sent whenever they change
+     */
+    @GetMapping(path = "/board/{boardId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(@PathVariable("boardId") String boardId) throws IOException {
+        return boardEventPublisher.subscribe(board(boardId));
+    }
+
+    /**
+     * Departures of a board as JSON, of the default board if none is given, optionally only those of one mode of
+     * transport. The response has a strong ETag, and a request with a matching If-None-Match header gets 304
+     * without a body.
+     */
+    @GetMapping(path = "/api/departures", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<BoardDepartures> departures(
+            @RequestParam(value = "board", required = false) String boardId,
+            @RequestParam(value = "mode", required = false) String modeName,
+            WebRequest request
+    ) {
+        Board board = boardId != null ? board(boardId) : gtfsService.getDefaultBoard();
+        TransportMode mode = modeName != null ? mode(modeName) : null;
+        ReportCache.Reports reports = reportCache.get(board);
+        // The departures of a mode only change with those of the board, so the tag of the board is reused
+        String etag = mode == null ? reports.etag()
+                : reports.etag().substring(0, reports.etag().length() - 1) + "-" + mode.name().toLowerCase(Locale.ROOT) + "\"";
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        List<Departure> departures = reports.departures().stream()
+                .flatMap(List::stream)
+                .filter(departure -> mode == null || departure.mode() == mode)
+                .toList();
+        // Caches may keep the response, but must check with the server before using it
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .eTag(etag)
+                .body(new BoardDepartures(board.id(), departures));
+    }
+
+    /**
+     * The next departures of each stop of a board as JSON, within a time window that may pass midnight. Unlike
+     * {@link #departures}, the departures are not shared between requests.
+     */
+    @GetMapping(path = "/api/departures/next", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public BoardDepartures nextDepartures(
+            @RequestParam(value = "board", required = false) String boardId,
+            @RequestParam(value = "limit", required = false, defaultValue = "10") int limit,
+            @RequestParam(value = "minutes", required = false, defaultValue = "1440") int minutes
+    ) {
+        if (limit < 1 || limit > MAX_RESULTS || minutes < 1 || minutes > GtfsService.MAX_HORIZON.toMinutes()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be 1-" + MAX_RESULTS
+                    + " and minutes 1-" + GtfsService.MAX_HORIZON.toMinutes());
+        }
+        Board board = boardId != null ? board(boardId) : gtfsService.getDefaultBoard();
+        List<Departure> departures = gtfsService.getNextDepartures(board, timeProvider.now(STOCKHOLM_ZONE), limit,
+                        Duration.ofMinutes(minutes)).stream()
+                .flatMap(List::stream)
+                .toList();
+        return new BoardDepartures(board.id(), departures);
+    }
+
+    private static TransportMode mode(String name) {
+        try {
+            return TransportMode.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown mode: " + name);
+        }
+    }
+
+    /**
+     * Journeys between two stops or stations as JSON, leaving now or at the given time on today's date. Without
+     * {@code minutes}, the journey arriving first; otherwise every journey leaving in that many minutes that no
+     * journey leaving later beats. Only available when gtfs.routing.enabled is set.
+     */
+    @GetMapping(path = "/api/journeys", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<Journey> journeys(
+            @RequestParam("from") String fromStopId,
+            @RequestParam("to") String toStopId,
+            @RequestParam(value = "time", required = false) LocalTime time,
+            @RequestParam(value = "minutes", required = false, defaultValue = "0") int minutes,
+            @RequestParam(value = "transfers", required = false, defaultValue = "3") int transfers
+    ) {
+        if (!properties.getRouting().isEnabled()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        if (minutes < 0 || minutes > MAX_JOURNEY_MINUTES || transfers < 0 || transfers > JourneyPlanner.MAX_TRANSFERS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Minutes must be 0-" + MAX_JOURNEY_MINUTES
+                    + " and transfers 0-" + JourneyPlanner.MAX_TRANSFERS);
+        }
+        LocalDateTime now = timeProvider.now(STOCKHOLM_ZONE);
+        LocalDateTime departure = time != null ? now.toLocalDate().atTime(time) : now;
+        try {
+            return gtfsService.planJourneys(fromStopId, toStopId, departure, Duration.ofMinutes(minutes), transfers);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * Metrics in the Prometheus text format
+     */
+    @GetMapping(path = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    @ResponseBody
+    public String metrics() {
+        return metrics.scrape();
+    }
+
+    /**
+     * Reloads the feed and replaces the timetable if the new one is valid. Only available when
+     * gtfs.reload.endpoint is set.
+     */
+    @PostMapping(path = "/admin/reload", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ReloadResult reload() {
+        if (!properties.getReload().isEndpoint()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+        return gtfsService.reload();
+    }
+
+    private Board board(String boardId) {
+        Board board = gtfsService.getBoard(boardId);
+        if (board == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown board: " + boardId);
+        }
+        return board;
+    }
+
+    private static String eventsUrl(Board board) {
+        return "/board/" + board.id() + "/events";
+    }
+
+    private void render(Board board, List<String> reports, boolean darkMode, LocalDateTime currentTime,
+                        String eventsUrl, HttpServletResponse response) throws IOException {
+        boardPage.write(rowReports(board, reports), board.columns(), darkMode, currentTime, eventsUrl, response);
+    }
+
+    /**
+     * Splits the reports of a board, which are in the order of {@link Board#stopIds()}, into its rows
+     */
+    static List<RowReports> rowReports(Board board, List<String> reports) {
+        List<RowReports> rows = new ArrayList<>();
+        int next = 0;
+        for (Board.Row row : board.rows()) {
+            int end = Math.min(next + row.stopIds().size(), reports.size());
+            rows.add(new RowReports(row.title(), reports.subList(Math.min(next, end), end)));
+            next = end;
+        }
+        return rows;
     }
 }
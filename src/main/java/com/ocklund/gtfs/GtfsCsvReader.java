@@ -0,0 +1,527 @@
+package com.ocklund.gtfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Row-by-row tokenizer for GTFS CSV files (RFC 4180 with UTF-8 and an optional byte order mark).
+ * <p>
+ * Files are memory-mapped when possible and otherwise read through a fixed-size buffer that is refilled
+ * from a channel, so heap use does not grow with the file size. Fields of the current row are kept as
+ * byte ranges in the underlying buffer and only decoded when asked for, so a row costs no allocation
+ * unless a caller materialises a String. Columns are looked up by header name, and quoted fields may
+ * contain delimiters, line breaks and escaped ({@code ""}) quotes.
+ * <p>
+ * Not thread-safe. Use {@link #close()} (or try-with-resources) when done.
+ */
+final class GtfsCsvReader implements Closeable {
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_COLUMNS = 64;
+
+    private ByteBuffer buffer;
+    private final ReadableByteChannel channel;
+    private boolean endOfInput;
+    private int position;
+
+    private final int[] starts = new int[MAX_COLUMNS];
+    private final int[] ends = new int[MAX_COLUMNS];
+    private final boolean[] escaped = new boolean[MAX_COLUMNS];
+    private int fieldCount;
+    private byte[] scratch = new byte[128];
+
+    private final Map<String, Integer> columns = new HashMap<>();
+    private long rowCount;
+    private long bytesConsumed;
+
+    private GtfsCsvReader(ByteBuffer buffer, ReadableByteChannel channel) throws IOException {
+        this.buffer = buffer;
+        this.channel = channel;
+        this.endOfInput = channel == null;
+        readHeader();
+    }
+
+    private GtfsCsvReader(ByteBuffer chunk, Map<String, Integer> columns) {
+        this.buffer = chunk;
+        this.channel = null;
+        this.endOfInput = true;
+        this.columns.putAll(columns);
+    }
+
+    /**
+     * Opens a file, memory-mapping it when it fits in a single mapping
+     */
+    static GtfsCsvReader open(Path path) throws IOException {
+        FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = fileChannel.size();
+            if (size > Integer.MAX_VALUE) {
+                return new GtfsCsvReader(emptyStreamBuffer(), fileChannel);
+            }
+            ByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            // The mapping stays valid after the channel is closed
+            fileChannel.close();
+            return new GtfsCsvReader(mapped, (ReadableByteChannel) null);
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a stream and reads it through a bounded buffer. The stream is closed with the reader.
+     */
+    static GtfsCsvReader open(InputStream inputStream) throws IOException {
+        return new GtfsCsvReader(emptyStreamBuffer(), Channels.newChannel(inputStream));
+    }
+
+    /**
+     * Wraps bytes already in memory
+     */
+    static GtfsCsvReader open(ByteBuffer content) throws IOException {
+        return new GtfsCsvReader(content.slice(), (ReadableByteChannel) null);
+    }
+
+    private static ByteBuffer emptyStreamBuffer() {
+        return ByteBuffer.allocate(STREAM_BUFFER_SIZE).limit(0);
+    }
+
+    private void readHeader() throws IOException {
+        skipByteOrderMark();
+        if (!next()) {
+            return;
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            columns.putIfAbsent(getString(i).trim(), i);
+        }
+        rowCount = 0;
+    }
+
+    private void skipByteOrderMark() throws IOException {
+        while (buffer.limit() - position < 3 && fill()) {
+            // Keep reading until the first three bytes are available
+        }
+        if (buffer.limit() - position >= 3
+                && buffer.get(position) == (byte) 0xEF
+                && buffer.get(position + 1) == (byte) 0xBB
+                && buffer.get(position + 2) == (byte) 0xBF) {
+            position += 3;
+        }
+    }
+
+    /**
+     * @param name Column name from the header row
+     * @return Index of the column, or -1 if the file does not have it
+     */
+    int column(String name) {
+        return columns.getOrDefault(name, -1);
+    }
+
+    /**
+     * @param name Column name from the header row
+     * @return Index of the column
+     * @throws IllegalStateException if the file does not have the column
+     */
+    int requiredColumn(String name) {
+        int column = column(name);
+        if (column < 0) {
+            throw new IllegalStateException("Missing column " + name + " in header " + columns.keySet());
+        }
+        return column;
+    }
+
+    /**
+     * Advances to the next data row, skipping blank lines
+     * @return false when there are no more rows
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int rowEnd = scanRow(position, endOfInput);
+            if (rowEnd >= 0) {
+                boolean blank = fieldCount == 1 && starts[0] == position && ends[0] == position;
+                bytesConsumed += rowEnd - position;
+                position = rowEnd;
+                if (blank) {
+                    continue;
+                }
+                rowCount++;
+                return true;
+            }
+            if (endOfInput) {
+                fieldCount = 0;
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * @return Number of fields in the current row, which may be less than the number of header columns
+     */
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return Number of data rows read so far, not counting the header
+     */
+    long rowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Number of bytes consumed so far, including the header
+     */
+    long bytesConsumed() {
+        return bytesConsumed;
+    }
+
+    boolean isEmpty(int column) {
+        return length(column) == 0;
+    }
+
+    /**
+     * @return Length in bytes of the field, as stored in the file (without surrounding quotes)
+     */
+    int length(int column) {
+        return column >= 0 && column < fieldCount ? ends[column] - starts[column] : 0;
+    }
+
+    /**
+     * @return true if the field is quoted and contains escaped quotes, so its stored bytes differ from its value
+     */
+    boolean isEscaped(int column) {
+        return column >= 0 && column < fieldCount && escaped[column];
+    }
+
+    /**
+     * Hashes the stored bytes of the field, see {@link IdTable#hash(byte[], int, int)}
+     */
+    int fieldHash(int column) {
+        int length = length(column);
+        int start = length > 0 ? starts[column] : 0;
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Compares the stored bytes of the field with a range of an array, without decoding the field
+     */
+    boolean fieldEquals(int column, byte[] array, int offset, int length) {
+        if (length(column) != length) {
+            return false;
+        }
+        if (length == 0) {
+            return true;
+        }
+        int start = starts[column];
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(start + i) != array[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the field with the given bytes without decoding it
+     */
+    boolean fieldEquals(int column, byte[] value) {
+        if (column < 0 || column >= fieldCount) {
+            return value.length == 0;
+        }
+        if (escaped[column]) {
+            return getString(column).equals(new String(value, StandardCharsets.UTF_8));
+        }
+        if (length(column) != value.length) {
+            return false;
+        }
+        int start = starts[column];
+        for (int i = 0; i < value.length; i++) {
+            if (buffer.get(start + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The field decoded as UTF-8, or an empty string for a missing field
+     */
+    String getString(int column) {
+        int length = length(column);
+        if (length == 0) {
+            return "";
+        }
+        int start = starts[column];
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        if (!escaped[column]) {
+            buffer.get(start, scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+        // Collapse escaped double quotes
+        int out = 0;
+        for (int i = start; i < start + length; i++) {
+            byte b = buffer.get(i);
+            scratch[out++] = b;
+            if (b == '"') {
+                i++;
+            }
+        }
+        return new String(scratch, 0, out, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the field as a non-negative decimal integer
+     * @throws IllegalArgumentException if the field is empty or not a number
+     */
+    int getInt(int column) {
+        long value = getLong(column);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Number out of range: " + getString(column));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses the field as a non-negative decimal long
+     * @throws IllegalArgumentException if the field is empty or not a number
+     */
+    long getLong(int column) {
+        int length = length(column);
+        if (length == 0 || length > 18) {
+            throw new IllegalArgumentException("Invalid number: " + getString(column));
+        }
+        long value = 0;
+        int start = starts[column];
+        for (int i = start; i < start + length; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw new IllegalArgumentException("Invalid number: " + getString(column));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Parses the field as a signed decimal number scaled to a fixed number of decimals, e.g. "59.3074" with
+     * 6 decimals gives 59307400. Further decimals are truncated.
+     * @throws IllegalArgumentException if the field is empty or not a number
+     */
+    int getFixedPoint(int column, int decimals) {
+        int length = length(column);
+        if (length == 0 || length > 18) {
+            throw new IllegalArgumentException("Invalid number: " + getString(column));
+        }
+        int start = starts[column];
+        int end = start + length;
+        boolean negative = buffer.get(start) == '-';
+        long value = 0;
+        int scale = -1;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+            } else if (b >= '0' && b <= '9') {
+                if (scale < decimals) {
+                    value = value * 10 + (b - '0');
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("Invalid number: " + getString(column));
+            }
+        }
+        for (int i = Math.max(scale, 0); i < decimals; i++) {
+            value *= 10;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Number out of range: " + getString(column));
+        }
+        return negative ? (int) -value : (int) value;
+    }
+
+    /**
+     * Parses the field as a GTFS time, see {@link ServiceTime#parse(ByteBuffer, int, int)}
+     * @throws IllegalArgumentException if the field is missing or not a time
+     */
+    int getServiceTime(int column) {
+        int length = length(column);
+        int start = column >= 0 && column < fieldCount ? starts[column] : 0;
+        return ServiceTime.parse(buffer, start, start + length);
+    }
+
+    /**
+     * Splits the rows that have not been read yet into chunks at line boundaries, so that they can be
+     * parsed in parallel. Each chunk is an independent reader with the same header columns.
+     * Readers that stream their input cannot be split and return only themselves.
+     * Line breaks inside quoted fields are not supported at chunk boundaries, which GTFS files do not use
+     * for the large files where splitting matters.
+     * @param maxChunks Upper bound for the number of chunks
+     * @param minChunkBytes Chunks are not made smaller than this, so small files stay in one chunk
+     * @return Readers covering the remaining rows, in file order
+     */
+    List<GtfsCsvReader> split(int maxChunks, int minChunkBytes) {
+        int remaining = buffer.limit() - position;
+        int chunkCount = Math.min(maxChunks, remaining / Math.max(1, minChunkBytes));
+        if (channel != null || chunkCount <= 1) {
+            return List.of(this);
+        }
+        List<GtfsCsvReader> chunks = new ArrayList<>(chunkCount);
+        int start = position;
+        for (int i = 1; i <= chunkCount && start < buffer.limit(); i++) {
+            int end = i == chunkCount ? buffer.limit() : lineEndAfter(position + (int) ((long) remaining * i / chunkCount));
+            if (end > start) {
+                chunks.add(new GtfsCsvReader(buffer.slice(start, end - start), columns));
+            }
+            start = end;
+        }
+        // This reader's rows are now owned by the chunks
+        position = buffer.limit();
+        return chunks;
+    }
+
+    private int lineEndAfter(int from) {
+        int limit = buffer.limit();
+        int i = Math.max(from, position);
+        while (i < limit && buffer.get(i) != '\n') {
+            i++;
+        }
+        return Math.min(i + 1, limit);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Splits the row starting at {@code from} into fields.
+     * @return Position after the row terminator, or -1 if the row is not complete in the buffer
+     */
+    private int scanRow(int from, boolean atEnd) {
+        int limit = buffer.limit();
+        if (from >= limit) {
+            return -1;
+        }
+        int i = from;
+        int field = 0;
+        while (true) {
+            if (field == MAX_COLUMNS) {
+                throw new IllegalStateException("More than " + MAX_COLUMNS + " columns in row " + (rowCount + 1));
+            }
+            escaped[field] = false;
+            if (i < limit && buffer.get(i) == '"') {
+                // Quoted field: runs until a quote that is not followed by another quote
+                int start = ++i;
+                while (true) {
+                    if (i >= limit) {
+                        if (!atEnd) {
+                            return -1;
+                        }
+                        starts[field] = start;
+                        ends[field] = i;
+                        fieldCount = field + 1;
+                        return i;
+                    }
+                    if (buffer.get(i) == '"') {
+                        if (i + 1 < limit && buffer.get(i + 1) == '"') {
+                            escaped[field] = true;
+                            i += 2;
+                            continue;
+                        }
+                        if (i + 1 >= limit && !atEnd) {
+                            return -1;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                starts[field] = start;
+                ends[field] = i++;
+                // Ignore anything between the closing quote and the next delimiter
+                while (i < limit && buffer.get(i) != ',' && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+                    i++;
+                }
+            } else {
+                starts[field] = i;
+                while (i < limit && buffer.get(i) != ',' && buffer.get(i) != '\n' && buffer.get(i) != '\r') {
+                    i++;
+                }
+                ends[field] = i;
+            }
+            if (i >= limit) {
+                if (!atEnd) {
+                    return -1;
+                }
+                fieldCount = field + 1;
+                return i;
+            }
+            byte delimiter = buffer.get(i);
+            if (delimiter == ',') {
+                i++;
+                field++;
+                continue;
+            }
+            fieldCount = field + 1;
+            if (delimiter == '\r') {
+                if (i + 1 >= limit && !atEnd) {
+                    return -1;
+                }
+                if (i + 1 < limit && buffer.get(i + 1) == '\n') {
+                    i++;
+                }
+            }
+            return i + 1;
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more input, growing the buffer
+     * only when a single row does not fit.
+     * @return false if the end of the input was reached
+     */
+    private boolean fill() throws IOException {
+        if (endOfInput) {
+            return false;
+        }
+        int remaining = buffer.limit() - position;
+        if (position == 0 && remaining == buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            larger.put(buffer.position(0));
+            buffer = larger;
+        } else {
+            buffer.position(position);
+            buffer.compact();
+        }
+        position = 0;
+        int read = channel.read(buffer);
+        buffer.flip();
+        if (read < 0) {
+            endOfInput = true;
+            return false;
+        }
+        return true;
+    }
+}
@@ -1,19 +1,24 @@
 
 package com.ocklund.gtfs;
 
+import com.ocklund.gtfs.configuration.GtfsFeedSource;
+import com.ocklund.gtfs.configuration.GtfsProperties;
 import com.ocklund.gtfs.configuration.TimeProvider;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 @Service
 public class GtfsService {
@@ -29,174 +34,579 @@ public class GtfsService {
     // 9022001004513002,Årstadal,59.305707,18.025596,0,9021001004513000,2
     static final String STOP_ID_TRAM_TO_LILJEHOLMEN = "9022001004513002";
 
+    // Files of the feed that the timetable is built from
+    private static final List<String> FEED_FILES = List.of(
+            "stops.txt", "stop_times.txt", "trips.txt", "routes.txt", "calendar.txt", "calendar_dates.txt");
+
     private final TimeProvider timeProvider;
+    private final GtfsFeedSource feedSource;
+    private final GtfsProperties properties;
 
-    // Using LinkedHashSet to maintain insertion order for consistent quadrant display
-    private static final Set<String> TARGET_STOP_IDS = new LinkedHashSet<>(
-            Arrays.asList(
+    // Board used when no boards are configured, and for the start page
+    static final Board DEFAULT_BOARD = new Board("default", List.of(
+            new Board.Row("[ Tvärbanan ] Hållplats: Årstadal", List.of(
                     STOP_ID_TRAM_FROM_LILJEHOLMEN,    // Top-left: Solna station
-                    STOP_ID_TRAM_TO_LILJEHOLMEN,      // Top-right: Sickla
-                    STOP_ID_BUS_TO_OSTBERGAHOJDEN,       // Bottom-left: Östbergahöjden
-                    STOP_ID_BUS_TO_LILJEHOLMEN           // Bottom-right: Liljeholmen
-            )
-    );
-    private Map<String, Trip> tripsMap = new HashMap<>();
-    // Map to store scheduled stop times: key is stopId, value is a list of StopTime objects for that stop
-    private Map<String, List<StopTime>> stopTimesMap = new HashMap<>();
-    // Map to store child-to-parent stop relationships: key is child stopId, value is parent stopId
-    private final Map<String, String> childToParentMap = new HashMap<>();
-    // Set to store active service IDs for the current date
-    private Set<String> activeServiceIds = new HashSet<>();
-
-    public GtfsService(TimeProvider timeProvider) {
+                    STOP_ID_TRAM_TO_LILJEHOLMEN)),    // Top-right: Sickla
+            new Board.Row("[ Buss 134 ] Hållplats: Sjövikstorget", List.of(
+                    STOP_ID_BUS_TO_OSTBERGAHOJDEN,    // Bottom-left: Östbergahöjden
+                    STOP_ID_BUS_TO_LILJEHOLMEN))      // Bottom-right: Liljeholmen
+    ));
+
+    // Configured boards by id, in the order of the configuration
+    private final Map<String, Board> boards;
+    // Stops of all boards, which are indexed together in one timetable
+    private final Set<String> indexedStopIds;
+    // The loaded timetable. It is immutable and replaced as a whole, so requests read it without locking
+    // and never see a partly built timetable.
+    private final AtomicReference<Timetable> timetable = new AtomicReference<>(Timetable.EMPTY);
+    // Held while a new timetable is built, so reloads never build two at once
+    private final ReentrantLock reloading = new ReentrantLock();
+    // Stop names of the timetable, built when the timetable is loaded or else on the first search
+    private volatile StopNameIndex stopNameIndex;
+    // Journey planner of the timetable, created on the first query
+    private volatile JourneyPlanner journeyPlanner;
+    // Loads of the timetable, and the time to compute the departures of a board
+    private final LoadMetrics loadMetrics = new LoadMetrics();
+    private final LatencyHistogram departuresLatency = new LatencyHistogram();
+    // Latest realtime delays and cancellations, replaced as a whole by the realtime poller
+    private volatile RealtimeUpdates realtime = RealtimeUpdates.EMPTY;
+
+    public GtfsService(TimeProvider timeProvider, GtfsFeedSource feedSource, GtfsProperties properties) {
         this.timeProvider = timeProvider;
+        this.feedSource = feedSource;
+        this.properties = properties;
+        this.boards = Collections.unmodifiableMap(boards(properties));
+        Set<String> stopIds = new LinkedHashSet<>();
+        boards.values().forEach(board -> stopIds.addAll(board.stopIds()));
+        this.indexedStopIds = Collections.unmodifiableSet(stopIds);
+    }
+
+    private static Map<String, Board> boards(GtfsProperties properties) {
+        Map<String, Board> boards = new LinkedHashMap<>();
+        properties.getBoards().forEach((id, board) -> boards.put(id, Board.of(id, board)));
+        if (boards.isEmpty()) {
+            boards.put(DEFAULT_BOARD.id(), DEFAULT_BOARD);
+        }
+        return boards;
+    }
+
+    /**
+     * @return The loaded timetable, which realtime updates are decoded for
+     */
+    Timetable getTimetable() {
+        return timetable.get();
+    }
+
+    /**
+     * Replaces the timetable. Reports that have already read the previous timetable finish with it.
+     */
+    void setTimetable(Timetable timetable) {
+        this.timetable.set(timetable);
+    }
+
+    /**
+     * Replaces the realtime updates. Reports read them without locking, so they must not be modified afterwards.
+     */
+    void setRealtimeUpdates(RealtimeUpdates realtime) {
+        this.realtime = realtime;
+    }
+
+    RealtimeUpdates getRealtimeUpdates() {
+        return realtime;
+    }
+
+    LoadMetrics getLoadMetrics() {
+        return loadMetrics;
+    }
+
+    /**
+     * @return Time to compute the departures of a board, see {@link #getDepartures}
+     */
+    LatencyHistogram getDeparturesLatency() {
+        return departuresLatency;
+    }
+
+    /**
+     * @return Version of the realtime updates used by reports, which changes whenever new updates are set
+     */
+    long getRealtimeVersion() {
+        return realtime.version();
+    }
+
+    /**
+     * @return The first configured board, shown on the start page
+     */
+    Board getDefaultBoard() {
+        return boards.values().iterator().next();
+    }
+
+    /**
+     * @return The board with the given id, or null if there is no such board
+     */
+    Board getBoard(String boardId) {
+        return boards.get(boardId);
+    }
+
+    /**
+     * @param query Start of the name of a stop, or of a word in it, or a misspelling of the name
+     * @param limit Largest number of stops
+     * @return Stations and stops without a station whose name matches the query, best match first
+     */
+    List<StopMatch> searchStops(String query, int limit) {
+        Timetable timetable = this.timetable.get();
+        StopIndex index = timetable.stopIndex();
+        IdTable stops = timetable.stops();
+        List<StopMatch> matches = new ArrayList<>();
+        for (StopNameIndex.Match match : stopNameIndex(timetable).search(query, limit)) {
+            List<String> platforms = match.platforms().stream().map(stops::get).toList();
+            matches.add(new StopMatch(stops.get(match.stop()), index.name(match.stop()), platforms));
+        }
+        return matches;
+    }
+
+    private StopNameIndex stopNameIndex(Timetable timetable) {
+        StopNameIndex nameIndex = stopNameIndex;
+        if (nameIndex == null || nameIndex.timetable() != timetable) {
+            nameIndex = new StopNameIndex(timetable);
+            stopNameIndex = nameIndex;
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Plans journeys on the trips of the timetable, which only has the stop times of all trips when
+     * gtfs.routing.enabled is set
+     * @param fromStopId Stop or station to leave from. A station includes its platforms.
+     * @param toStopId Stop or station to arrive at
+     * @param departure Earliest departure
+     * @param window Length of the time window of departures: zero for the journey arriving first, or longer for
+     * every journey leaving in the window that no journey leaving later beats
+     * @param maxTransfers Largest number of transfers, at most {@link JourneyPlanner#MAX_TRANSFERS}
+     * @return The journeys by departure, empty if there is none
+     * @throws IllegalArgumentException if a stop is not in the timetable
+     */
+    List<Journey> planJourneys(String fromStopId, String toStopId, LocalDateTime departure, Duration window,
+                               int maxTransfers) {
+        Timetable timetable = this.timetable.get();
+        int[] origins = stopAndPlatforms(timetable, fromStopId);
+        int[] destinations = stopAndPlatforms(timetable, toStopId);
+        JourneyPlanner planner = journeyPlanner;
+        if (planner == null || planner.timetable() != timetable) {
+            planner = new JourneyPlanner(timetable);
+            journeyPlanner = planner;
+        }
+        int time = ServiceTime.of(departure);
+        if (window.isZero()) {
+            Journey journey = planner.earliestArrival(origins, destinations, departure.toLocalDate(), time, maxTransfers);
+            return journey != null ? List.of(journey) : List.of();
+        }
+        return planner.range(origins, destinations, departure.toLocalDate(), time, time + (int) window.toSeconds(),
+                maxTransfers);
+    }
+
+    /**
+     * @return The stop and the stops whose parent station it is
+     */
+    private static int[] stopAndPlatforms(Timetable timetable, String stopId) {
+        int stop = timetable.stops().find(stopId);
+        if (stop < 0) {
+            throw new IllegalArgumentException("Unknown stop: " + stopId);
+        }
+        IntPredicate included = other -> other == stop || timetable.parentStop(other) == stop;
+        return IntStream.range(0, timetable.stops().size()).filter(included).toArray();
+    }
+
+    /**
+     * @param radius Largest distance in metres
+     * @param limit Largest number of stops
+     * @return Stops of the feed within the radius of a location, nearest first
+     */
+    List<NearbyStop> getNearbyStops(double latitude, double longitude, double radius, int limit) {
+        Timetable timetable = this.timetable.get();
+        StopIndex index = timetable.stopIndex();
+        int[] found = index.within(latitude, longitude, radius, stop -> true);
+        List<NearbyStop> stops = new ArrayList<>();
+        for (int i = 0; i < Math.min(limit, found.length); i++) {
+            int stop = found[i];
+            int parent = timetable.parentStop(stop);
+            stops.add(new NearbyStop(timetable.stops().get(stop), index.name(stop),
+                    parent >= 0 ? timetable.stops().get(parent) : null, index.latitude(stop), index.longitude(stop),
+                    (int) Math.round(index.distance(stop, latitude, longitude))));
+        }
+        return stops;
+    }
+
+    /**
+     * Builds a board for the stations nearest to a location, one row per station. Only stops with departures are
+     * considered, and a platform is replaced by its station when the station has departures.
+     * @param stations Largest number of stations
+     * @return The board, with an id made from its stops so that equal boards share cached reports
+     */
+    Board getNearbyBoard(double latitude, double longitude, int stations) {
+        Timetable timetable = this.timetable.get();
+        StopIndex index = timetable.stopIndex();
+        IntPredicate hasDepartures = stop -> timetable.timelines().containsKey(timetable.stops().get(stop));
+        int[] found = index.nearest(latitude, longitude, stations, stop -> hasDepartures.test(stop)
+                && !(timetable.parentStop(stop) >= 0 && hasDepartures.test(timetable.parentStop(stop))));
+        List<Board.Row> rows = new ArrayList<>();
+        StringJoiner id = new StringJoiner(",", Board.NEARBY_ID_PREFIX, "");
+        for (int stop : found) {
+            String stopId = timetable.stops().get(stop);
+            rows.add(new Board.Row(index.name(stop), List.of(stopId)));
+            id.add(stopId);
+        }
+        return new Board(id.toString(), rows);
     }
 
     /**
-     * Package-private setter for tripsMap (used for testing)
+     * Package-private setter for trips, mapping each trip to its service (used for testing)
      */
     void setTripsMap(Map<String, Trip> tripsMap) {
-        this.tripsMap = tripsMap;
+        timetable.updateAndGet(current -> current.withTrips(tripsMap));
     }
     
     /**
-     * Package-private setter for stopTimesMap (used for testing)
+     * Package-private setter for stop times, building the per-stop timelines (used for testing)
      */
     void setStopTimesMap(Map<String, List<StopTime>> stopTimesMap) {
-        this.stopTimesMap = stopTimesMap;
+        timetable.updateAndGet(current -> current.withStopTimes(stopTimesMap));
     }
     
     /**
-     * Package-private setter for activeServiceIds (used for testing)
+     * Package-private setter for the service calendar (used for testing)
+     */
+    void setCalendar(ServiceCalendar calendar) {
+        timetable.updateAndGet(current -> current.withCalendar(calendar));
+    }
+
+    /**
+     * Package-private setter for services that are active on every date (used for testing)
      */
     void setActiveServiceIds(Set<String> activeServiceIds) {
-        this.activeServiceIds = activeServiceIds;
+        timetable.updateAndGet(current -> current.withActiveServices(activeServiceIds));
     }
     
     private static final ZoneId STOCKHOLM_ZONE = ZoneId.of("Europe/Stockholm");
     private static final int TIME_WINDOW_MINUTES = 15;
+    /**
+     * Longest time window of {@link #getNextDepartures}
+     */
+    static final Duration MAX_HORIZON = Duration.ofDays(1);
+    // Service days searched for departures, relative to today
+    private static final int[] SERVICE_DAY_OFFSETS = {-1, 0, 1};
 
     @PostConstruct
     public void init() {
-        loadStops();
-        loadTrips();
-        loadStopTimes();
-        loadCalendarData();
+        System.out.println("Loading GTFS feed from " + feedSource.description());
+        long start = System.nanoTime();
+        Timetable loaded = loadTimetable(start).timetable();
+        stopNameIndex = new StopNameIndex(loaded);
+        timetable.set(loaded);
+        LocalDate currentDate = getCurrentDateTime().toLocalDate();
+        System.out.println("Loaded " + loaded.calendar().activeOn(currentDate).cardinality()
+                + " active services for date " + currentDate);
+    }
+
+    /**
+     * Loads the feed again and replaces the timetable if the new one is valid. The current timetable keeps
+     * serving while the new one is built, and only one reload runs at a time.
+     */
+    public ReloadResult reload() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heapUsedBefore = memory.getHeapMemoryUsage().getUsed();
+        if (!reloading.tryLock()) {
+            return new ReloadResult(false, "A reload is already running", 0, heapUsedBefore, heapUsedBefore, 0, 0);
+        }
+        try {
+            System.out.println("Reloading GTFS feed from " + feedSource.description());
+            long start = System.nanoTime();
+            LoadedTimetable loaded = loadTimetable(start);
+            Timetable current = timetable.get();
+            String rejected = validate(loaded, current);
+            loadMetrics.reloaded(rejected == null);
+            if (rejected == null) {
+                // The name index is built before the swap, so the first search after it does not wait
+                stopNameIndex = new StopNameIndex(loaded.timetable());
+                timetable.set(loaded.timetable());
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            long heapUsedAfter = memory.getHeapMemoryUsage().getUsed();
+            String message = rejected == null ? "Reloaded GTFS feed" : "Kept the current timetable: " + rejected;
+            System.out.println(message + " in " + millis + " ms, heap in use " + heapUsedBefore / (1024 * 1024)
+                    + " MB before and " + heapUsedAfter / (1024 * 1024) + " MB after");
+            return new ReloadResult(rejected == null, message, millis, heapUsedBefore, heapUsedAfter,
+                    loaded.timetable().trips().size(), departures(loaded.timetable()));
+        } finally {
+            reloading.unlock();
+        }
+    }
+
+    /**
+     * @return Why the loaded timetable must not replace the current one, or null if it is valid
+     */
+    static String validate(LoadedTimetable loaded, Timetable current) {
+        if (loaded.failures() > 0) {
+            return loaded.failures() + " feed files could not be read";
+        }
+        if (departures(loaded.timetable()) == 0 && departures(current) > 0) {
+            return "no departures from the stops of the boards";
+        }
+        return null;
+    }
+
+    private static int departures(Timetable timetable) {
+        return timetable.timelines().values().stream().mapToInt(StopTimeline::size).sum();
+    }
+
+    /**
+     * A timetable read from the snapshot or the feed, and the number of feed files that failed to load
+     */
+    record LoadedTimetable(Timetable timetable, int failures) {
+    }
+
+    /**
+     * Reads the timetable from the snapshot of the current feed, or otherwise parses the feed and writes a snapshot
+     * @param start Start time of the load from {@link System#nanoTime()}, for logging
+     */
+    private LoadedTimetable loadTimetable(long start) {
+        Path snapshotDirectory = snapshotDirectory();
+        long snapshotKey = snapshotDirectory != null ? snapshotKey() : 0;
+        if (snapshotDirectory != null && snapshotKey != 0) {
+            Timetable snapshot = loadSnapshot(snapshotDirectory, snapshotKey);
+            if (snapshot != null) {
+                System.out.println("Loaded GTFS snapshot in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                loadMetrics.loaded(new LoadMetrics.Load(true, System.nanoTime() - start, List.of()));
+                return new LoadedTimetable(snapshot, 0);
+            }
+        }
+
+        TimetableLoader loader = new TimetableLoader(feedSource, indexedStopIds, properties.getFeed().isIndexAllStops(),
+                properties.getRouting().isEnabled(), properties.getFeed().isOffHeap());
+        Timetable loaded = loader.load();
+        System.out.println("Loaded GTFS feed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        loadMetrics.loaded(new LoadMetrics.Load(false, System.nanoTime() - start, loader.fileStats()));
+
+        if (snapshotDirectory != null && snapshotKey != 0 && loader.failures() == 0) {
+            writeSnapshot(loaded, snapshotDirectory, snapshotKey);
+        }
+        return new LoadedTimetable(loaded, loader.failures());
+    }
+
+    private Path snapshotDirectory() {
+        String directory = properties.getSnapshot().getDir();
+        return directory == null || directory.isBlank() ? null : Path.of(directory);
+    }
+
+    /**
+     * @return Key of the snapshot for the current feed and indexed stops, or 0 if the feed cannot be checksummed
+     */
+    private long snapshotKey() {
+        try {
+            return TimetableSnapshot.key(feedSource.fingerprint(FEED_FILES), indexedStopIds,
+                    properties.getFeed().isIndexAllStops(), properties.getRouting().isEnabled());
+        } catch (Exception e) {
+            System.err.println("Failed to compute GTFS feed checksum: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @return The timetable of the snapshot, or null if there is no readable snapshot for the key
+     */
+    private Timetable loadSnapshot(Path directory, long key) {
+        try {
+            return TimetableSnapshot.read(directory, key, properties.getFeed().isOffHeap());
+        } catch (Exception e) {
+            System.err.println("Failed to load GTFS snapshot: " + e.getMessage());
+            return null;
+        }
     }
 
+    private void writeSnapshot(Timetable timetable, Path directory, long key) {
+        try {
+            TimetableSnapshot.write(timetable, directory, key);
+        } catch (Exception e) {
+            System.err.println("Failed to write GTFS snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Reports of the stops of the default board
+     */
     public List<String> getStopReports() {
-        List<String> reports = new ArrayList<>();
-        for (String stopId : TARGET_STOP_IDS) {
-            StringBuilder sb = new StringBuilder();
+        return getStopReports(getDefaultBoard());
+    }
 
-            // Display scheduled departures
-            List<StopTime> scheduledTimes = stopTimesMap.get(stopId);
-            if (scheduledTimes != null && !scheduledTimes.isEmpty()) {
-                // Sort by arrival time
-                scheduledTimes.sort(Comparator.comparing(StopTime::arrivalTime));
-                
-                boolean hasUpcomingDepartures = false;
-                
-                // Map to store one departure per minute (key is minute, value is the departure time)
-                Map<String, String> minuteToDepartureMap = new HashMap<>();
-                
-                for (StopTime stopTime : scheduledTimes) {
-                    // Check if this departure is within the time window
-                    try {
-                        LocalDateTime departureTime = parseGtfsTime(stopTime.departureTime());
-                        if (isOutsideTimeWindow(departureTime)) {
-                            continue; // Skip departures outside the time window
-                        }
-                        
-                        String tripId = stopTime.tripId();
-                        Trip trip = tripsMap.get(tripId);
-                        if (trip != null) {
-                            // Get the service ID for this trip
-                            String serviceId = trip.serviceId();
-                            
-                            // Check if this service is active on the current date
-                            if (activeServiceIds.contains(serviceId)) {
-                                // Extract minute from departure time (HH:MM format)
-                                String departureMinute = stopTime.departureTime().substring(0, 5);
-                                
-                                // Only add this departure if we don't already have one for this minute
-                                if (!minuteToDepartureMap.containsKey(departureMinute)) {
-                                    // Store both departure time and stop headsign
-                                    String stopHeadsign = stopTime.stopHeadsign() != null ? stopTime.stopHeadsign() : "N/A";
-                                    minuteToDepartureMap.put(departureMinute, stopTime.departureTime() + "|" + stopHeadsign);
-                                    hasUpcomingDepartures = true;
-                                }
-                            }
+    /**
+     * @return One report per stop of the board, in the order of {@link Board#stopIds()}
+     */
+    public List<String> getStopReports(Board board) {
+        // Read the clock once so that all stops in the report share the same window
+        return getStopReports(board, getCurrentDateTime());
+    }
+
+    /**
+     * @param now Start of the time window
+     * @return One report per stop of the board, in the order of {@link Board#stopIds()}
+     */
+    List<String> getStopReports(Board board, LocalDateTime now) {
+        return reports(getDepartures(board, now));
+    }
+
+    /**
+     * @param now Start of the time window
+     * @return Departures inside the time window by expected time, one list per stop of the board in the order of
+     * {@link Board#stopIds()}
+     */
+    List<List<Departure>> getDepartures(Board board, LocalDateTime now) {
+        long start = System.nanoTime();
+        // Read the timetable once for the whole report
+        List<List<Departure>> departures = getDepartures(board, now, this.timetable.get(), TIME_WINDOW_MINUTES * 60,
+                Integer.MAX_VALUE);
+        departuresLatency.record(System.nanoTime() - start);
+        return departures;
+    }
+
+    /**
+     * @param now Start of the time window
+     * @param limit Largest number of departures per stop
+     * @param horizon Length of the time window, at most {@link #MAX_HORIZON}
+     * @return The first departures inside the time window by expected time, one list per stop of the board in the
+     * order of {@link Board#stopIds()}. The window may pass midnight, e.g. for the first departures tomorrow.
+     */
+    List<List<Departure>> getNextDepartures(Board board, LocalDateTime now, int limit, Duration horizon) {
+        int horizonSeconds = (int) Math.min(horizon.toSeconds(), MAX_HORIZON.toSeconds());
+        return getDepartures(board, now, this.timetable.get(), horizonSeconds, limit);
+    }
+
+    private List<List<Departure>> getDepartures(Board board, LocalDateTime now, Timetable timetable,
+                                                int horizonSeconds, int limit) {
+        int secondOfDay = ServiceTime.of(now);
+        // Departures earlier in the current second are already in the past
+        int windowStart = now.getNano() > 0 ? secondOfDay + 1 : secondOfDay;
+        int windowEnd = secondOfDay + horizonSeconds;
+        // Trips of yesterday's services run on times past 24:00 after midnight, and trips of tomorrow's services
+        // in windows that pass midnight. A window of at most a day needs no other service days.
+        LocalDate today = now.toLocalDate();
+        ServiceCalendar calendar = timetable.calendar();
+        BitSet[] services = new BitSet[SERVICE_DAY_OFFSETS.length];
+        for (int day = 0; day < services.length; day++) {
+            services[day] = calendar.activeOn(today.plusDays(SERVICE_DAY_OFFSETS[day]));
+        }
+
+        // Delays and cancellations apply only to the timetable they were decoded for, and each to the runs of
+        // one service day
+        RealtimeUpdates realtime = this.realtime;
+        boolean hasRealtime = realtime.appliesTo(timetable);
+        int earliestDelay = hasRealtime ? Math.min(0, realtime.minDelay()) : 0;
+        int latestDelay = hasRealtime ? Math.max(0, realtime.maxDelay()) : 0;
+        // A delayed departure may have been scheduled before the window, and an early one after it
+        int scanStart = windowStart - latestDelay;
+        int scanEnd = windowEnd - earliestDelay;
+
+        List<List<Departure>> stops = new ArrayList<>();
+        int[] cursors = new int[SERVICE_DAY_OFFSETS.length];
+        int[][] delays = new int[SERVICE_DAY_OFFSETS.length][];
+        long[] departures = new long[16];
+        StringBuilder time = new StringBuilder(5);
+        for (String stopId : board.stopIds()) {
+            StopTimeline timeline = timetable.timeline(stopId);
+            for (int day = 0; day < delays.length; day++) {
+                delays[day] = hasRealtime ? realtime.delays(stopId, today.plusDays(SERVICE_DAY_OFFSETS[day])) : null;
+            }
+
+            // The departures of the timeline are sorted by time, so each service day is a sorted sequence of
+            // scheduled times since today's midnight, starting at the window. The sequences are merged in
+            // time order until the window ends or no later departure can be among the first.
+            for (int day = 0; day < cursors.length; day++) {
+                cursors[day] = timeline.firstAtOrAfter(scanStart - SERVICE_DAY_OFFSETS[day] * ServiceTime.SECONDS_PER_DAY);
+            }
+            int count = 0;
+            int latest = Integer.MIN_VALUE;
+            while (true) {
+                int day = -1;
+                int scheduled = Integer.MAX_VALUE;
+                for (int d = 0; d < cursors.length; d++) {
+                    if (cursors[d] < timeline.size()) {
+                        int candidate = timeline.departure(cursors[d]) + SERVICE_DAY_OFFSETS[d] * ServiceTime.SECONDS_PER_DAY;
+                        if (candidate < scheduled) {
+                            scheduled = candidate;
+                            day = d;
                         }
-                    } catch (Exception e) {
-                        System.err.println("Error parsing time: " + stopTime.departureTime() + " - " + e.getMessage());
                     }
                 }
-                
-                // Display the filtered departures
-                List<String> sortedMinutes = new ArrayList<>(minuteToDepartureMap.keySet());
-                Collections.sort(sortedMinutes);
-                
-                for (String minute : sortedMinutes) {
-                    String combinedValue = minuteToDepartureMap.get(minute);
-                    String[] parts = combinedValue.split("\\|", 2);
-                    String departureTime = parts[0].substring(0, 5); // Only use hours and minutes (HH:MM)
-                    String destination = parts.length > 1 ? parts[1] : "";
-                    sb.append(departureTime).append(" → ").append(destination).append("<br>");
+                if (day < 0 || scheduled > scanEnd || (count >= limit && scheduled + earliestDelay > latest)) {
+                    break;
                 }
-                
-                if (!hasUpcomingDepartures) {
-                    sb.append("Inga avgångar de närmaste ").append(TIME_WINDOW_MINUTES).append(" minuterna, enligt tidtabell");
+                int index = cursors[day]++;
+                int delay = delays[day] != null ? delays[day][index] : 0;
+                // Check if the service of this trip is active on its service day
+                if (!timetable.runs(timeline.trip(index), services[day]) || delay == RealtimeUpdates.CANCELLED) {
+                    continue;
                 }
-            } else {
-                sb.append("Inga avgångar de närmaste ").append(TIME_WINDOW_MINUTES).append(" minuterna, enligt tidtabell");
+                int departure = scheduled + delay;
+                if (departure < windowStart || departure > windowEnd) {
+                    continue;
+                }
+                if (count == departures.length) {
+                    departures = Arrays.copyOf(departures, count * 2);
+                }
+                // Expected departures (seconds since today's midnight) are packed with the service day and index
+                departures[count++] = ((long) departure << 32) | ((long) day << 30) | index;
+                latest = Math.max(latest, departure);
             }
-            
-            reports.add(sb.toString());
-
-        }
-        return reports;
-    }
+            Arrays.sort(departures, 0, count);
 
-    void loadStops() {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new ClassPathResource("gtfs/stops.txt").getInputStream()))) {
-            reader.readLine(); // header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] p = line.split(",", -1);
-                if (p.length >= 6) {  // Make sure we have enough fields including parent_station
-                    String stopId = p[0];
-                    String parentStation = p[5];
-                    
-                    // Store parent-child relationships
-                    if (parentStation != null && !parentStation.isEmpty()) {
-                        childToParentMap.put(stopId, parentStation);
-                    }
-                }
+            List<Departure> stopDepartures = new ArrayList<>(Math.min(count, limit));
+            for (int i = 0; i < count && i < limit; i++) {
+                int departure = (int) (departures[i] >>> 32);
+                int day = (int) (departures[i] >>> 30) & 3;
+                int index = (int) departures[i] & ((1 << 30) - 1);
+                int trip = timeline.trip(index);
+                int line = timetable.tripLine(trip);
+                int delay = delays[day] != null ? delays[day][index] : 0;
+                // Show the date and time on the clock, also for times past 24:00
+                time.setLength(0);
+                ServiceTime.appendHoursAndMinutes(time, departure % ServiceTime.SECONDS_PER_DAY);
+                stopDepartures.add(new Departure(stopId, today.plusDays(departure / ServiceTime.SECONDS_PER_DAY),
+                        time.toString(), delay, timetable.headsigns().get(timeline.headsign(index)),
+                        timetable.trips().get(trip), line >= 0 ? timetable.lines().name(line) : null,
+                        line >= 0 ? timetable.lines().mode(line) : null));
             }
-        } catch (Exception e) {
-            System.err.println("Failed to load stops: " + e.getMessage());
+            stops.add(stopDepartures);
         }
+        return stops;
     }
 
-    void loadTrips() {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new ClassPathResource("gtfs/trips.txt").getInputStream()))) {
-            reader.readLine(); // header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] p = line.split(",", -1);
-                if (p.length >= 5) {
-                    tripsMap.put(p[2], new Trip(p[2], p[1]));
+    /**
+     * @param departures Departures of each stop of a board, by expected time
+     * @return One report per stop, with at most one departure per minute
+     */
+    static List<String> reports(List<List<Departure>> departures) {
+        List<String> reports = new ArrayList<>(departures.size());
+        for (List<Departure> stopDepartures : departures) {
+            StringBuilder sb = new StringBuilder();
+            String lastTime = null;
+            for (Departure departure : stopDepartures) {
+                // Only show one departure per minute
+                if (departure.time().equals(lastTime)) {
+                    continue;
                 }
+                lastTime = departure.time();
+                sb.append(departure.time());
+                if (departure.line() != null) {
+                    sb.append(' ').append(departure.line());
+                }
+                sb.append(" → ").append(departure.headsign()).append("<br>");
             }
-        } catch (Exception e) {
-            System.err.println("Failed to load trips: " + e.getMessage());
+            if (stopDepartures.isEmpty()) {
+                sb.append("Inga avgångar de närmaste ").append(TIME_WINDOW_MINUTES).append(" minuterna, enligt tidtabell");
+            }
+            reports.add(sb.toString());
         }
+        return reports;
     }
 
-    
     /**
      * Gets the current date and time in Stockholm time zone
      * @return The current LocalDateTime
@@ -212,24 +622,8 @@ public class GtfsService {
      * @return LocalDateTime object representing the time in Stockholm time zone
      */
     LocalDateTime parseGtfsTime(String gtfsTimeStr) {
-        String[] parts = gtfsTimeStr.split(":");
-        if (parts.length != 3) {
-            throw new IllegalArgumentException("Invalid GTFS time format: " + gtfsTimeStr);
-        }
-        
-        int hours = Integer.parseInt(parts[0]);
-        int minutes = Integer.parseInt(parts[1]);
-        int seconds = Integer.parseInt(parts[2]);
-        
-        // Handle times that exceed 24 hours
-        LocalDate date = getCurrentDateTime().toLocalDate();
-        if (hours >= 24) {
-            hours = hours % 24;
-            date = date.plusDays(1);
-        }
-        
-        // Create LocalDateTime in Stockholm time zone
-        return LocalDateTime.of(date, LocalTime.of(hours, minutes, seconds));
+        // Times that exceed 24 hours roll over to the next day
+        return ServiceTime.toLocalDateTime(getCurrentDateTime().toLocalDate(), ServiceTime.parse(gtfsTimeStr));
     }
     
     /**
@@ -238,117 +632,23 @@ public class GtfsService {
      * @return true if the time is outside the window, false otherwise
      */
     boolean isOutsideTimeWindow(LocalDateTime time) {
-        // Get the current time
-        LocalDateTime now = getCurrentDateTime();
-        
-        // Time must be after or equal to the current time
-        if (time.isBefore(now)) {
-            return true;
-        }
-        
-        // Time must be before current time + TIME_WINDOW_MINUTES
-        LocalDateTime windowEnd = now.plusMinutes(TIME_WINDOW_MINUTES);
-        return !time.isBefore(windowEnd) && !time.isEqual(windowEnd);
+        return isOutsideTimeWindow(time, getCurrentDateTime());
     }
-    
-    void loadStopTimes() {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new ClassPathResource("gtfs/stop_times_extracted.txt").getInputStream()))) {
-            reader.readLine(); // header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] p = line.split(",", -1);
-                if (p.length >= 6) {
-                    String tripId = p[0];
-                    String arrivalTime = p[1];
-                    String departureTime = p[2];
-                    String stopId = p[3];
-                    String stopHeadsign = p[5];
-
-                    // Check if this stop is directly a target stop
-                    boolean isTargetStop = TARGET_STOP_IDS.contains(stopId);
-                    
-                    // Check if this stop is a child of a target stop
-                    String parentStopId = childToParentMap.get(stopId);
-                    boolean isChildOfTargetStop = parentStopId != null && TARGET_STOP_IDS.contains(parentStopId);
-                    
-                    // Store stop times for both target stops and their children
-                    if (isTargetStop || isChildOfTargetStop) {
-                        StopTime stopTime = new StopTime(tripId, stopId, arrivalTime, departureTime, stopHeadsign);
-                        
-                        // For child stops, associate the stop time with the parent stop
-                        String mapKey = isChildOfTargetStop ? parentStopId : stopId;
-                        
-                        // Add to the map, creating a new list if needed
-                        stopTimesMap.computeIfAbsent(mapKey, k -> new ArrayList<>()).add(stopTime);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to load stop times: " + e.getMessage());
-        }
-    }
-    
+
     /**
-     * Loads calendar data from calendar.txt and calendar_dates.txt to determine
-     * which services are active on the current date.
+     * Checks if the given time is within the next TIME_WINDOW_MINUTES from the given current time,
+     * so that callers checking many times can read the clock once
+     * @param time The time to check
+     * @param now The current time
+     * @return true if the time is outside the window, false otherwise
      */
-    void loadCalendarData() {
-        // Format current date as YYYYMMDD for GTFS comparison
-        String currentDateStr = getCurrentDateTime().toLocalDate().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
-        
-        // Load calendar.txt to check service date ranges
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new ClassPathResource("gtfs/calendar.txt").getInputStream()))) {
-            reader.readLine(); // header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] p = line.split(",", -1);
-                if (p.length >= 10) {
-                    String serviceId = p[0];
-                    String startDate = p[8];
-                    String endDate = p[9];
-                    
-                    // Check if current date is within service date range
-                    if (currentDateStr.compareTo(startDate) >= 0 && currentDateStr.compareTo(endDate) <= 0) {
-                        // In this case, all day-of-week fields are 0, so we rely on calendar_dates.txt
-                        // for exceptions. We'll add this service to a temporary set for now.
-                        activeServiceIds.add(serviceId);
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to load calendar data: " + e.getMessage());
-        }
-        
-        // Load calendar_dates.txt to check for exceptions
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                new ClassPathResource("gtfs/calendar_dates.txt").getInputStream()))) {
-            reader.readLine(); // header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] p = line.split(",", -1);
-                if (p.length >= 3) {
-                    String serviceId = p[0];
-                    String date = p[1];
-                    String exceptionType = p[2];
-                    
-                    // Check if this exception applies to the current date
-                    if (currentDateStr.equals(date)) {
-                        if ("1".equals(exceptionType)) {
-                            // Exception type 1: Service added on this date
-                            activeServiceIds.add(serviceId);
-                        } else if ("2".equals(exceptionType)) {
-                            // Exception type 2: Service removed on this date
-                            activeServiceIds.remove(serviceId);
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to load calendar dates data: " + e.getMessage());
+    static boolean isOutsideTimeWindow(LocalDateTime time, LocalDateTime now) {
+        // Time must be after or equal to the current time
+        if (time.isBefore(now)) {
+            return true;
         }
         
-        System.out.println("Loaded " + activeServiceIds.size() + " active services for date " + currentDateStr);
+        // Time must be before or equal to current time + TIME_WINDOW_MINUTES
+        return time.isAfter(now.plusMinutes(TIME_WINDOW_MINUTES));
     }
 }
@@ -0,0 +1,232 @@
+package com.ocklund.gtfs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interns GTFS ids and other repeated strings (such as headsigns) to dense ints 0, 1, 2, ...
+ * <p>
+ * Values are stored once as UTF-8 bytes in a shared pool and looked up through an open-addressing hash table,
+ * so a field of a {@link GtfsCsvReader} row can be found or interned without creating a String.
+ * Strings are only created when {@link #get(int)} is called, and are then cached.
+ * <p>
+ * Not thread-safe while values are added. Once fully built, concurrent calls to {@link #find}, {@link #get}
+ * and {@link #size()} are safe as long as nothing is added.
+ */
+final class IdTable {
+
+    private static final int EMPTY_SLOT = -1;
+
+    private byte[] pool;
+    private int poolSize;
+    // Value i is stored in pool[ends[i - 1]..ends[i]), with ends[-1] taken as 0
+    private int[] ends;
+    private int[] hashes;
+    private String[] strings;
+    private int size;
+    private int[] slots;
+
+    IdTable() {
+        this(16);
+    }
+
+    IdTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) << 1;
+        this.pool = new byte[Math.max(64, expectedSize * 16)];
+        this.ends = new int[Math.max(8, expectedSize)];
+        this.hashes = new int[ends.length];
+        this.strings = new String[ends.length];
+        this.slots = new int[capacity];
+        Arrays.fill(slots, EMPTY_SLOT);
+    }
+
+    /**
+     * Creates a table holding the given values in order, so that value i gets id i
+     */
+    static IdTable of(String[] values) {
+        IdTable table = new IdTable(values.length);
+        for (String value : values) {
+            table.intern(value);
+        }
+        return table;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The value with the given id
+     */
+    String get(int id) {
+        String string = strings[id];
+        if (string == null) {
+            int start = id == 0 ? 0 : ends[id - 1];
+            string = new String(pool, start, ends[id] - start, StandardCharsets.UTF_8);
+            strings[id] = string;
+        }
+        return string;
+    }
+
+    /**
+     * @return All values, ordered by id
+     */
+    String[] toArray() {
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = get(i);
+        }
+        return values;
+    }
+
+    /**
+     * @return Id of the value, or -1 if it has not been interned
+     */
+    int find(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return slots[slotOf(bytes, 0, bytes.length, hash(bytes, 0, bytes.length))];
+    }
+
+    /**
+     * @return Id of the value, adding it if it has not been interned
+     */
+    int intern(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes, 0, bytes.length);
+        int slot = slotOf(bytes, 0, bytes.length, hash);
+        if (slots[slot] != EMPTY_SLOT) {
+            return slots[slot];
+        }
+        int id = add(bytes, 0, bytes.length, hash, slot);
+        strings[id] = value;
+        return id;
+    }
+
+    /**
+     * Finds a field of the current row without decoding it
+     * @return Id of the field value, or -1 if it has not been interned
+     */
+    int find(GtfsCsvReader reader, int column) {
+        if (reader.isEscaped(column)) {
+            return find(reader.getString(column));
+        }
+        int slot = slotOf(reader, column, reader.fieldHash(column));
+        return slots[slot];
+    }
+
+    /**
+     * Interns a field of the current row, decoding it only if it is new
+     * @return Id of the field value
+     */
+    int intern(GtfsCsvReader reader, int column) {
+        if (reader.isEscaped(column)) {
+            return intern(reader.getString(column));
+        }
+        int hash = reader.fieldHash(column);
+        int slot = slotOf(reader, column, hash);
+        if (slots[slot] != EMPTY_SLOT) {
+            return slots[slot];
+        }
+        byte[] bytes = reader.getString(column).getBytes(StandardCharsets.UTF_8);
+        return add(bytes, 0, bytes.length, hash, slot);
+    }
+
+    /**
+     * @return A copy that can be extended without changing this table
+     */
+    IdTable copy() {
+        IdTable copy = new IdTable(0);
+        copy.pool = pool.clone();
+        copy.poolSize = poolSize;
+        copy.ends = ends.clone();
+        copy.hashes = hashes.clone();
+        copy.strings = strings.clone();
+        copy.size = size;
+        copy.slots = slots.clone();
+        return copy;
+    }
+
+    /**
+     * Hash of UTF-8 bytes, the same as {@link GtfsCsvReader#fieldHash(int)} for an unescaped field
+     */
+    static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    private int add(byte[] bytes, int offset, int length, int hash, int slot) {
+        if (poolSize + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + length));
+        }
+        System.arraycopy(bytes, offset, pool, poolSize, length);
+        poolSize += length;
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            strings = Arrays.copyOf(strings, size * 2);
+        }
+        int id = size++;
+        ends[id] = poolSize;
+        hashes[id] = hash;
+        slots[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY_SLOT);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (slots[slot] != EMPTY_SLOT) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private int slotOf(byte[] bytes, int offset, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            int id = slots[slot];
+            if (id == EMPTY_SLOT || (hashes[id] == hash && equalsStored(id, bytes, offset, length))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int slotOf(GtfsCsvReader reader, int column, int hash) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (true) {
+            int id = slots[slot];
+            if (id == EMPTY_SLOT) {
+                return slot;
+            }
+            if (hashes[id] == hash) {
+                int start = id == 0 ? 0 : ends[id - 1];
+                if (reader.fieldEquals(column, pool, start, ends[id] - start)) {
+                    return slot;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean equalsStored(int id, byte[] bytes, int offset, int length) {
+        int start = id == 0 ? 0 : ends[id - 1];
+        return Arrays.equals(pool, start, ends[id], bytes, offset, offset + length);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
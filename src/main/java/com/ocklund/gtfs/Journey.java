@@ -0,0 +1,21 @@
+package com.ocklund.gtfs;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * A journey between two stops, as a sequence of rides and walks
+ * @param transfers Number of changes between rides
+ */
+public record Journey(LocalDateTime departure, LocalDateTime arrival, int transfers, List<Leg> legs) {
+
+    /**
+     * A ride on one trip, or a walk between two nearby stops
+     * @param tripId Trip ridden, or null for a walk
+     * @param line Name of the line, e.g. "Buss 133", or null for a walk or if the route of the trip is not known
+     * @param mode Mode of transport of the line, or null for a walk or if the route of the trip is not known
+     */
+    public record Leg(String fromStopId, String fromName, String toStopId, String toName, LocalDateTime departure,
+                      LocalDateTime arrival, String tripId, String line, TransportMode mode) {
+    }
+}
@@ -0,0 +1,454 @@
+package com.ocklund.gtfs;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Plans journeys over the {@link TransitNetwork} of a timetable with RAPTOR (round-based public transit routing).
+ * <p>
+ * Round k finds the earliest arrival at each stop with at most k rides. It scans each pattern serving a stop that
+ * the previous round improved, once, from the first such stop: the earliest trip that can be caught is ridden
+ * on, and replaced by an earlier one wherever the previous round arrived early enough. Then come the walks from
+ * the stops the round improved. Arrivals are only kept when they beat the best arrival at the stop and at the
+ * destinations, so later rounds touch fewer and fewer patterns.
+ * <p>
+ * Trips run on service days: after midnight the trips of yesterday's services are running, and a journey in the
+ * evening may go on with tomorrow's services. These are found as the trips of a pattern shifted by a day.
+ * Realtime delays are not taken into account.
+ * <p>
+ * A range of departure times is searched from the latest to the earliest, keeping the arrivals of the later
+ * departures (rRAPTOR): a search only needs to go where leaving earlier arrives earlier. The departure times are
+ * split into one block per core, and the blocks are searched in parallel.
+ * <p>
+ * Built once per timetable. Queries are independent and may run on several threads at once, and the arrays they
+ * work in are pooled.
+ */
+final class JourneyPlanner {
+
+    /**
+     * Largest number of transfers of a journey
+     */
+    static final int MAX_TRANSFERS = 6;
+    private static final int UNREACHED = Integer.MAX_VALUE;
+    // Service days of the trips, relative to the date of the query
+    private static final int[] SERVICE_DAY_OFFSETS = {-1, 0, 1};
+    // How a stop was reached in a round: from the origin, by a walk (-1 - the stop walked from), or by a ride
+    // (pattern, trip index in it, service day and position of boarding, packed into a non-negative long)
+    private static final long ORIGIN = Long.MIN_VALUE;
+    private static final int PATTERN_SHIFT = 41;
+    private static final int TRIP_SHIFT = 17;
+    private static final int DAY_SHIFT = 15;
+    private static final int POSITION_MASK = (1 << DAY_SHIFT) - 1;
+
+    private final Timetable timetable;
+    private final TransitNetwork network;
+    private final ArrayBlockingQueue<Scratch> scratchPool =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Arrays of one query
+     */
+    private static final class Scratch {
+        // Arrival at each stop in each round, or UNREACHED if the round did not improve it, and how it was reached
+        final int[][] arrivals;
+        final long[][] labels;
+        // Earliest arrival at each stop in any round
+        final int[] best;
+        // First position to scan in each pattern, or Integer.MAX_VALUE if it is not queued
+        final int[] patternStarts;
+        final int[] queuedPatterns;
+        final BitSet marked = new BitSet();
+        final BitSet walked = new BitSet();
+        final BitSet destinations = new BitSet();
+
+        Scratch(int stops, int patterns) {
+            arrivals = new int[MAX_TRANSFERS + 2][stops];
+            labels = new long[MAX_TRANSFERS + 2][stops];
+            best = new int[stops];
+            patternStarts = new int[patterns];
+            Arrays.fill(patternStarts, Integer.MAX_VALUE);
+            queuedPatterns = new int[patterns];
+        }
+    }
+
+    JourneyPlanner(Timetable timetable) {
+        this.timetable = timetable;
+        this.network = timetable.network();
+    }
+
+    Timetable timetable() {
+        return timetable;
+    }
+
+    /**
+     * @param origins Stops the journey may start from
+     * @param destinations Stops the journey may end at
+     * @param date Date of the departure
+     * @param time Earliest departure, in seconds since midnight of the date
+     * @param maxTransfers Largest number of transfers, at most {@link #MAX_TRANSFERS}
+     * @return The journey arriving first, with the fewest transfers of those, or null if there is none
+     */
+    Journey earliestArrival(int[] origins, int[] destinations, LocalDate date, int time, int maxTransfers) {
+        List<Journey> journeys = search(origins, destinations, date, new int[]{time}, maxTransfers);
+        return journeys.isEmpty() ? null : journeys.get(0);
+    }
+
+    /**
+     * Searches from each departure time in turn, from the last one, keeping the arrivals of the later times
+     * @param times Departure times in increasing order
+     * @return The journey from each time that arrives before the journeys from the later times, latest first
+     */
+    private List<Journey> search(int[] origins, int[] destinations, LocalDate date, int[] times, int maxTransfers) {
+        Scratch scratch = scratchPool.poll();
+        if (scratch == null) {
+            scratch = new Scratch(network.stopCount(), network.patternCount());
+        }
+        try {
+            int rounds = Math.clamp(maxTransfers, 0, MAX_TRANSFERS) + 1;
+            BitSet[] services = services(date);
+            reset(destinations, rounds, scratch);
+            List<Journey> journeys = new ArrayList<>();
+            for (int i = times.length - 1; i >= 0; i--) {
+                Journey journey = search(origins, date, times[i], rounds, services, scratch);
+                if (journey != null) {
+                    journeys.add(journey);
+                }
+            }
+            return journeys;
+        } finally {
+            scratchPool.offer(scratch);
+        }
+    }
+
+    /**
+     * Searches a journey for each time that a trip leaves the origins, or the stops within walking distance of
+     * them, in a time window. The searches run in parallel.
+     * @param from Start of the time window, in seconds since midnight of the date
+     * @param to End of the time window
+     * @return The journeys leaving in the time window that no other journey beats by leaving later and arriving
+     * no later, by departure
+     */
+    List<Journey> range(int[] origins, int[] destinations, LocalDate date, int from, int to, int maxTransfers) {
+        int[] times = departureTimes(origins, date, from, to);
+        int blocks = Math.min(times.length, Runtime.getRuntime().availableProcessors());
+        List<Journey> journeys = new ArrayList<>(IntStream.range(0, blocks).parallel()
+                .mapToObj(block -> search(origins, destinations, date,
+                        Arrays.copyOfRange(times, block * times.length / blocks, (block + 1) * times.length / blocks),
+                        maxTransfers))
+                .flatMap(List::stream)
+                .toList());
+        // Latest departure first, and a journey is kept if it arrives before every journey leaving later
+        journeys.sort(Comparator.comparing(Journey::departure).reversed()
+                .thenComparing(Journey::arrival)
+                .thenComparingInt(Journey::transfers));
+        List<Journey> kept = new ArrayList<>();
+        for (Journey journey : journeys) {
+            if (kept.isEmpty() || journey.arrival().isBefore(kept.get(kept.size() - 1).arrival())) {
+                kept.add(journey);
+            }
+        }
+        Collections.reverse(kept);
+        return kept;
+    }
+
+    /**
+     * @return The distinct times in the window at which a journey can leave the origins to catch a trip, sorted
+     */
+    private int[] departureTimes(int[] origins, LocalDate date, int from, int to) {
+        BitSet[] services = services(date);
+        int[] times = new int[64];
+        int count = 0;
+        for (int origin : origins) {
+            if (!isStop(origin)) {
+                continue;
+            }
+            // Trips at the origin itself, and at the stops a walk away
+            for (int walk = network.walkStart(origin) - 1; walk < network.walkStart(origin + 1); walk++) {
+                int stop = walk < network.walkStart(origin) ? origin : network.walkStop(walk);
+                int walkSeconds = stop == origin ? 0 : network.walkSeconds(walk);
+                for (int i = network.stopPatternStart(stop); i < network.stopPatternStart(stop + 1); i++) {
+                    int pattern = network.stopPattern(i);
+                    int position = network.stopPatternPosition(i);
+                    for (int day = 0; day < SERVICE_DAY_OFFSETS.length; day++) {
+                        int shift = SERVICE_DAY_OFFSETS[day] * ServiceTime.SECONDS_PER_DAY - walkSeconds;
+                        for (int index = network.firstDepartureAtOrAfter(pattern, position, from - shift);
+                             index < network.tripCount(pattern); index++) {
+                            int time = network.departure(pattern, index, position) + shift;
+                            if (time > to) {
+                                break;
+                            }
+                            if (timetable.runs(network.trip(pattern, index), services[day])) {
+                                if (count == times.length) {
+                                    times = Arrays.copyOf(times, count * 2);
+                                }
+                                times[count++] = time;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return Arrays.stream(times, 0, count).sorted().distinct().toArray();
+    }
+
+    private boolean isStop(int stop) {
+        return stop >= 0 && stop < network.stopCount();
+    }
+
+    private BitSet[] services(LocalDate date) {
+        BitSet[] services = new BitSet[SERVICE_DAY_OFFSETS.length];
+        for (int day = 0; day < services.length; day++) {
+            services[day] = timetable.calendar().activeOn(date.plusDays(SERVICE_DAY_OFFSETS[day]));
+        }
+        return services;
+    }
+
+    private void reset(int[] destinations, int rounds, Scratch s) {
+        for (int round = 0; round <= rounds; round++) {
+            Arrays.fill(s.arrivals[round], UNREACHED);
+        }
+        Arrays.fill(s.best, UNREACHED);
+        s.destinations.clear();
+        for (int destination : destinations) {
+            if (isStop(destination)) {
+                s.destinations.set(destination);
+            }
+        }
+    }
+
+    /**
+     * Searches from one departure time, only keeping arrivals before those of the earlier searches since
+     * {@link #reset}
+     * @return The journey arriving first, or null if it does not arrive before the journeys of the earlier searches
+     */
+    private Journey search(int[] origins, LocalDate date, int time, int rounds, BitSet[] services, Scratch s) {
+        // Earliest arrival at any destination so far
+        int target = UNREACHED;
+        for (int stop = s.destinations.nextSetBit(0); stop >= 0; stop = s.destinations.nextSetBit(stop + 1)) {
+            target = Math.min(target, s.best[stop]);
+        }
+        int earlierTarget = target;
+        s.marked.clear();
+        for (int origin : origins) {
+            if (isStop(origin) && time < s.best[origin]) {
+                s.arrivals[0][origin] = time;
+                s.best[origin] = time;
+                s.labels[0][origin] = ORIGIN;
+                s.marked.set(origin);
+                target = s.destinations.get(origin) ? Math.min(target, time) : target;
+            }
+        }
+        target = walk(0, target, s);
+        for (int round = 1; round <= rounds && !s.marked.isEmpty(); round++) {
+            int queued = queuePatterns(s);
+            s.marked.clear();
+            for (int q = 0; q < queued; q++) {
+                int pattern = s.queuedPatterns[q];
+                int start = s.patternStarts[pattern];
+                s.patternStarts[pattern] = Integer.MAX_VALUE;
+                target = scan(pattern, start, round, target, services, s);
+            }
+            target = walk(round, target, s);
+        }
+        if (target == earlierTarget) {
+            return null;
+        }
+        // The journey with the fewest rides reaching a destination first, which is the first round to reach it
+        for (int round = 0; round <= rounds; round++) {
+            for (int stop = s.destinations.nextSetBit(0); stop >= 0; stop = s.destinations.nextSetBit(stop + 1)) {
+                if (s.arrivals[round][stop] == target) {
+                    return journey(stop, round, date, time, s);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queues the patterns serving the marked stops, each from the first marked stop
+     * @return Number of queued patterns
+     */
+    private int queuePatterns(Scratch s) {
+        int queued = 0;
+        for (int stop = s.marked.nextSetBit(0); stop >= 0; stop = s.marked.nextSetBit(stop + 1)) {
+            for (int i = network.stopPatternStart(stop); i < network.stopPatternStart(stop + 1); i++) {
+                int pattern = network.stopPattern(i);
+                if (s.patternStarts[pattern] == Integer.MAX_VALUE) {
+                    s.queuedPatterns[queued++] = pattern;
+                }
+                s.patternStarts[pattern] = Math.min(s.patternStarts[pattern], network.stopPatternPosition(i));
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Rides the trips of a pattern from the given position, as boarded at the arrivals of the previous round
+     * @return The earliest arrival at any destination
+     */
+    private int scan(int pattern, int start, int round, int target, BitSet[] services, Scratch s) {
+        int[] previous = s.arrivals[round - 1];
+        int[] arrivals = s.arrivals[round];
+        long[] labels = s.labels[round];
+        int trip = -1;
+        int day = 0;
+        int shift = 0;
+        int boarded = -1;
+        for (int position = start; position < network.size(pattern); position++) {
+            int stop = network.stop(pattern, position);
+            if (trip >= 0) {
+                int arrival = network.arrival(pattern, trip, position) + shift;
+                if (arrival < s.best[stop] && arrival < target) {
+                    arrivals[stop] = arrival;
+                    s.best[stop] = arrival;
+                    labels[stop] = ((long) pattern << PATTERN_SHIFT) | ((long) trip << TRIP_SHIFT)
+                            | ((long) day << DAY_SHIFT) | boarded;
+                    s.marked.set(stop);
+                    target = s.destinations.get(stop) ? arrival : target;
+                }
+            }
+            // Change to an earlier trip if the previous round arrived here in time for it
+            int ready = previous[stop];
+            int current = trip >= 0 ? network.departure(pattern, trip, position) + shift : UNREACHED;
+            if (ready != UNREACHED && ready <= current) {
+                long earlier = earliestTrip(pattern, position, ready, current, services);
+                if (earlier >= 0) {
+                    trip = (int) (earlier >>> 2);
+                    day = (int) earlier & 3;
+                    shift = SERVICE_DAY_OFFSETS[day] * ServiceTime.SECONDS_PER_DAY;
+                    boarded = position;
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * @param ready Earliest time to board
+     * @param before Departure of the trip already boarded, or UNREACHED
+     * @return The running trip leaving the stop at the position first, no earlier than {@code ready} and before
+     * {@code before}, as its index in the pattern shifted left by two bits with its service day, or -1 if there is none
+     */
+    private long earliestTrip(int pattern, int position, int ready, int before, BitSet[] services) {
+        long found = -1;
+        int foundDeparture = before;
+        int last = network.tripCount(pattern) - 1;
+        for (int day = 0; day < SERVICE_DAY_OFFSETS.length; day++) {
+            int shift = SERVICE_DAY_OFFSETS[day] * ServiceTime.SECONDS_PER_DAY;
+            // Most service days have no trip between the two times, which is seen without a search
+            if (network.departure(pattern, last, position) + shift < ready
+                    || network.departure(pattern, 0, position) + shift >= foundDeparture) {
+                continue;
+            }
+            for (int index = network.firstDepartureAtOrAfter(pattern, position, ready - shift);
+                 index < network.tripCount(pattern); index++) {
+                int departure = network.departure(pattern, index, position) + shift;
+                if (departure >= foundDeparture) {
+                    break;
+                }
+                if (timetable.runs(network.trip(pattern, index), services[day])) {
+                    found = ((long) index << 2) | day;
+                    foundDeparture = departure;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Walks from the stops the round reached by a ride, or from the origins in round 0
+     * @return The earliest arrival at any destination
+     */
+    private int walk(int round, int target, Scratch s) {
+        int[] arrivals = s.arrivals[round];
+        long[] labels = s.labels[round];
+        s.walked.clear();
+        for (int from = s.marked.nextSetBit(0); from >= 0; from = s.marked.nextSetBit(from + 1)) {
+            // Journeys do not walk twice in a row
+            if (labels[from] < 0 && labels[from] != ORIGIN) {
+                continue;
+            }
+            for (int i = network.walkStart(from); i < network.walkStart(from + 1); i++) {
+                int to = network.walkStop(i);
+                int arrival = arrivals[from] + network.walkSeconds(i);
+                if (arrival < s.best[to] && arrival < target) {
+                    arrivals[to] = arrival;
+                    s.best[to] = arrival;
+                    labels[to] = -1L - from;
+                    s.walked.set(to);
+                    target = s.destinations.get(to) ? arrival : target;
+                }
+            }
+        }
+        s.marked.or(s.walked);
+        return target;
+    }
+
+    /**
+     * Follows the labels back from a destination to an origin
+     */
+    private Journey journey(int destination, int round, LocalDate date, int time, Scratch s) {
+        // From stop, to stop, departure, arrival and trip (-1 for a walk) of each leg, from the last leg
+        List<int[]> legs = new ArrayList<>();
+        int stop = destination;
+        for (long label = s.labels[round][stop]; label != ORIGIN; label = s.labels[round][stop]) {
+            if (label < 0) {
+                int from = (int) (-1 - label);
+                legs.add(new int[]{from, stop, s.arrivals[round][from], s.arrivals[round][stop], -1});
+                stop = from;
+            } else {
+                int pattern = (int) (label >>> PATTERN_SHIFT);
+                int trip = (int) (label >>> TRIP_SHIFT) & ((1 << (PATTERN_SHIFT - TRIP_SHIFT)) - 1);
+                int shift = SERVICE_DAY_OFFSETS[(int) (label >>> DAY_SHIFT) & 3] * ServiceTime.SECONDS_PER_DAY;
+                int boarded = (int) label & POSITION_MASK;
+                // The ride got off at the first time it passed the stop after boarding
+                int alighted = boarded + 1;
+                while (network.stop(pattern, alighted) != stop) {
+                    alighted++;
+                }
+                int from = network.stop(pattern, boarded);
+                legs.add(new int[]{from, stop, network.departure(pattern, trip, boarded) + shift,
+                        network.arrival(pattern, trip, alighted) + shift, network.trip(pattern, trip)});
+                stop = from;
+                round--;
+            }
+        }
+        Collections.reverse(legs);
+        // A walk from the origin leaves just in time for the first ride
+        if (legs.size() > 1 && legs.get(0)[4] < 0) {
+            int[] walk = legs.get(0);
+            int seconds = walk[3] - walk[2];
+            walk[3] = legs.get(1)[2];
+            walk[2] = walk[3] - seconds;
+        }
+
+        LocalDateTime midnight = date.atStartOfDay();
+        List<Journey.Leg> journeyLegs = new ArrayList<>(legs.size());
+        int rides = 0;
+        for (int[] leg : legs) {
+            journeyLegs.add(leg(leg[0], leg[1], midnight.plusSeconds(leg[2]), midnight.plusSeconds(leg[3]), leg[4]));
+            rides += leg[4] >= 0 ? 1 : 0;
+        }
+        LocalDateTime departure = midnight.plusSeconds(legs.isEmpty() ? time : legs.get(0)[2]);
+        LocalDateTime arrival = midnight.plusSeconds(legs.isEmpty() ? time : legs.get(legs.size() - 1)[3]);
+        return new Journey(departure, arrival, Math.max(0, rides - 1), List.copyOf(journeyLegs));
+    }
+
+    private Journey.Leg leg(int from, int to, LocalDateTime departure, LocalDateTime arrival, int trip) {
+        IdTable stops = timetable.stops();
+        StopIndex stopIndex = timetable.stopIndex();
+        int line = trip >= 0 ? timetable.tripLine(trip) : -1;
+        return new Journey.Leg(stops.get(from), stopIndex.name(from), stops.get(to), stopIndex.name(to), departure,
+                arrival, trip >= 0 ? timetable.trips().get(trip) : null,
+                line >= 0 ? timetable.lines().name(line) : null, line >= 0 ? timetable.lines().mode(line) : null);
+    }
+}
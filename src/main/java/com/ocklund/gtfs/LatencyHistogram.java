@@ -0,0 +1,87 @@
+package com.ocklund.gtfs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, for the quantiles of request latencies.
+ * <p>
+ * Buckets are log-linear: each power of two is split into 16 buckets, so a quantile is within about 6% of the
+ * real value over the whole range of a long. Recording is a few increments of preallocated counters, without
+ * locking or allocation, so it can be done on every request. Quantiles are computed when they are read.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param nanos Duration in nanoseconds. Negative durations are counted as 0.
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return Smallest value of the bucket
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return Sum of all recorded durations in nanoseconds
+     */
+    long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * @param quantiles Quantiles between 0 and 1, in increasing order
+     * @return For each quantile, the largest value of the bucket holding it, or 0 if nothing has been recorded
+     */
+    long[] quantiles(double... quantiles) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            total += snapshot[bucket];
+        }
+        long[] values = new long[quantiles.length];
+        int bucket = 0;
+        long seen = snapshot[0];
+        for (int q = 0; q < quantiles.length && total > 0; q++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            while (seen < rank && bucket < BUCKETS - 1) {
+                seen += snapshot[++bucket];
+            }
+            values[q] = bucket < BUCKETS - 1 ? lowestValue(bucket + 1) - 1 : Long.MAX_VALUE;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,83 @@
+package com.ocklund.gtfs;
+
+import java.util.Arrays;
+
+/**
+ * Lines that trips run on, with the name shown on the board ("Buss 133", "Tvärbanan 30") and the mode of
+ * transport. Routes of routes.txt with the same name and mode are one line. Trips refer to lines by their id,
+ * so reports and filters by mode need no lookups.
+ * <p>
+ * Instances are not modified once built and can be shared between threads.
+ */
+final class Lines {
+
+    static final Lines EMPTY = new Lines(new IdTable(), new byte[0]);
+
+    private final IdTable names;
+    private final byte[] modes;
+
+    /**
+     * @param names Name of each line
+     * @param modes {@link TransportMode} ordinal of each line
+     */
+    Lines(IdTable names, byte[] modes) {
+        this.names = names;
+        this.modes = modes;
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    IdTable names() {
+        return names;
+    }
+
+    String name(int line) {
+        return names.get(line);
+    }
+
+    TransportMode mode(int line) {
+        return TransportMode.ofOrdinal(modes[line]);
+    }
+
+    /**
+     * @param shortName route_short_name, usually the line number
+     * @param longName route_long_name
+     * @param description route_desc, which SL uses for the name of light rail lines such as "Tvärbanan"
+     * @return Name of the line as shown on the board
+     */
+    static String name(String shortName, String longName, String description, TransportMode mode) {
+        String prefix = mode == TransportMode.TRAM && !description.isBlank() ? description : mode.label();
+        if (!shortName.isBlank()) {
+            return prefix + " " + shortName;
+        }
+        return !longName.isBlank() ? longName : prefix;
+    }
+
+    /**
+     * Collects lines while loading routes.txt
+     */
+    static final class Builder {
+        private final IdTable names = new IdTable();
+        private byte[] modes = new byte[64];
+
+        /**
+         * @return Id of the line with the given name, added with the given mode if it is new
+         */
+        int add(String name, TransportMode mode) {
+            int line = names.intern(name);
+            if (line >= modes.length) {
+                modes = Arrays.copyOf(modes, modes.length * 2);
+            }
+            if (line == names.size() - 1) {
+                modes[line] = (byte) mode.ordinal();
+            }
+            return line;
+        }
+
+        Lines build() {
+            return new Lines(names, Arrays.copyOf(modes, names.size()));
+        }
+    }
+}
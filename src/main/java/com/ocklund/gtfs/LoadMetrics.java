@@ -0,0 +1,67 @@
+package com.ocklund.gtfs;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and row counts of the timetable loads, and the outcome of reloads, for {@link Metrics}
+ */
+final class LoadMetrics {
+
+    /**
+     * One load of the timetable
+     * @param snapshot true if the timetable was read from the snapshot, which has no files to report
+     * @param nanos Duration of the whole load
+     * @param files Statistics of each file that was parsed
+     */
+    record Load(boolean snapshot, long nanos, List<TimetableLoader.FileStats> files) {
+    }
+
+    private volatile Load lastLoad = new Load(false, 0, List.of());
+    private final LongAdder loads = new LongAdder();
+    // Totals over all loads, by file
+    private final ConcurrentMap<String, LongAdder> skippedRows = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> malformedRows = new ConcurrentHashMap<>();
+    private final LongAdder reloadsSwapped = new LongAdder();
+    private final LongAdder reloadsRejected = new LongAdder();
+
+    void loaded(Load load) {
+        lastLoad = load;
+        loads.increment();
+        for (TimetableLoader.FileStats file : load.files()) {
+            skippedRows.computeIfAbsent(file.file(), name -> new LongAdder()).add(file.skippedRows());
+            malformedRows.computeIfAbsent(file.file(), name -> new LongAdder()).add(file.malformedRows());
+        }
+    }
+
+    void reloaded(boolean swapped) {
+        (swapped ? reloadsSwapped : reloadsRejected).increment();
+    }
+
+    Load lastLoad() {
+        return lastLoad;
+    }
+
+    long loads() {
+        return loads.sum();
+    }
+
+    Map<String, LongAdder> skippedRows() {
+        return skippedRows;
+    }
+
+    Map<String, LongAdder> malformedRows() {
+        return malformedRows;
+    }
+
+    long reloadsSwapped() {
+        return reloadsSwapped.sum();
+    }
+
+    long reloadsRejected() {
+        return reloadsRejected.sum();
+    }
+}
@@ -0,0 +1,132 @@
+package com.ocklund.gtfs;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the service in the Prometheus text format: request and report latencies, timetable loads, the
+ * report cache and the realtime feed.
+ * <p>
+ * Values are recorded where they happen, in counters and histograms that do not allocate, and are only
+ * collected and formatted here when scraped.
+ */
+@Component
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final GtfsService gtfsService;
+    private final ReportCache reportCache;
+    // Latency of each endpoint, by its request mapping pattern
+    private final ConcurrentMap<String, LatencyHistogram> requestLatencies = new ConcurrentHashMap<>();
+
+    public Metrics(GtfsService gtfsService, ReportCache reportCache) {
+        this.gtfsService = gtfsService;
+        this.reportCache = reportCache;
+    }
+
+    /**
+     * @param endpoint Request mapping pattern, e.g. "/board/{boardId}"
+     * @return Histogram of the endpoint's latencies, created on its first request
+     */
+    LatencyHistogram requestLatency(String endpoint) {
+        LatencyHistogram histogram = requestLatencies.get(endpoint);
+        return histogram != null ? histogram : requestLatencies.computeIfAbsent(endpoint, e -> new LatencyHistogram());
+    }
+
+    /**
+     * @return All metrics in the Prometheus text exposition format
+     */
+    String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "gtfs_http_request_seconds", "summary", "Time to handle a request, by endpoint");
+        requestLatencies.forEach((endpoint, histogram) ->
+                summary(out, "gtfs_http_request_seconds", "endpoint=\"" + escape(endpoint) + "\"", histogram));
+        header(out, "gtfs_departures_seconds", "summary", "Time to compute the departures of a board for its reports");
+        summary(out, "gtfs_departures_seconds", "", gtfsService.getDeparturesLatency());
+
+        LoadMetrics loads = gtfsService.getLoadMetrics();
+        LoadMetrics.Load lastLoad = loads.lastLoad();
+        header(out, "gtfs_load_seconds", "gauge", "Duration of the last timetable load");
+        sample(out, "gtfs_load_seconds", "snapshot=\"" + lastLoad.snapshot() + "\"", lastLoad.nanos() / NANOS_PER_SECOND);
+        header(out, "gtfs_loads_total", "counter", "Timetable loads, from the feed or the snapshot");
+        sample(out, "gtfs_loads_total", "", loads.loads());
+        header(out, "gtfs_load_file_seconds", "gauge", "Time to parse each file in the last load from the feed");
+        lastLoad.files().forEach(file ->
+                sample(out, "gtfs_load_file_seconds", fileLabel(file.file()), file.nanos() / NANOS_PER_SECOND));
+        header(out, "gtfs_load_file_rows", "gauge", "Rows of each file in the last load from the feed");
+        lastLoad.files().forEach(file -> sample(out, "gtfs_load_file_rows", fileLabel(file.file()), file.rows()));
+        header(out, "gtfs_load_file_bytes", "gauge", "Bytes parsed of each file in the last load from the feed");
+        lastLoad.files().forEach(file -> sample(out, "gtfs_load_file_bytes", fileLabel(file.file()), file.bytes()));
+        header(out, "gtfs_load_skipped_rows_total", "counter", "Rows that were not needed, e.g. stop times of other stops");
+        counters(out, "gtfs_load_skipped_rows_total", loads.skippedRows());
+        header(out, "gtfs_load_malformed_rows_total", "counter", "Rows with a value that could not be parsed");
+        counters(out, "gtfs_load_malformed_rows_total", loads.malformedRows());
+        header(out, "gtfs_reloads_total", "counter", "Reloads of the feed, by whether the new timetable was used");
+        sample(out, "gtfs_reloads_total", "result=\"swapped\"", loads.reloadsSwapped());
+        sample(out, "gtfs_reloads_total", "result=\"rejected\"", loads.reloadsRejected());
+
+        header(out, "gtfs_report_cache_hits_total", "counter", "Reports served from the report cache");
+        sample(out, "gtfs_report_cache_hits_total", "", reportCache.hits());
+        header(out, "gtfs_report_cache_misses_total", "counter", "Reports computed because they were not cached");
+        sample(out, "gtfs_report_cache_misses_total", "", reportCache.misses());
+
+        RealtimeUpdates realtime = gtfsService.getRealtimeUpdates();
+        header(out, "gtfs_realtime_version", "gauge", "Number of realtime feeds with changes applied so far");
+        sample(out, "gtfs_realtime_version", "", realtime.version());
+        header(out, "gtfs_realtime_ingestion_lag_seconds", "gauge", "Time from the last applied realtime feed until it was applied");
+        sample(out, "gtfs_realtime_ingestion_lag_seconds", "", realtime.ingestionLagMillis() / 1000.0);
+        header(out, "gtfs_realtime_changed_entities", "gauge", "Entities that changed in the last applied realtime feed");
+        sample(out, "gtfs_realtime_changed_entities", "", realtime.changedEntities());
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] values = histogram.quantiles(QUANTILES);
+        String separator = labels.isEmpty() ? "" : labels + ",";
+        for (int q = 0; q < QUANTILES.length; q++) {
+            sample(out, name, separator + "quantile=\"" + QUANTILES[q] + "\"", values[q] / NANOS_PER_SECOND);
+        }
+        sample(out, name + "_sum", labels, histogram.sum() / NANOS_PER_SECOND);
+        sample(out, name + "_count", labels, histogram.count());
+    }
+
+    private static void counters(StringBuilder out, String name, Map<String, LongAdder> byFile) {
+        byFile.forEach((file, count) -> sample(out, name, fileLabel(file), count.sum()));
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String fileLabel(String file) {
+        return "file=\"" + escape(file) + "\"";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
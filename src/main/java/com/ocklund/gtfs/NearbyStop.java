@@ -0,0 +1,10 @@
+package com.ocklund.gtfs;
+
+/**
+ * A stop near a location
+ * @param parentStation Station that the stop belongs to, or null
+ * @param distance Distance from the location in metres
+ */
+public record NearbyStop(String stopId, String name, String parentStation, double latitude, double longitude,
+                         int distance) {
+}
@@ -0,0 +1,432 @@
+package com.ocklund.gtfs;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies successive TripUpdates feeds to the departures of a {@link Timetable} and publishes the result as
+ * {@link RealtimeUpdates}.
+ * <p>
+ * Each entity applies to the run of its trip on one service day: its start date, or otherwise the day whose run is
+ * closest in time. Entities for days more than a day from the feed's date are not shown by any board and are skipped.
+ * <p>
+ * Each feed is compared with the previous one by entity id, and only entities that are new, changed (by their
+ * timestamp, or by content if they have none) or gone update the departures of their run. The departures of such a
+ * run are reset and then updated from all entities of the feed for it, in feed order, so an entity that shares
+ * its run with a changed one keeps its delays. Only the timelines that were touched get new arrays, the others are
+ * shared with the previous updates.
+ * <p>
+ * Delays are only kept for timelines with a delayed or cancelled departure, so the heap grows with the updates
+ * rather than with the feed. The index from trips to their departures has an entry for every stop time, and is
+ * kept in direct memory when the timelines are.
+ * <p>
+ * Not thread-safe, it is used by the realtime poller thread only.
+ */
+final class RealtimeIndex {
+
+    private static final ZoneId STOCKHOLM_ZONE = ZoneId.of("Europe/Stockholm");
+
+    /**
+     * The run of a trip on a service day
+     */
+    private record Run(int trip, LocalDate day) {
+    }
+
+    /**
+     * An entity of the last feed, with the run it applies to
+     */
+    private record Applied(FeedEntity entity, Run run) {
+    }
+
+    /**
+     * Working copy of the delays of one service day: per timeline, null for a timeline without delays, with the
+     * range of its delays
+     */
+    private static final class DayDelays {
+        private final int[][] delays;
+        private final int[] minDelays;
+        private final int[] maxDelays;
+        private final BitSet changedTimelines = new BitSet();
+
+        private DayDelays(int timelineCount) {
+            delays = new int[timelineCount][];
+            minDelays = new int[timelineCount];
+            maxDelays = new int[timelineCount];
+        }
+    }
+
+    private final Timetable timetable;
+    // Timeline number -> stop id, timeline and the stop's id in the stop table
+    private final String[] stopIds;
+    private final StopTimeline[] timelines;
+    private final int[] timelineStops;
+    // Departures of trip t are tripSlots[tripSlotStarts[t]..tripSlotStarts[t + 1]), as timeline number << 32 | index
+    private final int[] tripSlotStarts;
+    private final LongBuffer tripSlots;
+
+    private final Map<LocalDate, DayDelays> days = new HashMap<>();
+    private Map<String, Applied> entities = new LinkedHashMap<>();
+    private RealtimeUpdates published;
+    private long malformedEntities;
+
+    RealtimeIndex(Timetable timetable) {
+        this.timetable = timetable;
+        int count = timetable.timelines().size();
+        stopIds = timetable.timelines().keySet().toArray(String[]::new);
+        timelines = new StopTimeline[count];
+        timelineStops = new int[count];
+        int[] slotCounts = new int[timetable.trips().size() + 1];
+        for (int t = 0; t < count; t++) {
+            timelines[t] = timetable.timelines().get(stopIds[t]);
+            timelineStops[t] = timetable.stops().find(stopIds[t]);
+            for (int i = 0; i < timelines[t].size(); i++) {
+                slotCounts[timelines[t].trip(i) + 1]++;
+            }
+        }
+        tripSlotStarts = new int[slotCounts.length];
+        for (int trip = 1; trip < slotCounts.length; trip++) {
+            tripSlotStarts[trip] = tripSlotStarts[trip - 1] + slotCounts[trip];
+        }
+        int size = tripSlotStarts[tripSlotStarts.length - 1];
+        tripSlots = count > 0 && timelines[0].isDirect()
+                ? ByteBuffer.allocateDirect(size * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer()
+                : LongBuffer.allocate(size);
+        int[] next = Arrays.copyOf(tripSlotStarts, tripSlotStarts.length);
+        for (int t = 0; t < count; t++) {
+            for (int i = 0; i < timelines[t].size(); i++) {
+                tripSlots.put(next[timelines[t].trip(i)]++, ((long) t << 32) | i);
+            }
+        }
+        published = new RealtimeUpdates(timetable, 0, 0, 0, Map.of(), 0, 0, 0);
+    }
+
+    Timetable timetable() {
+        return timetable;
+    }
+
+    /**
+     * @return Number of entities skipped so far because a value could not be parsed
+     */
+    long malformedEntities() {
+        return malformedEntities;
+    }
+
+    /**
+     * Applies the differences between the feed and the previous feed
+     * @param version Increasing number that identifies the resulting updates
+     * @param nowMillis Current time, for the ingestion lag, and for the service day of entities without a start date
+     * when the feed has no time
+     * @return The updates after this feed. If nothing changed, the previous updates are returned.
+     */
+    RealtimeUpdates apply(FeedMessage feed, long version, long nowMillis) {
+        long feedTimestamp = feed.getHeader().getTimestamp();
+        long at = feedTimestamp > 0 ? feedTimestamp : nowMillis / 1000;
+        LocalDate feedDate = Instant.ofEpochSecond(at).atZone(STOCKHOLM_ZONE).toLocalDate();
+        Map<String, Applied> current = new LinkedHashMap<>();
+        Set<Run> changedRuns = new HashSet<>();
+        int changedEntities = 0;
+        for (FeedEntity entity : feed.getEntityList()) {
+            // Entities of trips that do not stop at an indexed stop are skipped with a single lookup
+            int trip = entity.getIsDeleted() || !entity.hasTripUpdate() ? -1 : trip(entity);
+            if (trip < 0 || tripSlotStarts[trip] == tripSlotStarts[trip + 1]) {
+                continue;
+            }
+            // Checked before any state is touched, so a bad entity is skipped as if it were not in the feed
+            if (!isValid(entity)) {
+                malformedEntities++;
+                continue;
+            }
+            Applied previous = current.containsKey(entity.getId()) ? current.get(entity.getId()) : entities.get(entity.getId());
+            if (previous != null && isUnchanged(previous.entity(), entity)) {
+                current.put(entity.getId(), new Applied(entity, previous.run()));
+                continue;
+            }
+            LocalDate day = serviceDay(entity.getTripUpdate(), trip, at);
+            if (Math.abs(ChronoUnit.DAYS.between(feedDate, day)) > 1) {
+                continue;
+            }
+            Run run = new Run(trip, day);
+            current.put(entity.getId(), new Applied(entity, run));
+            if (previous != null) {
+                changedRuns.add(previous.run());
+            }
+            changedRuns.add(run);
+            changedEntities++;
+        }
+        // Entities missing from this feed no longer delay their trips
+        for (Map.Entry<String, Applied> entry : entities.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                changedRuns.add(entry.getValue().run());
+                changedEntities++;
+            }
+        }
+        entities = current;
+        if (changedEntities == 0) {
+            return published;
+        }
+        changedRuns.forEach(this::reset);
+        for (Applied applied : current.values()) {
+            if (changedRuns.contains(applied.run())) {
+                update(applied.entity().getTripUpdate(), applied.run());
+            }
+        }
+
+        // Publish copies of the changed timelines, so readers never see an array that is being updated.
+        // The arrays of the other timelines, and the maps of the other days, are shared with the previous updates.
+        Map<LocalDate, Map<String, int[]>> publishedDays = new HashMap<>(published.delaysByDay());
+        int minDelay = 0;
+        int maxDelay = 0;
+        for (Iterator<Map.Entry<LocalDate, DayDelays>> it = days.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<LocalDate, DayDelays> entry = it.next();
+            DayDelays day = entry.getValue();
+            if (!day.changedTimelines.isEmpty()) {
+                Map<String, int[]> publishedDelays = new HashMap<>(publishedDays.getOrDefault(entry.getKey(), Map.of()));
+                BitSet changed = day.changedTimelines;
+                for (int t = changed.nextSetBit(0); t >= 0; t = changed.nextSetBit(t + 1)) {
+                    updateRange(day, t);
+                    if (isEmpty(day.delays[t])) {
+                        publishedDelays.remove(stopIds[t]);
+                        day.delays[t] = null;
+                    } else {
+                        publishedDelays.put(stopIds[t], day.delays[t].clone());
+                    }
+                }
+                changed.clear();
+                if (publishedDelays.isEmpty()) {
+                    publishedDays.remove(entry.getKey());
+                } else {
+                    publishedDays.put(entry.getKey(), Map.copyOf(publishedDelays));
+                }
+            }
+            // A day without delays has no arrays left
+            if (!publishedDays.containsKey(entry.getKey())) {
+                it.remove();
+                continue;
+            }
+            for (int t = 0; t < timelines.length; t++) {
+                minDelay = Math.min(minDelay, day.minDelays[t]);
+                maxDelay = Math.max(maxDelay, day.maxDelays[t]);
+            }
+        }
+        published = new RealtimeUpdates(timetable, version, feedTimestamp, nowMillis, Map.copyOf(publishedDays),
+                minDelay, maxDelay, changedEntities);
+        return published;
+    }
+
+    private int trip(FeedEntity entity) {
+        return timetable.trips().find(entity.getTripUpdate().getTrip().getTripId());
+    }
+
+    private static boolean isValid(FeedEntity entity) {
+        TripDescriptor trip = entity.getTripUpdate().getTrip();
+        try {
+            if (trip.hasStartDate()) {
+                startDate(trip);
+            }
+            return true;
+        } catch (NumberFormatException | DateTimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The start date of the trip, which is given as YYYYMMDD
+     * @throws NumberFormatException if it is not a number
+     * @throws DateTimeException if it is not a date
+     */
+    private static LocalDate startDate(TripDescriptor trip) {
+        int yyyymmdd = Integer.parseInt(trip.getStartDate());
+        return LocalDate.of(yyyymmdd / 10000, yyyymmdd / 100 % 100, yyyymmdd % 100);
+    }
+
+    /**
+     * @return The service day of the run of the trip that the update is for: its start date if the feed has it,
+     * otherwise the day (before, of or after the time) whose run is closest to the first expected time of the
+     * update at an indexed stop, or to the time itself
+     */
+    private LocalDate serviceDay(TripUpdate tripUpdate, int trip, long at) {
+        if (tripUpdate.getTrip().hasStartDate()) {
+            return startDate(tripUpdate.getTrip());
+        }
+        long reference = at;
+        int departure = Integer.MAX_VALUE;
+        for (int s = tripSlotStarts[trip]; s < tripSlotStarts[trip + 1]; s++) {
+            long slot = tripSlots.get(s);
+            int t = (int) (slot >>> 32);
+            int scheduled = timelines[t].departure((int) slot);
+            TripUpdate.StopTimeUpdate update = stopTimeUpdate(tripUpdate, timelineStops[t]);
+            if (update != null && (update.hasDeparture() ? update.getDeparture() : update.getArrival()).hasTime()) {
+                reference = (update.hasDeparture() ? update.getDeparture() : update.getArrival()).getTime();
+                departure = scheduled;
+                break;
+            }
+            departure = Math.min(departure, scheduled);
+        }
+        LocalDate date = Instant.ofEpochSecond(reference).atZone(STOCKHOLM_ZONE).toLocalDate();
+        LocalDate closest = date;
+        long closestDistance = Long.MAX_VALUE;
+        for (LocalDate day = date.minusDays(1); !day.isAfter(date.plusDays(1)); day = day.plusDays(1)) {
+            long distance = Math.abs(reference - (day.atStartOfDay(STOCKHOLM_ZONE).toEpochSecond() + departure));
+            if (distance < closestDistance) {
+                closest = day;
+                closestDistance = distance;
+            }
+        }
+        return closest;
+    }
+
+    private static boolean isUnchanged(FeedEntity previous, FeedEntity entity) {
+        TripUpdate before = previous.getTripUpdate();
+        TripUpdate after = entity.getTripUpdate();
+        if (before.hasTimestamp() && after.hasTimestamp()) {
+            return before.getTimestamp() == after.getTimestamp();
+        }
+        return previous.equals(entity);
+    }
+
+    private void reset(Run run) {
+        DayDelays day = days.get(run.day());
+        if (day == null) {
+            return;
+        }
+        for (int s = tripSlotStarts[run.trip()]; s < tripSlotStarts[run.trip() + 1]; s++) {
+            long slot = tripSlots.get(s);
+            int t = (int) (slot >>> 32);
+            if (day.delays[t] != null) {
+                day.delays[t][(int) slot] = 0;
+                day.changedTimelines.set(t);
+            }
+        }
+    }
+
+    /**
+     * Sets the delays of the departures of a run. A departure gets the delay of the stop time update for its stop
+     * (or a platform of it), and otherwise the delay of the trip, which is its own delay or that of its first stop
+     * time update, the next stop of the vehicle.
+     */
+    private void update(TripUpdate tripUpdate, Run run) {
+        DayDelays day = days.computeIfAbsent(run.day(), d -> new DayDelays(timelines.length));
+        long midnight = run.day().atStartOfDay(STOCKHOLM_ZONE).toEpochSecond();
+        int trip = run.trip();
+        boolean cancelled = tripUpdate.getTrip().getScheduleRelationship() == TripDescriptor.ScheduleRelationship.CANCELED;
+        int tripDelay = tripDelay(tripUpdate);
+        for (int s = tripSlotStarts[trip]; s < tripSlotStarts[trip + 1]; s++) {
+            long slot = tripSlots.get(s);
+            int t = (int) (slot >>> 32);
+            int index = (int) slot;
+            int delay = tripDelay;
+            if (cancelled) {
+                delay = RealtimeUpdates.CANCELLED;
+            } else {
+                TripUpdate.StopTimeUpdate update = stopTimeUpdate(tripUpdate, timelineStops[t]);
+                if (update != null) {
+                    delay = stopDelay(update, midnight + timelines[t].departure(index), tripDelay);
+                }
+            }
+            if (day.delays[t] == null) {
+                if (delay == 0) {
+                    continue;
+                }
+                day.delays[t] = new int[timelines[t].size()];
+            }
+            day.delays[t][index] = delay;
+            day.changedTimelines.set(t);
+        }
+    }
+
+    private static int tripDelay(TripUpdate tripUpdate) {
+        if (tripUpdate.hasDelay()) {
+            return tripUpdate.getDelay();
+        }
+        for (TripUpdate.StopTimeUpdate update : tripUpdate.getStopTimeUpdateList()) {
+            if (update.hasDeparture() && update.getDeparture().hasDelay()) {
+                return update.getDeparture().getDelay();
+            }
+            if (update.hasArrival() && update.getArrival().hasDelay()) {
+                return update.getArrival().getDelay();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The update for the stop or one of its platforms, or null if the trip update has none
+     */
+    private TripUpdate.StopTimeUpdate stopTimeUpdate(TripUpdate tripUpdate, int stop) {
+        if (stop < 0) {
+            return null;
+        }
+        for (TripUpdate.StopTimeUpdate update : tripUpdate.getStopTimeUpdateList()) {
+            if (!update.hasStopId()) {
+                continue;
+            }
+            int updateStop = timetable.stops().find(update.getStopId());
+            if (updateStop >= 0 && (updateStop == stop || timetable.parentStop(updateStop) == stop)) {
+                return update;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param scheduled Scheduled departure in seconds since the epoch
+     */
+    private static int stopDelay(TripUpdate.StopTimeUpdate update, long scheduled, int tripDelay) {
+        if (update.getScheduleRelationship() == TripUpdate.StopTimeUpdate.ScheduleRelationship.SKIPPED) {
+            return RealtimeUpdates.CANCELLED;
+        }
+        TripUpdate.StopTimeEvent event = update.hasDeparture() ? update.getDeparture() : update.getArrival();
+        if (event.hasDelay()) {
+            return event.getDelay();
+        }
+        if (event.hasTime()) {
+            return (int) (event.getTime() - scheduled);
+        }
+        return tripDelay;
+    }
+
+    private static void updateRange(DayDelays day, int t) {
+        int min = 0;
+        int max = 0;
+        for (int i = 0; day.delays[t] != null && i < day.delays[t].length; i++) {
+            int delay = day.delays[t][i];
+            if (delay != RealtimeUpdates.CANCELLED) {
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+        }
+        day.minDelays[t] = min;
+        day.maxDelays[t] = max;
+    }
+
+    private static boolean isEmpty(int[] delays) {
+        if (delays == null) {
+            return true;
+        }
+        for (int delay : delays) {
+            if (delay != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,127 @@
+package com.ocklund.gtfs;
+
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.ocklund.gtfs.configuration.GtfsProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Polls a GTFS-Realtime TripUpdates feed on a background thread and hands the decoded delays and cancellations
+ * to {@link GtfsService}. Requests never wait for the feed: they use the updates of the last successful poll.
+ * Each feed is applied as a difference to the previous one, see {@link RealtimeIndex}.
+ */
+@Component
+public class RealtimePoller {
+
+    private static final Duration HTTP_TIMEOUT = Duration.ofSeconds(10);
+
+    private final GtfsService gtfsService;
+    private final GtfsProperties properties;
+    private ScheduledExecutorService scheduler;
+    private HttpClient httpClient;
+    private long version;
+    // Feed state of the last poll, replaced when a new timetable has been loaded
+    private RealtimeIndex index;
+
+    public RealtimePoller(GtfsService gtfsService, GtfsProperties properties) {
+        this.gtfsService = gtfsService;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void start() {
+        String source = properties.getRealtime().getSource();
+        if (source == null || source.isBlank()) {
+            return;
+        }
+        System.out.println("Polling GTFS realtime feed from " + source);
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("gtfs-realtime").daemon().factory());
+        long interval = properties.getRealtime().getInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::poll, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Milliseconds from the time of the last published feed until it was applied
+     */
+    public long ingestionLagMillis() {
+        return gtfsService.getRealtimeUpdates().ingestionLagMillis();
+    }
+
+    /**
+     * Reads and decodes the feed once. Failures are reported and the previous updates stay in use.
+     */
+    void poll() {
+        try (InputStream in = open(properties.getRealtime().getSource().trim())) {
+            FeedMessage feed = FeedMessage.parseFrom(in);
+            Timetable timetable = gtfsService.getTimetable();
+            if (index == null || index.timetable() != timetable) {
+                index = new RealtimeIndex(timetable);
+            }
+            long malformed = index.malformedEntities();
+            RealtimeUpdates updates = index.apply(feed, version + 1, System.currentTimeMillis());
+            if (index.malformedEntities() > malformed) {
+                System.err.println("Skipped " + (index.malformedEntities() - malformed) + " malformed GTFS realtime entities");
+            }
+            // Feeds without changes keep the published updates, and the reports cached for them
+            if (updates.version() > version) {
+                version = updates.version();
+                gtfsService.setRealtimeUpdates(updates);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to load GTFS realtime feed: " + e.getMessage());
+        }
+    }
+
+    private InputStream open(String source) throws IOException, InterruptedException {
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            if (httpClient == null) {
+                httpClient = HttpClient.newBuilder().connectTimeout(HTTP_TIMEOUT)
+                        .followRedirects(HttpClient.Redirect.NORMAL).build();
+            }
+            HttpRequest request = HttpRequest.newBuilder(URI.create(source)).timeout(HTTP_TIMEOUT).GET().build();
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("HTTP status " + response.statusCode() + " from " + source);
+            }
+            return response.body();
+        }
+        Path path = source.startsWith("file:") ? Path.of(URI.create(source)) : Path.of(source);
+        return Files.newInputStream(Files.isDirectory(path) ? newestFeedFile(path) : path);
+    }
+
+    /**
+     * @return The most recently modified .pb file of the directory, so a feed can be replaced by adding a file
+     */
+    private static Path newestFeedFile(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".pb") && Files.isRegularFile(file))
+                    .max(Comparator.comparing(file -> file.toFile().lastModified()))
+                    .orElseThrow(() -> new FileNotFoundException("No .pb file in " + directory));
+        }
+    }
+}
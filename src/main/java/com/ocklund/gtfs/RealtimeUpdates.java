@@ -0,0 +1,107 @@
+package com.ocklund.gtfs;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Delays and cancellations of the departures of a {@link Timetable}, from a GTFS-Realtime TripUpdates feed.
+ * <p>
+ * Updates apply to the runs of trips on one service day. For every service day, every timeline with updates has
+ * an int array parallel to its departures, holding the delay in seconds of each departure, or {@link #CANCELLED}.
+ * Instances are built by {@link RealtimeIndex} and are not modified afterwards,
+ * so reports read them without locking. Arrays of timelines that did not change are shared between instances.
+ */
+final class RealtimeUpdates {
+
+    /**
+     * Delay of a departure that will not stop, because its trip is cancelled or the stop is skipped
+     */
+    static final int CANCELLED = Integer.MIN_VALUE;
+
+    static final RealtimeUpdates EMPTY = new RealtimeUpdates(Timetable.EMPTY, 0, 0, 0, Map.of(), 0, 0, 0);
+
+    private final Timetable timetable;
+    private final long version;
+    private final long feedTimestamp;
+    private final long ingestedAtMillis;
+    private final Map<LocalDate, Map<String, int[]>> delays;
+    private final int minDelay;
+    private final int maxDelay;
+    private final int changedEntities;
+
+    RealtimeUpdates(Timetable timetable, long version, long feedTimestamp, long ingestedAtMillis,
+                    Map<LocalDate, Map<String, int[]>> delays, int minDelay, int maxDelay, int changedEntities) {
+        this.timetable = timetable;
+        this.version = version;
+        this.feedTimestamp = feedTimestamp;
+        this.ingestedAtMillis = ingestedAtMillis;
+        this.delays = delays;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.changedEntities = changedEntities;
+    }
+
+    /**
+     * @return true if the updates were decoded for the given timetable, so its timeline indexes can be used
+     */
+    boolean appliesTo(Timetable timetable) {
+        return this.timetable == timetable;
+    }
+
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return Time of the feed in seconds since the epoch, from its header
+     */
+    long feedTimestamp() {
+        return feedTimestamp;
+    }
+
+    /**
+     * @return Milliseconds from the time of the feed until its updates were published, or 0 without a feed time
+     */
+    long ingestionLagMillis() {
+        return feedTimestamp > 0 ? ingestedAtMillis - feedTimestamp * 1000 : 0;
+    }
+
+    /**
+     * @return Number of feed entities that were new, changed or removed compared to the previous feed
+     */
+    int changedEntities() {
+        return changedEntities;
+    }
+
+    /**
+     * @param serviceDay Service day of the runs of the trips, which is the date of their times before 24:00
+     * @return Delays of the departures of the stop's timeline by index, or null if none of them have updates on the
+     * service day. Must not be modified.
+     */
+    int[] delays(String stopId, LocalDate serviceDay) {
+        Map<String, int[]> stops = delays.get(serviceDay);
+        return stops != null ? stops.get(stopId) : null;
+    }
+
+    /**
+     * @return For each service day with updates, delays by stop id of the stops that have updates. Must not be
+     * modified.
+     */
+    Map<LocalDate, Map<String, int[]>> delaysByDay() {
+        return delays;
+    }
+
+    /**
+     * @return Smallest delay of any departure, at most 0
+     */
+    int minDelay() {
+        return minDelay;
+    }
+
+    /**
+     * @return Largest delay of any departure, at least 0
+     */
+    int maxDelay() {
+        return maxDelay;
+    }
+}
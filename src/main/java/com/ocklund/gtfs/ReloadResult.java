@@ -0,0 +1,15 @@
+package com.ocklund.gtfs;
+
+/**
+ * Outcome of reloading the GTFS feed
+ * @param swapped true if the new timetable replaced the one in use
+ * @param message What happened, or why the new timetable was rejected
+ * @param millis Time taken to load and validate the feed
+ * @param heapUsedBefore Heap in use when the reload started, in bytes
+ * @param heapUsedAfter Heap in use when the reload finished, in bytes, with both timetables still referenced
+ * @param trips Number of trips of the indexed stops in the new timetable
+ * @param departures Number of departures from the indexed stops in the new timetable
+ */
+public record ReloadResult(boolean swapped, String message, long millis, long heapUsedBefore, long heapUsedAfter,
+                           int trips, int departures) {
+}
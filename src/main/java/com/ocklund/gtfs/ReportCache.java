@@ -0,0 +1,145 @@
+package com.ocklund.gtfs;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Departures and stop reports shared by all viewers of a board within the same minute.
+ * <p>
+ * The first request for a board in a minute computes the departures for the start of that minute, and requests
+ * arriving while it runs wait for the same result instead of computing it again. New realtime updates and a
+ * reloaded timetable start a new entry within the minute. Entries of earlier minutes, older realtime updates and
+ * replaced timetables are evicted when a new entry is computed, and the number of entries is bounded.
+ */
+@Component
+public class ReportCache {
+
+    // Entries kept at most, several boards times the current and previous minute
+    static final int MAX_ENTRIES = 64;
+
+    // Timetables are compared by identity, each load gives a new one
+    private record Key(String boardId, LocalDateTime minute, Timetable timetable, long realtimeVersion) {
+    }
+
+    /**
+     * Departures of a board, their reports, and a strong entity tag that changes whenever the departures change
+     * @param departures One list per stop of the board, see {@link GtfsService#getDepartures(Board, LocalDateTime)}
+     * @param reports One report per stop of the board
+     */
+    public record Reports(List<List<Departure>> departures, List<String> reports, String etag) {
+    }
+
+    private final GtfsService gtfsService;
+    private final ConcurrentMap<Key, CompletableFuture<Reports>> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ReportCache(GtfsService gtfsService) {
+        this.gtfsService = gtfsService;
+    }
+
+    /**
+     * @return Reports of the stops of the board for the current minute, see {@link GtfsService#getStopReports(Board)}
+     */
+    public List<String> getStopReports(Board board) {
+        return get(board).reports();
+    }
+
+    /**
+     * @return Departures and reports of the board for the current minute
+     */
+    public Reports get(Board board) {
+        LocalDateTime minute = gtfsService.getCurrentDateTime().truncatedTo(ChronoUnit.MINUTES);
+        Key key = new Key(board.id(), minute, gtfsService.getTimetable(), gtfsService.getRealtimeVersion());
+        CompletableFuture<Reports> cached = entries.get(key);
+        if (cached == null) {
+            CompletableFuture<Reports> computing = new CompletableFuture<>();
+            cached = entries.putIfAbsent(key, computing);
+            if (cached == null) {
+                misses.increment();
+                evictBefore(key);
+                return compute(key, board, computing);
+            }
+        }
+        hits.increment();
+        return cached.join();
+    }
+
+    private Reports compute(Key key, Board board, CompletableFuture<Reports> computing) {
+        try {
+            List<List<Departure>> departures = gtfsService.getDepartures(board, key.minute()).stream()
+                    .map(List::copyOf)
+                    .toList();
+            Reports reports = new Reports(departures, GtfsService.reports(departures), etag(board, departures));
+            computing.complete(reports);
+            return reports;
+        } catch (RuntimeException e) {
+            // Waiting requests get the error, and the next request tries again
+            entries.remove(key, computing);
+            computing.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return Quoted hash of the board's departures. Equal departures give equal tags in every minute, so clients
+     * that poll get 304 responses until a departure is added, removed or delayed.
+     */
+    static String etag(Board board, List<List<Departure>> departures) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(board.id().getBytes(StandardCharsets.UTF_8));
+            // Records have a well-defined string form with all their fields
+            digest.update(departures.toString().getBytes(StandardCharsets.UTF_8));
+            return "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Removes entries older than the previous minute, of another timetable or of older realtime updates,
+     * and then the oldest entries while there are too many
+     */
+    private void evictBefore(Key current) {
+        LocalDateTime previousMinute = current.minute().minusMinutes(1);
+        entries.keySet().removeIf(key -> key.minute().isBefore(previousMinute)
+                || key.timetable() != current.timetable()
+                || key.realtimeVersion() < current.realtimeVersion());
+        while (entries.size() > MAX_ENTRIES) {
+            entries.keySet().stream()
+                    .min(Comparator.comparing(Key::minute))
+                    .ifPresent(entries::remove);
+        }
+    }
+
+    /**
+     * @return Number of requests answered from the cache, including requests that waited for a computation
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Number of requests that computed the reports
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
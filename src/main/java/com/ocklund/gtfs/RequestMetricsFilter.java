@@ -0,0 +1,40 @@
+package com.ocklund.gtfs;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Records the latency of every request in the histogram of its endpoint, see {@link Metrics}. The endpoint is
+ * the request mapping pattern, so all boards share one histogram. Streams of server-sent events are timed until
+ * the stream has started.
+ */
+@Component
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private final Metrics metrics;
+
+    public RequestMetricsFilter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            // Requests that no handler matched have no pattern and are not recorded
+            if (request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE) instanceof String endpoint) {
+                metrics.requestLatency(endpoint).record(System.nanoTime() - start);
+            }
+        }
+    }
+}
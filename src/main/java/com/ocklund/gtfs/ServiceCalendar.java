@@ -0,0 +1,215 @@
+package com.ocklund.gtfs;
+
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the services running on each date, built from calendar.txt and calendar_dates.txt.
+ * <p>
+ * Every service gets a dense index, and every date between the first and last date of the feed maps to a
+ * {@link BitSet} of the services active on it, so checking a service on a date is two array lookups.
+ * The index covers the whole feed, so it stays correct when the date changes while the application runs.
+ */
+final class ServiceCalendar {
+
+    static final ServiceCalendar EMPTY = of(List.of(), List.of());
+
+    /**
+     * A row of calendar.txt, with dates as integers YYYYMMDD
+     * @param weekdays Bit mask of the weekday columns, bit 0 for Monday to bit 6 for Sunday
+     * @throws DateTimeException if a date is not a valid date
+     */
+    record Period(String serviceId, int weekdays, int startDate, int endDate) {
+
+        Period {
+            date(startDate);
+            date(endDate);
+        }
+
+        static int weekdayBit(DayOfWeek dayOfWeek) {
+            return 1 << (dayOfWeek.getValue() - 1);
+        }
+    }
+
+    /**
+     * A row of calendar_dates.txt: type 1 adds the service on the date, type 2 removes it
+     * @throws DateTimeException if the date is not a valid date
+     */
+    record ExceptionDate(String serviceId, int date, int exceptionType) {
+
+        ExceptionDate {
+            ServiceCalendar.date(date);
+        }
+    }
+
+    /**
+     * Number of days before and after the feed's date that are indexed
+     */
+    static final int MAX_DAYS_FROM_FEED_DATE = 366;
+
+    private static final BitSet NONE = new BitSet();
+
+    private final String[] serviceIds;
+    private final Map<String, Integer> serviceIndexes;
+    private final long firstEpochDay;
+    private final BitSet[] days;
+    // Services active on dates outside the indexed range, empty except for test calendars
+    private final BitSet otherDays;
+
+    private ServiceCalendar(String[] serviceIds, long firstEpochDay, BitSet[] days, BitSet otherDays) {
+        this.serviceIds = serviceIds;
+        this.firstEpochDay = firstEpochDay;
+        this.days = days;
+        this.otherDays = otherDays;
+        this.serviceIndexes = new HashMap<>(serviceIds.length * 2);
+        for (int i = 0; i < serviceIds.length; i++) {
+            serviceIndexes.put(serviceIds[i], i);
+        }
+    }
+
+    /**
+     * Builds the index. A service runs on the weekdays of its period between the start and end date,
+     * and exceptions then add (type 1) or remove (type 2) single dates.
+     * <p>
+     * Periods may be open-ended, e.g. until 20991231, so only the dates within {@link #MAX_DAYS_FROM_FEED_DATE} of
+     * the feed's date are indexed. That is the latest start date of a period, which is close to when the feed was
+     * published, or the first exception date of a feed without periods. Services do not run on other dates.
+     */
+    static ServiceCalendar of(List<Period> periods, List<ExceptionDate> exceptions) {
+        Map<String, Integer> indexes = new HashMap<>();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long latestStart = Long.MIN_VALUE;
+        for (Period period : periods) {
+            indexes.putIfAbsent(period.serviceId(), indexes.size());
+            first = Math.min(first, epochDay(period.startDate()));
+            last = Math.max(last, epochDay(period.endDate()));
+            latestStart = Math.max(latestStart, epochDay(period.startDate()));
+        }
+        for (ExceptionDate exception : exceptions) {
+            indexes.putIfAbsent(exception.serviceId(), indexes.size());
+            first = Math.min(first, epochDay(exception.date()));
+            last = Math.max(last, epochDay(exception.date()));
+        }
+        String[] serviceIds = new String[indexes.size()];
+        indexes.forEach((serviceId, index) -> serviceIds[index] = serviceId);
+        if (first <= last) {
+            long feedDate = periods.isEmpty() ? first : latestStart;
+            first = Math.max(first, feedDate - MAX_DAYS_FROM_FEED_DATE);
+            last = Math.min(last, feedDate + MAX_DAYS_FROM_FEED_DATE);
+        }
+        if (first > last) {
+            return new ServiceCalendar(serviceIds, 0, new BitSet[0], NONE);
+        }
+
+        BitSet[] days = new BitSet[Math.toIntExact(last - first + 1)];
+        for (int i = 0; i < days.length; i++) {
+            days[i] = new BitSet(serviceIds.length);
+        }
+        for (Period period : periods) {
+            int service = indexes.get(period.serviceId());
+            long end = Math.min(epochDay(period.endDate()), last);
+            for (long day = Math.max(epochDay(period.startDate()), first); day <= end; day++) {
+                // Day 0 of the epoch, 1970-01-01, was a Thursday
+                if ((period.weekdays() & 1 << Math.floorMod(day + 3, 7)) != 0) {
+                    days[(int) (day - first)].set(service);
+                }
+            }
+        }
+        for (ExceptionDate exception : exceptions) {
+            long day = epochDay(exception.date());
+            if (day < first || day > last) {
+                continue;
+            }
+            if (exception.exceptionType() == 1) {
+                days[(int) (day - first)].set(indexes.get(exception.serviceId()));
+            } else if (exception.exceptionType() == 2) {
+                days[(int) (day - first)].clear(indexes.get(exception.serviceId()));
+            }
+        }
+        return new ServiceCalendar(serviceIds, first, days, NONE);
+    }
+
+    /**
+     * Creates a calendar where the given services run every day (used for testing)
+     */
+    static ServiceCalendar alwaysActive(Set<String> serviceIds) {
+        BitSet all = new BitSet();
+        all.set(0, serviceIds.size());
+        return new ServiceCalendar(serviceIds.toArray(String[]::new), 0, new BitSet[0], all);
+    }
+
+    /**
+     * Restores an index from its parts, e.g. read from a snapshot
+     */
+    static ServiceCalendar ofDays(String[] serviceIds, long firstEpochDay, BitSet[] days) {
+        return new ServiceCalendar(serviceIds, firstEpochDay, days, NONE);
+    }
+
+    /**
+     * @return A calendar that also knows the given services, as never running. Known services are ignored.
+     */
+    ServiceCalendar withServices(Collection<String> moreServiceIds) {
+        List<String> added = moreServiceIds.stream().distinct().filter(id -> !serviceIndexes.containsKey(id)).toList();
+        if (added.isEmpty()) {
+            return this;
+        }
+        String[] extended = Arrays.copyOf(serviceIds, serviceIds.length + added.size());
+        for (int i = 0; i < added.size(); i++) {
+            extended[serviceIds.length + i] = added.get(i);
+        }
+        return new ServiceCalendar(extended, firstEpochDay, days, otherDays);
+    }
+
+    /**
+     * @return Dense index of the service, or -1 if the calendar does not know it
+     */
+    int serviceIndex(String serviceId) {
+        return serviceIndexes.getOrDefault(serviceId, -1);
+    }
+
+    int serviceCount() {
+        return serviceIds.length;
+    }
+
+    String serviceId(int serviceIndex) {
+        return serviceIds[serviceIndex];
+    }
+
+    long firstEpochDay() {
+        return firstEpochDay;
+    }
+
+    int dayCount() {
+        return days.length;
+    }
+
+    /**
+     * @return Services active on the date as a bit set of service indexes. Must not be modified.
+     */
+    BitSet activeOn(LocalDate date) {
+        long day = date.toEpochDay() - firstEpochDay;
+        return day >= 0 && day < days.length ? days[(int) day] : otherDays;
+    }
+
+    boolean isActive(String serviceId, LocalDate date) {
+        int serviceIndex = serviceIndex(serviceId);
+        return serviceIndex >= 0 && activeOn(date).get(serviceIndex);
+    }
+
+    private static long epochDay(int yyyymmdd) {
+        return date(yyyymmdd).toEpochDay();
+    }
+
+    private static LocalDate date(int yyyymmdd) {
+        return LocalDate.of(yyyymmdd / 10000, yyyymmdd / 100 % 100, yyyymmdd % 100);
+    }
+}
@@ -0,0 +1,147 @@
+package com.ocklund.gtfs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * GTFS service time packed into a plain {@code int}: seconds since midnight of the service day.
+ * Unlike {@link java.time.LocalTime} it can hold hours past 24, which GTFS uses for trips that
+ * run past midnight but belong to the previous service day.
+ * The parsers work directly on a range of a {@code CharSequence} or {@code ByteBuffer} and do not allocate.
+ */
+final class ServiceTime {
+
+    static final int SECONDS_PER_MINUTE = 60;
+    static final int SECONDS_PER_HOUR = 3600;
+    static final int SECONDS_PER_DAY = 86400;
+
+    private ServiceTime() {
+    }
+
+    static int of(int hours, int minutes, int seconds) {
+        return hours * SECONDS_PER_HOUR + minutes * SECONDS_PER_MINUTE + seconds;
+    }
+
+    /**
+     * Converts a wall-clock time to a service time on the same day
+     * @param dateTime The time
+     * @return Seconds since midnight of the date of {@code dateTime}
+     */
+    static int of(LocalDateTime dateTime) {
+        return dateTime.toLocalTime().toSecondOfDay();
+    }
+
+    static int hours(int serviceTime) {
+        return serviceTime / SECONDS_PER_HOUR;
+    }
+
+    static int minutes(int serviceTime) {
+        return serviceTime / SECONDS_PER_MINUTE % 60;
+    }
+
+    /**
+     * Resolves a service time to a wall-clock time, rolling over to the following day(s) for hours past 24
+     * @param serviceDate The service day the time belongs to
+     * @param serviceTime Seconds since midnight of the service day
+     * @return The corresponding LocalDateTime
+     */
+    static LocalDateTime toLocalDateTime(LocalDate serviceDate, int serviceTime) {
+        return serviceDate.atStartOfDay().plusSeconds(serviceTime);
+    }
+
+    /**
+     * Appends the time as "HH:MM", keeping hours past 24 as they are in the feed (e.g. "24:05")
+     * @return The given StringBuilder
+     */
+    static StringBuilder appendHoursAndMinutes(StringBuilder sb, int serviceTime) {
+        appendTwoDigits(sb, hours(serviceTime)).append(':');
+        return appendTwoDigits(sb, minutes(serviceTime));
+    }
+
+    static int parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses a GTFS time in format "H:MM:SS" or "HH:MM:SS", where hours may exceed 24
+     * @param text The characters to parse
+     * @param from Start index, inclusive
+     * @param to End index, exclusive
+     * @return Seconds since midnight of the service day
+     * @throws IllegalArgumentException if the range is not a valid GTFS time
+     */
+    static int parse(CharSequence text, int from, int to) {
+        int length = to - from;
+        if (length != 7 && length != 8) {
+            throw invalid(text, from, to);
+        }
+        int hourEnd = to - 6;
+        int hours = 0;
+        for (int i = from; i < hourEnd; i++) {
+            hours = hours * 10 + digit(text.charAt(i), text, from, to);
+        }
+        if (text.charAt(hourEnd) != ':' || text.charAt(to - 3) != ':') {
+            throw invalid(text, from, to);
+        }
+        int minutes = digit(text.charAt(to - 5), text, from, to) * 10 + digit(text.charAt(to - 4), text, from, to);
+        int seconds = digit(text.charAt(to - 2), text, from, to) * 10 + digit(text.charAt(to - 1), text, from, to);
+        return checked(hours, minutes, seconds, text, from, to);
+    }
+
+    /**
+     * Parses a GTFS time from an absolute range of ASCII bytes, see {@link #parse(CharSequence, int, int)}.
+     * The position and limit of the buffer are not used or changed.
+     */
+    static int parse(ByteBuffer bytes, int from, int to) {
+        int length = to - from;
+        if (length != 7 && length != 8) {
+            throw invalid(bytes, from, to);
+        }
+        int hourEnd = to - 6;
+        int hours = 0;
+        for (int i = from; i < hourEnd; i++) {
+            hours = hours * 10 + digit(bytes.get(i), bytes, from, to);
+        }
+        if (bytes.get(hourEnd) != ':' || bytes.get(to - 3) != ':') {
+            throw invalid(bytes, from, to);
+        }
+        int minutes = digit(bytes.get(to - 5), bytes, from, to) * 10 + digit(bytes.get(to - 4), bytes, from, to);
+        int seconds = digit(bytes.get(to - 2), bytes, from, to) * 10 + digit(bytes.get(to - 1), bytes, from, to);
+        return checked(hours, minutes, seconds, bytes, from, to);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder sb, int value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        return sb.append(value);
+    }
+
+    private static int digit(int c, Object source, int from, int to) {
+        if (c < '0' || c > '9') {
+            throw invalid(source, from, to);
+        }
+        return c - '0';
+    }
+
+    private static int checked(int hours, int minutes, int seconds, Object source, int from, int to) {
+        if (minutes > 59 || seconds > 59) {
+            throw invalid(source, from, to);
+        }
+        return of(hours, minutes, seconds);
+    }
+
+    private static IllegalArgumentException invalid(Object source, int from, int to) {
+        String text;
+        if (source instanceof ByteBuffer bytes) {
+            byte[] copy = new byte[Math.max(0, to - from)];
+            bytes.get(from, copy);
+            text = new String(copy, StandardCharsets.US_ASCII);
+        } else {
+            text = ((CharSequence) source).subSequence(from, Math.max(from, to)).toString();
+        }
+        return new IllegalArgumentException("Invalid GTFS time format: " + text);
+    }
+}
@@ -0,0 +1,264 @@
+package com.ocklund.gtfs;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Names, location types and coordinates of all stops of the feed, with a grid for finding the stops near a
+ * location.
+ * <p>
+ * Coordinates are stored as microdegrees in int arrays indexed by stop id. The grid divides the bounding box of
+ * the stops into square cells, and lists the stops of each cell in one array ordered by cell (a cell's stops are
+ * {@code cellStops[cellStarts[cell]..cellStarts[cell + 1])}), so a search only visits the cells that overlap
+ * the search circle. Distances use an equirectangular projection, which is accurate to well below a metre over
+ * the few kilometres that are searched.
+ * <p>
+ * Instances are not modified once built and can be shared between threads.
+ */
+final class StopIndex {
+
+    /**
+     * Coordinate of a stop without a location
+     */
+    static final int NO_COORDINATE = Integer.MIN_VALUE;
+
+    /**
+     * Location type of a stop or platform, as opposed to stations, entrances and other nodes
+     */
+    static final byte STOP_OR_PLATFORM = 0;
+
+    static final StopIndex EMPTY = new StopIndex(new int[0], new int[0], new IdTable(), new int[0], new byte[0]);
+
+    private static final double EARTH_RADIUS_METRES = 6_371_000;
+    private static final double METRES_PER_MICRODEGREE = Math.toRadians(1e-6) * EARTH_RADIUS_METRES;
+    private static final double CELL_METRES = 250;
+    // Larger cells are used when the stops are spread out, so that the grid has at most this many cells per stop
+    private static final int MAX_CELLS_PER_STOP = 4;
+
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final IdTable names;
+    private final int[] stopNames;
+    private final byte[] locationTypes;
+
+    private final int minLatitude;
+    private final int minLongitude;
+    private final double metresPerLongitude;
+    private final double width;
+    private final double height;
+    private final double cellMetres;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStarts;
+    private final int[] cellStops;
+
+    /**
+     * @param latitudes Latitude of each stop in microdegrees, or {@link #NO_COORDINATE}
+     * @param longitudes Longitude of each stop in microdegrees, or {@link #NO_COORDINATE}
+     * @param names Stop names
+     * @param stopNames Name of each stop in {@code names}, or -1 for stops without a name
+     * @param locationTypes GTFS location_type of each stop
+     */
+    StopIndex(int[] latitudes, int[] longitudes, IdTable names, int[] stopNames, byte[] locationTypes) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.names = names;
+        this.stopNames = stopNames;
+        this.locationTypes = locationTypes;
+
+        int located = 0;
+        int minLat = Integer.MAX_VALUE;
+        int maxLat = Integer.MIN_VALUE;
+        int minLon = Integer.MAX_VALUE;
+        int maxLon = Integer.MIN_VALUE;
+        for (int stop = 0; stop < latitudes.length; stop++) {
+            if (hasLocation(stop)) {
+                located++;
+                minLat = Math.min(minLat, latitudes[stop]);
+                maxLat = Math.max(maxLat, latitudes[stop]);
+                minLon = Math.min(minLon, longitudes[stop]);
+                maxLon = Math.max(maxLon, longitudes[stop]);
+            }
+        }
+        if (located == 0) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+        minLatitude = minLat;
+        minLongitude = minLon;
+        double meanLatitude = Math.toRadians((minLat / 2.0 + maxLat / 2.0) / 1e6);
+        metresPerLongitude = METRES_PER_MICRODEGREE * Math.cos(meanLatitude);
+        width = (maxLon - (double) minLon) * metresPerLongitude;
+        height = (maxLat - (double) minLat) * METRES_PER_MICRODEGREE;
+        double cell = CELL_METRES;
+        if ((width / cell + 1) * (height / cell + 1) > (double) MAX_CELLS_PER_STOP * located + 1) {
+            cell = Math.sqrt(Math.max(width, CELL_METRES) * Math.max(height, CELL_METRES)
+                    / ((double) MAX_CELLS_PER_STOP * located)) + 1;
+        }
+        cellMetres = cell;
+        columns = (int) (width / cell) + 1;
+        rows = (int) (height / cell) + 1;
+
+        // Counting sort of the stops by cell
+        cellStarts = new int[columns * rows + 1];
+        for (int stop = 0; stop < latitudes.length; stop++) {
+            if (hasLocation(stop)) {
+                cellStarts[cell(stop) + 1]++;
+            }
+        }
+        for (int c = 1; c < cellStarts.length; c++) {
+            cellStarts[c] += cellStarts[c - 1];
+        }
+        cellStops = new int[located];
+        int[] next = Arrays.copyOf(cellStarts, cellStarts.length - 1);
+        for (int stop = 0; stop < latitudes.length; stop++) {
+            if (hasLocation(stop)) {
+                cellStops[next[cell(stop)]++] = stop;
+            }
+        }
+    }
+
+    private int cell(int stop) {
+        int column = Math.min(columns - 1, (int) (x(longitudes[stop]) / cellMetres));
+        int row = Math.min(rows - 1, (int) (y(latitudes[stop]) / cellMetres));
+        return row * columns + column;
+    }
+
+    // Position in metres east and north of the south-west corner of the bounding box
+    private double x(double longitudeMicrodegrees) {
+        return (longitudeMicrodegrees - minLongitude) * metresPerLongitude;
+    }
+
+    private double y(double latitudeMicrodegrees) {
+        return (latitudeMicrodegrees - minLatitude) * METRES_PER_MICRODEGREE;
+    }
+
+    /**
+     * @return Number of stops, located or not
+     */
+    int size() {
+        return latitudes.length;
+    }
+
+    boolean hasLocation(int stop) {
+        return stop < latitudes.length && latitudes[stop] != NO_COORDINATE && longitudes[stop] != NO_COORDINATE;
+    }
+
+    int latitudeMicrodegrees(int stop) {
+        return latitudes[stop];
+    }
+
+    int longitudeMicrodegrees(int stop) {
+        return longitudes[stop];
+    }
+
+    double latitude(int stop) {
+        return latitudes[stop] / 1e6;
+    }
+
+    double longitude(int stop) {
+        return longitudes[stop] / 1e6;
+    }
+
+    IdTable names() {
+        return names;
+    }
+
+    /**
+     * @return Id of the stop's name in {@link #names()}, or -1
+     */
+    int nameId(int stop) {
+        return stop < stopNames.length ? stopNames[stop] : -1;
+    }
+
+    /**
+     * @return Name of the stop, or an empty string
+     */
+    String name(int stop) {
+        int name = nameId(stop);
+        return name >= 0 ? names.get(name) : "";
+    }
+
+    /**
+     * @return GTFS location_type of the stop: 0 for a stop or platform, 1 for a station, 2 for an entrance, etc.
+     */
+    byte locationType(int stop) {
+        return stop < locationTypes.length ? locationTypes[stop] : STOP_OR_PLATFORM;
+    }
+
+    /**
+     * @return Distance in metres between the stop and a location
+     */
+    double distance(int stop, double latitude, double longitude) {
+        double dx = x(longitudes[stop]) - x(longitude * 1e6);
+        double dy = y(latitudes[stop]) - y(latitude * 1e6);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * @param filter Stops to include
+     * @return Stops within the given distance of a location, nearest first
+     */
+    int[] within(double latitude, double longitude, double metres, IntPredicate filter) {
+        if (cellStops.length == 0 || !(metres >= 0)) {
+            return new int[0];
+        }
+        double x = x(longitude * 1e6);
+        double y = y(latitude * 1e6);
+        double firstColumn = Math.floor((x - metres) / cellMetres);
+        double lastColumn = Math.floor((x + metres) / cellMetres);
+        double firstRow = Math.floor((y - metres) / cellMetres);
+        double lastRow = Math.floor((y + metres) / cellMetres);
+        if (lastColumn < 0 || firstColumn >= columns || lastRow < 0 || firstRow >= rows) {
+            return new int[0];
+        }
+        double limit = metres * metres;
+        // Squared distances are non-negative floats, whose bits sort like the numbers, packed with the stop
+        long[] found = new long[16];
+        int count = 0;
+        for (int row = (int) Math.max(0, firstRow); row <= Math.min(rows - 1, lastRow); row++) {
+            for (int column = (int) Math.max(0, firstColumn); column <= Math.min(columns - 1, lastColumn); column++) {
+                int cell = row * columns + column;
+                for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                    int stop = cellStops[i];
+                    double dx = x(longitudes[stop]) - x;
+                    double dy = y(latitudes[stop]) - y;
+                    double squared = dx * dx + dy * dy;
+                    if (squared > limit || !filter.test(stop)) {
+                        continue;
+                    }
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = ((long) Float.floatToIntBits((float) squared) << 32) | stop;
+                }
+            }
+        }
+        Arrays.sort(found, 0, count);
+        int[] stops = new int[count];
+        for (int i = 0; i < count; i++) {
+            stops[i] = (int) found[i];
+        }
+        return stops;
+    }
+
+    /**
+     * @param filter Stops to include
+     * @return The {@code k} stops nearest to a location, nearest first, or fewer if there are not that many
+     */
+    int[] nearest(double latitude, double longitude, int k, IntPredicate filter) {
+        if (k <= 0 || cellStops.length == 0) {
+            return new int[0];
+        }
+        // All stops are within the distance to the farthest corner of the bounding box
+        double x = x(longitude * 1e6);
+        double y = y(latitude * 1e6);
+        double farthest = Math.hypot(Math.max(Math.abs(x), Math.abs(x - width)), Math.max(Math.abs(y), Math.abs(y - height)));
+        // Search circles that double in size, until one holds k stops. It then holds the k nearest.
+        for (double radius = cellMetres; ; radius *= 2) {
+            int[] found = within(latitude, longitude, radius, filter);
+            if (found.length >= k || radius > farthest) {
+                return found.length > k ? Arrays.copyOf(found, k) : found;
+            }
+        }
+    }
+}
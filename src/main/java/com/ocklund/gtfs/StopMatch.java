@@ -0,0 +1,10 @@
+package com.ocklund.gtfs;
+
+import java.util.List;
+
+/**
+ * A station or stop found by name
+ * @param platforms Ids of the platforms of the station, empty for a stop without a station
+ */
+public record StopMatch(String stopId, String name, List<String> platforms) {
+}
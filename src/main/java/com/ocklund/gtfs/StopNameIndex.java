@@ -0,0 +1,375 @@
+package com.ocklund.gtfs;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Searches stops by name, for choosing the stops of a board.
+ * <p>
+ * Each station, and each stop without a station, is one entry, and its platforms are listed under it. Names are
+ * folded to lower case without diacritics, so "sjovik" finds "Sjövikstorget". A query matches the start of the
+ * name or of any word in it, found by binary search in a sorted array of word starts. When that gives too few
+ * results, entries are ranked by the trigrams they share with the query, so misspelled names are found too.
+ * <p>
+ * Built once per timetable and not modified afterwards. A query only allocates its results: the buffers it
+ * works in are pooled.
+ */
+final class StopNameIndex {
+
+    // Folded form of the characters up to U+017F, covering Swedish and other Latin names
+    private static final char[] FOLDED = new char[0x180];
+    private static final int TRIGRAM_SYMBOLS = 38;
+    // Smallest share of trigrams in common (Dice coefficient) for a fuzzy match
+    private static final double MIN_SIMILARITY = 0.35;
+    private static final int MAX_QUERY_LENGTH = 64;
+
+    static {
+        for (char c = 0; c < FOLDED.length; c++) {
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            char base = Character.toLowerCase(decomposed.charAt(0));
+            FOLDED[c] = Character.isLetterOrDigit(base) ? base : ' ';
+        }
+        FOLDED['æ'] = 'a';
+        FOLDED['Æ'] = 'a';
+        FOLDED['ø'] = 'o';
+        FOLDED['Ø'] = 'o';
+        FOLDED['ß'] = 's';
+    }
+
+    /**
+     * A station or stop found by name, with the ids of its platforms
+     */
+    record Match(int stop, List<Integer> platforms) {
+    }
+
+    private final Timetable timetable;
+    // Entry e is the station or stop entryStops[e], named names[e] and folded as folded[e]
+    private final int[] entryStops;
+    private final String[] folded;
+    // Platforms of entry e are platforms[platformStarts[e]..platformStarts[e + 1])
+    private final int[] platformStarts;
+    private final int[] platforms;
+    // Word starts sorted by the folded text from there: entry keyEntries[k] from offset keyOffsets[k]
+    private final int[] keyEntries;
+    private final int[] keyOffsets;
+    // Entries having trigram t are trigramEntries[trigramStarts[t]..trigramStarts[t + 1])
+    private final int[] trigramStarts;
+    private final int[] trigramEntries;
+    private final int[] trigramCounts;
+    private final ArrayBlockingQueue<Scratch> scratchPool =
+            new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Buffers of one query
+     */
+    private static final class Scratch {
+        final char[] query = new char[MAX_QUERY_LENGTH];
+        final int[] queryTrigrams = new int[MAX_QUERY_LENGTH + 2];
+        final int[] counts;
+        final int[] touched;
+        final long[] ranked;
+        // Entries already in the result, marked with the number of the query
+        final int[] seen;
+        int queryNumber;
+
+        Scratch(int entries) {
+            counts = new int[entries];
+            touched = new int[entries];
+            ranked = new long[entries];
+            seen = new int[entries];
+        }
+    }
+
+    StopNameIndex(Timetable timetable) {
+        this.timetable = timetable;
+        StopIndex stopIndex = timetable.stopIndex();
+        int stopCount = Math.min(timetable.stops().size(), stopIndex.size());
+
+        // Entries are the stops without a parent station, platforms are grouped under theirs
+        int[] entryOfStop = new int[stopCount];
+        Arrays.fill(entryOfStop, -1);
+        List<Integer> entries = new ArrayList<>();
+        for (int stop = 0; stop < stopCount; stop++) {
+            if (timetable.parentStop(stop) < 0 && stopIndex.nameId(stop) >= 0) {
+                entryOfStop[stop] = entries.size();
+                entries.add(stop);
+            }
+        }
+        entryStops = entries.stream().mapToInt(Integer::intValue).toArray();
+        folded = new String[entryStops.length];
+        char[] buffer = new char[256];
+        for (int e = 0; e < entryStops.length; e++) {
+            String name = stopIndex.name(entryStops[e]);
+            if (buffer.length < name.length()) {
+                buffer = new char[name.length()];
+            }
+            folded[e] = new String(buffer, 0, fold(name, buffer));
+        }
+
+        platformStarts = new int[entryStops.length + 1];
+        for (int stop = 0; stop < stopCount; stop++) {
+            int entry = platformEntry(stop, entryOfStop, stopIndex);
+            if (entry >= 0) {
+                platformStarts[entry + 1]++;
+            }
+        }
+        Arrays.parallelPrefix(platformStarts, Integer::sum);
+        platforms = new int[platformStarts[entryStops.length]];
+        int[] nextPlatform = Arrays.copyOf(platformStarts, entryStops.length);
+        for (int stop = 0; stop < stopCount; stop++) {
+            int entry = platformEntry(stop, entryOfStop, stopIndex);
+            if (entry >= 0) {
+                platforms[nextPlatform[entry]++] = stop;
+            }
+        }
+
+        // Word starts, sorted by the text that follows them
+        List<long[]> keys = new ArrayList<>();
+        for (int e = 0; e < folded.length; e++) {
+            String name = folded[e];
+            for (int i = 0; i < name.length(); i++) {
+                if (name.charAt(i) != ' ' && (i == 0 || name.charAt(i - 1) == ' ')) {
+                    keys.add(new long[]{e, i});
+                }
+            }
+        }
+        keys.sort(Comparator.comparing((long[] key) -> folded[(int) key[0]].substring((int) key[1]))
+                .thenComparingLong(key -> key[1]));
+        keyEntries = keys.stream().mapToInt(key -> (int) key[0]).toArray();
+        keyOffsets = keys.stream().mapToInt(key -> (int) key[1]).toArray();
+
+        // Distinct trigrams of each name, counted and then listed per trigram
+        int[][] entryTrigrams = new int[folded.length][];
+        trigramCounts = new int[folded.length];
+        trigramStarts = new int[TRIGRAM_SYMBOLS * TRIGRAM_SYMBOLS * TRIGRAM_SYMBOLS + 1];
+        int[] trigramBuffer = new int[0];
+        for (int e = 0; e < folded.length; e++) {
+            char[] chars = folded[e].toCharArray();
+            if (trigramBuffer.length < chars.length + 2) {
+                trigramBuffer = new int[chars.length + 2];
+            }
+            int count = trigrams(chars, chars.length, trigramBuffer);
+            entryTrigrams[e] = Arrays.copyOf(trigramBuffer, count);
+            trigramCounts[e] = count;
+            for (int trigram : entryTrigrams[e]) {
+                trigramStarts[trigram + 1]++;
+            }
+        }
+        Arrays.parallelPrefix(trigramStarts, Integer::sum);
+        trigramEntries = new int[trigramStarts[trigramStarts.length - 1]];
+        int[] nextEntry = Arrays.copyOf(trigramStarts, trigramStarts.length - 1);
+        for (int e = 0; e < folded.length; e++) {
+            for (int trigram : entryTrigrams[e]) {
+                trigramEntries[nextEntry[trigram]++] = e;
+            }
+        }
+    }
+
+    /**
+     * @return Entry of the station that the stop is a platform of, or -1
+     */
+    private int platformEntry(int stop, int[] entryOfStop, StopIndex stopIndex) {
+        int parent = timetable.parentStop(stop);
+        if (parent < 0 || parent >= entryOfStop.length || stopIndex.locationType(stop) != StopIndex.STOP_OR_PLATFORM) {
+            return -1;
+        }
+        return entryOfStop[parent];
+    }
+
+    /**
+     * Folds a name to lower case letters and digits without diacritics, with single spaces between words
+     * @return Length of the folded name in {@code out}, which must hold at least {@code text.length()} chars
+     */
+    static int fold(CharSequence text, char[] out) {
+        int length = 0;
+        for (int i = 0; i < text.length() && length < out.length; i++) {
+            char c = text.charAt(i);
+            char f = c < FOLDED.length ? FOLDED[c] : Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ';
+            if (f != ' ' || (length > 0 && out[length - 1] != ' ')) {
+                out[length++] = f;
+            }
+        }
+        return length > 0 && out[length - 1] == ' ' ? length - 1 : length;
+    }
+
+    /**
+     * Collects the distinct trigrams of a folded name, padded with a space on both sides
+     * @return Number of trigrams in {@code out}, which must hold at least {@code length + 2}
+     */
+    private static int trigrams(char[] chars, int length, int[] out) {
+        int count = 0;
+        for (int i = -1; i + 1 < length + 1 && length > 0; i++) {
+            int trigram = (symbol(chars, length, i) * TRIGRAM_SYMBOLS + symbol(chars, length, i + 1)) * TRIGRAM_SYMBOLS
+                    + symbol(chars, length, i + 2);
+            boolean known = false;
+            for (int j = 0; j < count && !known; j++) {
+                known = out[j] == trigram;
+            }
+            if (!known) {
+                out[count++] = trigram;
+            }
+        }
+        return count;
+    }
+
+    private static int symbol(char[] chars, int length, int i) {
+        if (i < 0 || i >= length) {
+            return 0;
+        }
+        char c = chars[i];
+        if (c >= 'a' && c <= 'z') {
+            return 1 + c - 'a';
+        }
+        if (c >= '0' && c <= '9') {
+            return 27 + c - '0';
+        }
+        return c == ' ' ? 0 : 37;
+    }
+
+    Timetable timetable() {
+        return timetable;
+    }
+
+    /**
+     * @return Number of stations and stops that can be found
+     */
+    int size() {
+        return entryStops.length;
+    }
+
+    /**
+     * @return Stations and stops whose name or a word in it starts with the query, and then names similar to
+     * the query, at most {@code limit} in all
+     */
+    List<Match> search(CharSequence query, int limit) {
+        Scratch scratch = scratchPool.poll();
+        if (scratch == null) {
+            scratch = new Scratch(entryStops.length);
+        }
+        try {
+            return search(query, limit, scratch);
+        } finally {
+            scratchPool.offer(scratch);
+        }
+    }
+
+    private List<Match> search(CharSequence query, int limit, Scratch scratch) {
+        List<Match> matches = new ArrayList<>();
+        int length = fold(query, scratch.query);
+        if (length == 0 || limit <= 0) {
+            return matches;
+        }
+        int queryNumber = ++scratch.queryNumber;
+        if (queryNumber == 0) {
+            Arrays.fill(scratch.seen, 0);
+            queryNumber = scratch.queryNumber = 1;
+        }
+
+        // Prefix matches: names starting with the query first, then names with a word starting with it,
+        // each by length so that the closest names come first
+        int first = lowerBound(scratch.query, length);
+        int count = 0;
+        for (int k = first; k < keyEntries.length && startsWith(keyEntries[k], keyOffsets[k], scratch.query, length); k++) {
+            int entry = keyEntries[k];
+            if (scratch.seen[entry] != queryNumber) {
+                scratch.seen[entry] = queryNumber;
+                long rank = (keyOffsets[k] == 0 ? 0L : 1L << 40) | ((long) folded[entry].length() << 20);
+                scratch.ranked[count++] = rank | entry;
+            }
+        }
+        Arrays.sort(scratch.ranked, 0, count);
+        for (int i = 0; i < count && matches.size() < limit; i++) {
+            matches.add(match((int) (scratch.ranked[i] & 0xFFFFF)));
+        }
+        if (matches.size() < limit) {
+            fuzzy(scratch, length, limit, matches, queryNumber);
+        }
+        return matches;
+    }
+
+    /**
+     * Adds the entries that share the most trigrams with the query and are not in the result yet
+     */
+    private void fuzzy(Scratch scratch, int length, int limit, List<Match> matches, int queryNumber) {
+        int queryTrigrams = trigrams(scratch.query, length, scratch.queryTrigrams);
+        int touched = 0;
+        for (int q = 0; q < queryTrigrams; q++) {
+            int trigram = scratch.queryTrigrams[q];
+            for (int i = trigramStarts[trigram]; i < trigramStarts[trigram + 1]; i++) {
+                int entry = trigramEntries[i];
+                if (scratch.counts[entry]++ == 0) {
+                    scratch.touched[touched++] = entry;
+                }
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < touched; i++) {
+            int entry = scratch.touched[i];
+            double similarity = 2.0 * scratch.counts[entry] / (queryTrigrams + trigramCounts[entry]);
+            scratch.counts[entry] = 0;
+            if (similarity >= MIN_SIMILARITY && scratch.seen[entry] != queryNumber) {
+                // Most similar first, packed so that a plain sort orders them
+                long rank = (long) ((1 - similarity) * (1 << 20)) << 20;
+                scratch.ranked[count++] = rank | entry;
+            }
+        }
+        Arrays.sort(scratch.ranked, 0, count);
+        for (int i = 0; i < count && matches.size() < limit; i++) {
+            matches.add(match((int) (scratch.ranked[i] & 0xFFFFF)));
+        }
+    }
+
+    private Match match(int entry) {
+        List<Integer> entryPlatforms = IntStream.range(platformStarts[entry], platformStarts[entry + 1])
+                .mapToObj(i -> platforms[i])
+                .toList();
+        return new Match(entryStops[entry], entryPlatforms);
+    }
+
+    /**
+     * @return First key that is not before the query
+     */
+    private int lowerBound(char[] query, int length) {
+        int low = 0;
+        int high = keyEntries.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(keyEntries[middle], keyOffsets[middle], query, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compare(int entry, int offset, char[] query, int length) {
+        String name = folded[entry];
+        int n = Math.min(name.length() - offset, length);
+        for (int i = 0; i < n; i++) {
+            int difference = name.charAt(offset + i) - query[i];
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return (name.length() - offset) - length;
+    }
+
+    private boolean startsWith(int entry, int offset, char[] query, int length) {
+        String name = folded[entry];
+        if (name.length() - offset < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(offset + i) != query[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
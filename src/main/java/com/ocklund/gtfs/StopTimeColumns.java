@@ -0,0 +1,159 @@
+package com.ocklund.gtfs;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Stop times of the timelines of many stops in direct memory outside the Java heap, so that neither the heap nor
+ * the work of the garbage collector grows with the size of the feed.
+ * <p>
+ * Departures, trips and headsigns are stored in one column each, sorted by timeline slot and then by departure,
+ * with the start of each slot in an offset table. A timeline is a view of the range of its slot in the columns.
+ */
+final class StopTimeColumns {
+
+    // Rows of a builder: slot, departure, trip and headsign
+    private static final int ROW_INTS = 4;
+
+    private final int[] starts;
+    private final IntBuffer departures;
+    private final IntBuffer trips;
+    private final IntBuffer headsigns;
+
+    private StopTimeColumns(int[] starts, IntBuffer departures, IntBuffer trips, IntBuffer headsigns) {
+        this.starts = starts;
+        this.departures = departures;
+        this.trips = trips;
+        this.headsigns = headsigns;
+    }
+
+    int slotCount() {
+        return starts.length - 1;
+    }
+
+    /**
+     * @return Number of stop times in all slots
+     */
+    int size() {
+        return starts[starts.length - 1];
+    }
+
+    /**
+     * @return Timeline of the slot, which shares the columns
+     */
+    StopTimeline timeline(int slot) {
+        int start = starts[slot];
+        int size = starts[slot + 1] - start;
+        return StopTimeline.ofSorted(departures.slice(start, size), trips.slice(start, size),
+                headsigns.slice(start, size));
+    }
+
+    /**
+     * Sorts the stop times of the builders into columns: by slot with a counting sort, and then each slot by
+     * departure, keeping the order of the builders and of addition for departures in the same second.
+     * The slots are sorted in parallel.
+     * @param builders Stop times with trip and headsign ids local to each builder
+     * @param tripIds For each builder, the id in the timetable of each of its trips
+     * @param headsignIds For each builder, the id in the timetable of each of its headsigns
+     * @param slotCount Number of timelines
+     */
+    static StopTimeColumns of(List<Builder> builders, List<int[]> tripIds, List<int[]> headsignIds, int slotCount) {
+        int[] starts = new int[slotCount + 1];
+        for (Builder builder : builders) {
+            for (int row = 0; row < builder.size; row++) {
+                starts[builder.rows.get(row * ROW_INTS) + 1]++;
+            }
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            starts[slot + 1] += starts[slot];
+        }
+        int size = starts[slotCount];
+        IntBuffer departures = allocate(size);
+        IntBuffer trips = allocate(size);
+        IntBuffer headsigns = allocate(size);
+        int[] next = Arrays.copyOf(starts, slotCount);
+        for (int b = 0; b < builders.size(); b++) {
+            IntBuffer rows = builders.get(b).rows;
+            int[] builderTrips = tripIds.get(b);
+            int[] builderHeadsigns = headsignIds.get(b);
+            for (int row = 0; row < builders.get(b).size; row++) {
+                int index = next[rows.get(row * ROW_INTS)]++;
+                departures.put(index, rows.get(row * ROW_INTS + 1));
+                trips.put(index, builderTrips[rows.get(row * ROW_INTS + 2)]);
+                headsigns.put(index, builderHeadsigns[rows.get(row * ROW_INTS + 3)]);
+            }
+        }
+
+        // Blocks of slots with their own scratch arrays, which are as large as the largest slot of the block
+        int blocks = Math.max(1, Math.min(slotCount, Runtime.getRuntime().availableProcessors()));
+        IntStream.range(0, blocks).parallel().forEach(block -> sortSlots(starts,
+                block * slotCount / blocks, (block + 1) * slotCount / blocks, departures, trips, headsigns));
+        return new StopTimeColumns(starts, departures, trips, headsigns);
+    }
+
+    private static void sortSlots(int[] starts, int fromSlot, int toSlot, IntBuffer departures, IntBuffer trips,
+                                  IntBuffer headsigns) {
+        long[] order = new long[0];
+        int[] sortedTrips = new int[0];
+        int[] sortedHeadsigns = new int[0];
+        for (int slot = fromSlot; slot < toSlot; slot++) {
+            int start = starts[slot];
+            int size = starts[slot + 1] - start;
+            if (size > order.length) {
+                order = new long[size];
+                sortedTrips = new int[size];
+                sortedHeadsigns = new int[size];
+            }
+            // Sort (departure, position) pairs packed into longs, as StopTimeline.Builder does
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) departures.get(start + i) << 32) | i;
+            }
+            Arrays.sort(order, 0, size);
+            for (int i = 0; i < size; i++) {
+                int from = start + (int) order[i];
+                sortedTrips[i] = trips.get(from);
+                sortedHeadsigns[i] = headsigns.get(from);
+            }
+            for (int i = 0; i < size; i++) {
+                departures.put(start + i, (int) (order[i] >>> 32));
+                trips.put(start + i, sortedTrips[i]);
+                headsigns.put(start + i, sortedHeadsigns[i]);
+            }
+        }
+    }
+
+    private static IntBuffer allocate(int ints) {
+        return ByteBuffer.allocateDirect(ints * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Collects stop times in any order in direct memory, growing it by doubling
+     */
+    static final class Builder {
+
+        private IntBuffer rows = allocate(1024 * ROW_INTS);
+        private int size;
+
+        void add(int slot, int departure, int trip, int headsign) {
+            if ((size + 1) * ROW_INTS > rows.capacity()) {
+                IntBuffer grown = allocate(rows.capacity() * 2);
+                grown.put(0, rows, 0, size * ROW_INTS);
+                rows = grown;
+            }
+            int row = size * ROW_INTS;
+            rows.put(row, slot);
+            rows.put(row + 1, departure);
+            rows.put(row + 2, trip);
+            rows.put(row + 3, headsign);
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
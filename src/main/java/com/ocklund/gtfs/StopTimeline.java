@@ -0,0 +1,153 @@
+package com.ocklund.gtfs;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable, departure-ordered view of all scheduled stop times for one stop.
+ * Departures are stored as seconds since service-day midnight (which may exceed 24 hours)
+ * in a primitive column, with trip and headsign ids (see {@link IdTable}) in parallel columns at the same index.
+ * The columns are int arrays on the heap, or ranges of direct memory shared by many stops (see {@link StopTimeColumns}).
+ * A time window is located with a binary search, so lookups only touch the departures inside it.
+ */
+final class StopTimeline {
+
+    static final StopTimeline EMPTY = ofSorted(new int[0], new int[0], new int[0]);
+
+    private final IntBuffer departures;
+    private final IntBuffer trips;
+    private final IntBuffer headsigns;
+
+    private StopTimeline(IntBuffer departures, IntBuffer trips, IntBuffer headsigns) {
+        this.departures = departures;
+        this.trips = trips;
+        this.headsigns = headsigns;
+    }
+
+    /**
+     * Creates a timeline from arrays that are already sorted by departure, e.g. read from a snapshot
+     */
+    static StopTimeline ofSorted(int[] departures, int[] trips, int[] headsigns) {
+        return new StopTimeline(IntBuffer.wrap(departures), IntBuffer.wrap(trips), IntBuffer.wrap(headsigns));
+    }
+
+    /**
+     * Creates a timeline from columns of the same size that are already sorted by departure. Only absolute reads
+     * are made, so the buffers may be shared between threads.
+     */
+    static StopTimeline ofSorted(IntBuffer departures, IntBuffer trips, IntBuffer headsigns) {
+        return new StopTimeline(departures, trips, headsigns);
+    }
+
+    int size() {
+        return departures.limit();
+    }
+
+    /**
+     * @return true if the columns are in direct memory
+     */
+    boolean isDirect() {
+        return departures.isDirect();
+    }
+
+    /**
+     * @return Departure time at the given index, in seconds since service-day midnight
+     */
+    int departure(int index) {
+        return departures.get(index);
+    }
+
+    /**
+     * @return Trip id at the given index, as an id in the timetable's trip table
+     */
+    int trip(int index) {
+        return trips.get(index);
+    }
+
+    /**
+     * @return Headsign at the given index, as an id in the timetable's headsign table
+     */
+    int headsign(int index) {
+        return headsigns.get(index);
+    }
+
+    /**
+     * Finds the first departure at or after the given time
+     * @param seconds Seconds since service-day midnight
+     * @return Index of the first departure not before {@code seconds}, or {@link #size()} if there is none
+     */
+    int firstAtOrAfter(int seconds) {
+        int low = 0;
+        int high = departures.limit();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departures.get(mid) < seconds) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Collects stop times in any order and builds a sorted timeline from them
+     */
+    static final class Builder {
+
+        private int[] departures = new int[16];
+        private int[] trips = new int[16];
+        private int[] headsigns = new int[16];
+        private int size;
+
+        void add(int departure, int trip, int headsign) {
+            if (size == departures.length) {
+                departures = Arrays.copyOf(departures, size * 2);
+                trips = Arrays.copyOf(trips, size * 2);
+                headsigns = Arrays.copyOf(headsigns, size * 2);
+            }
+            departures[size] = departure;
+            trips[size] = trip;
+            headsigns[size] = headsign;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int departure(int index) {
+            return departures[index];
+        }
+
+        int trip(int index) {
+            return trips[index];
+        }
+
+        int headsign(int index) {
+            return headsigns[index];
+        }
+
+        /**
+         * @return A timeline sorted by departure, keeping the order of addition for departures in the same second
+         */
+        StopTimeline build() {
+            // Sort (departure, position) pairs packed into longs, which is stable and needs no boxing
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) departures[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int[] sortedDepartures = new int[size];
+            int[] sortedTrips = new int[size];
+            int[] sortedHeadsigns = new int[size];
+            for (int i = 0; i < size; i++) {
+                int from = (int) order[i];
+                sortedDepartures[i] = departures[from];
+                sortedTrips[i] = trips[from];
+                sortedHeadsigns[i] = headsigns[from];
+            }
+            return ofSorted(sortedDepartures, sortedTrips, sortedHeadsigns);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.ocklund.gtfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The loaded static timetable: interned stops, trips and headsigns, the departure timelines of the indexed stops,
+ * the service calendar, and the patterns of all trips when journeys are planned. Trips refer to services by their
+ * dense index in the calendar, so checking whether a departure runs on a date needs no hashing, and to their line
+ * by its id in {@link Lines}.
+ * <p>
+ * Instances are not modified once built and can be shared between threads.
+ */
+final class Timetable {
+
+    static final Timetable EMPTY = new Timetable(new IdTable(), new int[0], new IdTable(), new int[0], new int[0],
+            Lines.EMPTY, new IdTable(), Map.of(), ServiceCalendar.EMPTY, StopIndex.EMPTY, TransitNetwork.EMPTY);
+
+    private final IdTable stops;
+    private final int[] parentStops;
+    private final IdTable trips;
+    private final int[] tripServices;
+    private final int[] tripLines;
+    private final Lines lines;
+    private final IdTable headsigns;
+    private final Map<String, StopTimeline> timelines;
+    private final ServiceCalendar calendar;
+    private final StopIndex stopIndex;
+    private final TransitNetwork network;
+
+    /**
+     * @param stops All stops of the feed
+     * @param parentStops Parent station of each stop, or -1 for stops without one
+     * @param trips Trips that stop at an indexed stop
+     * @param tripServices Calendar service index of each trip, or -1 if the calendar does not know the service
+     * @param tripLines Line of each trip in {@code lines}, or -1 if its route is not known
+     * @param lines Lines of the trips
+     * @param headsigns Headsigns of the indexed stop times
+     * @param timelines Departures of each indexed stop, keyed by stop id
+     * @param calendar Services running on each date
+     * @param stopIndex Names and locations of the stops, by their ids in {@code stops}
+     * @param network Patterns of all trips for planning journeys, or {@link TransitNetwork#EMPTY} when not built
+     */
+    Timetable(IdTable stops, int[] parentStops, IdTable trips, int[] tripServices, int[] tripLines, Lines lines,
+              IdTable headsigns, Map<String, StopTimeline> timelines, ServiceCalendar calendar, StopIndex stopIndex,
+              TransitNetwork network) {
+        this.stops = stops;
+        this.parentStops = parentStops;
+        this.trips = trips;
+        this.tripServices = tripServices;
+        this.tripLines = tripLines;
+        this.lines = lines;
+        this.headsigns = headsigns;
+        this.timelines = timelines;
+        this.calendar = calendar;
+        this.stopIndex = stopIndex;
+        this.network = network;
+    }
+
+    IdTable stops() {
+        return stops;
+    }
+
+    int parentStop(int stop) {
+        return parentStops[stop];
+    }
+
+    IdTable trips() {
+        return trips;
+    }
+
+    int tripService(int trip) {
+        return tripServices[trip];
+    }
+
+    /**
+     * @return Line of the trip in {@link #lines()}, or -1 if it is not known
+     */
+    int tripLine(int trip) {
+        return trip < tripLines.length ? tripLines[trip] : -1;
+    }
+
+    Lines lines() {
+        return lines;
+    }
+
+    IdTable headsigns() {
+        return headsigns;
+    }
+
+    Map<String, StopTimeline> timelines() {
+        return timelines;
+    }
+
+    StopTimeline timeline(String stopId) {
+        return timelines.getOrDefault(stopId, StopTimeline.EMPTY);
+    }
+
+    ServiceCalendar calendar() {
+        return calendar;
+    }
+
+    StopIndex stopIndex() {
+        return stopIndex;
+    }
+
+    TransitNetwork network() {
+        return network;
+    }
+
+    /**
+     * @param trip Trip id in {@link #trips()}
+     * @param services Active services of a date, see {@link ServiceCalendar#activeOn}
+     * @return true if the trip runs on that date
+     */
+    boolean runs(int trip, BitSet services) {
+        int service = tripServices[trip];
+        return service >= 0 && services.get(service);
+    }
+
+    /**
+     * Replaces the timelines with ones built from the given stop times (used for testing).
+     * Trips that are new to the timetable have no service until {@link #withTrips} is called.
+     */
+    Timetable withStopTimes(Map<String, List<StopTime>> stopTimesMap) {
+        IdTable newTrips = trips.copy();
+        IdTable newHeadsigns = headsigns.copy();
+        Map<String, StopTimeline> newTimelines = new HashMap<>();
+        stopTimesMap.forEach((stopId, stopTimes) -> {
+            StopTimeline.Builder builder = new StopTimeline.Builder();
+            for (StopTime stopTime : stopTimes) {
+                try {
+                    String headsign = stopTime.stopHeadsign() != null ? stopTime.stopHeadsign() : "N/A";
+                    builder.add(ServiceTime.parse(stopTime.departureTime()),
+                            newTrips.intern(stopTime.tripId()), newHeadsigns.intern(headsign));
+                } catch (IllegalArgumentException e) {
+                    System.err.println("Error parsing time: " + stopTime.departureTime() + " - " + e.getMessage());
+                }
+            }
+            newTimelines.put(stopId, builder.build());
+        });
+        int[] newTripServices = Arrays.copyOf(tripServices, newTrips.size());
+        Arrays.fill(newTripServices, tripServices.length, newTripServices.length, -1);
+        return new Timetable(stops, parentStops, newTrips, newTripServices, tripLines, lines, newHeadsigns,
+                Map.copyOf(newTimelines), calendar, stopIndex, network);
+    }
+
+    /**
+     * Sets the services of the given trips, adding unknown services to the calendar as never running (used for testing)
+     */
+    Timetable withTrips(Map<String, Trip> tripsMap) {
+        IdTable newTrips = trips.copy();
+        tripsMap.keySet().forEach(newTrips::intern);
+        List<String> unknownServices = new ArrayList<>();
+        for (Trip trip : tripsMap.values()) {
+            if (calendar.serviceIndex(trip.serviceId()) < 0 && !unknownServices.contains(trip.serviceId())) {
+                unknownServices.add(trip.serviceId());
+            }
+        }
+        ServiceCalendar newCalendar = calendar.withServices(unknownServices);
+        int[] newTripServices = Arrays.copyOf(tripServices, newTrips.size());
+        Arrays.fill(newTripServices, tripServices.length, newTripServices.length, -1);
+        tripsMap.forEach((tripId, trip) ->
+                newTripServices[newTrips.find(tripId)] = newCalendar.serviceIndex(trip.serviceId()));
+        return new Timetable(stops, parentStops, newTrips, newTripServices, tripLines, lines, headsigns, timelines,
+                newCalendar, stopIndex, network);
+    }
+
+    /**
+     * Replaces the calendar, mapping the services of the trips to it by service id (used for testing)
+     */
+    Timetable withCalendar(ServiceCalendar newCalendar) {
+        List<String> tripServiceIds = new ArrayList<>();
+        for (int service : tripServices) {
+            if (service >= 0) {
+                tripServiceIds.add(calendar.serviceId(service));
+            }
+        }
+        ServiceCalendar extended = newCalendar.withServices(tripServiceIds);
+        int[] newTripServices = new int[tripServices.length];
+        for (int trip = 0; trip < tripServices.length; trip++) {
+            int service = tripServices[trip];
+            newTripServices[trip] = service >= 0 ? extended.serviceIndex(calendar.serviceId(service)) : -1;
+        }
+        return new Timetable(stops, parentStops, trips, newTripServices, tripLines, lines, headsigns, timelines,
+                extended, stopIndex, network);
+    }
+
+    /**
+     * Replaces the calendar with one where the given services run every day (used for testing)
+     */
+    Timetable withActiveServices(Set<String> serviceIds) {
+        return withCalendar(ServiceCalendar.alwaysActive(serviceIds));
+    }
+}
@@ -0,0 +1,627 @@
+package com.ocklund.gtfs;
+
+import com.ocklund.gtfs.configuration.GtfsFeedSource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Parses the files of a GTFS feed into a {@link Timetable} with timelines for the given stops.
+ * <p>
+ * Ids are interned while parsing (see {@link IdTable}), so a stop time that is not for an indexed stop is skipped
+ * without creating any objects. Large files are parsed in chunks on all cores, each chunk with its own tables,
+ * and the chunks are merged in file order. The time, size and row counts of each file are kept for metrics.
+ * <p>
+ * The timelines are kept on the heap, or off the heap in {@link StopTimeColumns}, where indexing every stop of a
+ * large feed does not grow the heap.
+ */
+final class TimetableLoader {
+
+    // Large files are parsed in chunks of at least this size, one chunk per core
+    private static final int MIN_CHUNK_BYTES = 1024 * 1024;
+
+    private final GtfsFeedSource feedSource;
+    private final List<String> stopIds;
+    private final boolean allStops;
+    private final boolean routing;
+    private final boolean offHeap;
+    // Number of files that could not be parsed
+    private final AtomicInteger failures = new AtomicInteger();
+    // Files are read on several threads
+    private final Queue<FileStats> fileStats = new ConcurrentLinkedQueue<>();
+
+    /**
+     * How long reading a file took and what it held
+     * @param skippedRows Valid rows that were not needed, e.g. stop times of stops without a timeline
+     * @param malformedRows Rows with a value that could not be parsed
+     */
+    record FileStats(String file, long nanos, long rows, long bytes, long skippedRows, long malformedRows) {
+    }
+
+    /**
+     * Counts the rows of one file, which may be read in chunks on several threads. Chunks count in local
+     * variables and add their counts when done.
+     */
+    private static final class FileCounter {
+        private final String file;
+        private final long start = System.nanoTime();
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong malformed = new AtomicLong();
+        private final AtomicReference<String> firstError = new AtomicReference<>();
+        private volatile boolean read;
+
+        private FileCounter(String file) {
+            this.file = file;
+        }
+
+        /**
+         * Adds the rows and bytes read by a reader or one of its chunks
+         */
+        void read(GtfsCsvReader reader, long skippedRows) {
+            rows.addAndGet(reader.rowCount());
+            bytes.addAndGet(reader.bytesConsumed());
+            skipped.addAndGet(skippedRows);
+            read = true;
+        }
+
+        void malformed(String error) {
+            malformed.incrementAndGet();
+            firstError.compareAndSet(null, error);
+        }
+    }
+
+    /**
+     * @param feedSource Feed to read the files from
+     * @param stopIds Stops to build timelines for. Stop times of their child stops are included.
+     */
+    TimetableLoader(GtfsFeedSource feedSource, Collection<String> stopIds) {
+        this(feedSource, stopIds, false);
+    }
+
+    /**
+     * @param allStops true to build timelines for every stop of the feed, and not only the given ones
+     */
+    TimetableLoader(GtfsFeedSource feedSource, Collection<String> stopIds, boolean allStops) {
+        this(feedSource, stopIds, allStops, false);
+    }
+
+    /**
+     * @param routing true to keep the stop times of all trips, for planning journeys
+     */
+    TimetableLoader(GtfsFeedSource feedSource, Collection<String> stopIds, boolean allStops, boolean routing) {
+        this(feedSource, stopIds, allStops, routing, false);
+    }
+
+    /**
+     * @param offHeap true to keep the stop times of the timelines in direct memory, see {@link StopTimeColumns}
+     */
+    TimetableLoader(GtfsFeedSource feedSource, Collection<String> stopIds, boolean allStops, boolean routing,
+                    boolean offHeap) {
+        this.feedSource = feedSource;
+        this.stopIds = List.copyOf(stopIds);
+        this.allStops = allStops;
+        this.routing = routing;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return Number of files that could not be parsed. A file missing from the feed is not counted,
+     * since loading the same feed again would give the same result.
+     */
+    int failures() {
+        return failures.get();
+    }
+
+    /**
+     * @return Statistics of the files read by {@link #load()}, in the order they were done. Files that are
+     * missing or could not be parsed are left out.
+     */
+    List<FileStats> fileStats() {
+        return List.copyOf(fileStats);
+    }
+
+    /**
+     * Keeps the statistics of a file and reports its malformed rows, once for the whole file
+     */
+    private void finish(FileCounter counter) {
+        long malformed = counter.malformed.get();
+        if (malformed > 0) {
+            System.err.println("Skipped " + malformed + " malformed rows of " + counter.file + ", the first: "
+                    + counter.firstError.get());
+        }
+        if (!counter.read) {
+            return;
+        }
+        fileStats.add(new FileStats(counter.file, System.nanoTime() - counter.start, counter.rows.get(),
+                counter.bytes.get(), counter.skipped.get(), malformed));
+    }
+
+    Timetable load() {
+        // The calendar and the routes are independent of the other files and load alongside them.
+        // Stop times are filtered on the indexed stops (and need the stops for that), and trips on
+        // the stop times that were kept, so that memory use does not grow with the size of the feed.
+        // Only planning journeys needs the stop times of all trips.
+        CompletableFuture<ServiceCalendar> calendar = CompletableFuture.supplyAsync(this::loadCalendar);
+        CompletableFuture<LoadedRoutes> routes = CompletableFuture.supplyAsync(this::loadRoutes);
+        IdTable stops = new IdTable(32 * 1024);
+        // The indexed stops are interned first, so their ids are 0 to stopIds.size() - 1
+        stopIds.forEach(stops::intern);
+        LoadedStops loadedStops = loadStops(stops);
+        int[] parentStops = loadedStops.parents();
+        // Stop id s has the timeline in slot s, for the indexed stops or for all stops
+        int slotCount = allStops ? stops.size() : stopIds.size();
+        int[] parentSlots = parentSlots(parentStops, slotCount);
+
+        IdTable trips = new IdTable();
+        IdTable headsigns = new IdTable();
+        TransitNetwork.Builder network = routing ? new TransitNetwork.Builder() : null;
+        StopTimeline[] slotTimelines = loadStopTimes(stops, parentSlots, slotCount, trips, headsigns, network);
+        TripColumns tripColumns = loadTrips(trips);
+
+        Map<String, StopTimeline> timelines = new HashMap<>();
+        for (int slot = 0; slot < slotTimelines.length; slot++) {
+            if (slotTimelines[slot].size() > 0) {
+                timelines.put(stops.get(slot), slotTimelines[slot]);
+            }
+        }
+        ServiceCalendar serviceCalendar = calendar.join();
+        LoadedRoutes loadedRoutes = routes.join();
+        // Trips are joined to their services and lines here, so departures need no lookups by id
+        int[] tripServices = new int[trips.size()];
+        int[] tripLines = new int[trips.size()];
+        for (int trip = 0; trip < tripServices.length; trip++) {
+            String serviceId = tripColumns.serviceIds()[trip];
+            tripServices[trip] = serviceId != null ? serviceCalendar.serviceIndex(serviceId) : -1;
+            String routeId = tripColumns.routeIds()[trip];
+            int route = routeId != null ? loadedRoutes.routeIds().find(routeId) : -1;
+            tripLines[trip] = route >= 0 ? loadedRoutes.routeLines()[route] : -1;
+        }
+        return new Timetable(stops, parentStops, trips, tripServices, tripLines, loadedRoutes.lines(), headsigns,
+                Map.copyOf(timelines), serviceCalendar, loadedStops.index(),
+                network != null ? network.build(trips.size(), loadedStops.index()) : TransitNetwork.EMPTY);
+    }
+
+    /**
+     * Parent stations of all stops, and their names and locations
+     */
+    private record LoadedStops(int[] parents, StopIndex index) {
+    }
+
+    /**
+     * Interns all stops of stops.txt and reads their parent stations, names, location types and coordinates
+     */
+    private LoadedStops loadStops(IdTable stops) {
+        int[] parents = new int[1024];
+        int[] latitudes = new int[1024];
+        int[] longitudes = new int[1024];
+        int[] stopNames = new int[1024];
+        byte[] locationTypes = new byte[1024];
+        fill(parents, latitudes, longitudes, stopNames, 0);
+        IdTable names = new IdTable(16 * 1024);
+        FileCounter counter = new FileCounter("stops.txt");
+        try (GtfsCsvReader reader = openCsv("stops.txt")) {
+            int stopIdColumn = reader.requiredColumn("stop_id");
+            int parentStationColumn = reader.requiredColumn("parent_station");
+            int nameColumn = reader.column("stop_name");
+            int latitudeColumn = reader.column("stop_lat");
+            int longitudeColumn = reader.column("stop_lon");
+            int locationTypeColumn = reader.column("location_type");
+            while (reader.next()) {
+                int stop = stops.intern(reader, stopIdColumn);
+                // Store parent-child relationships
+                int parent = reader.isEmpty(parentStationColumn) ? -1 : stops.intern(reader, parentStationColumn);
+                if (stops.size() > parents.length) {
+                    int oldLength = parents.length;
+                    int newLength = Math.max(oldLength * 2, stops.size());
+                    parents = Arrays.copyOf(parents, newLength);
+                    latitudes = Arrays.copyOf(latitudes, newLength);
+                    longitudes = Arrays.copyOf(longitudes, newLength);
+                    stopNames = Arrays.copyOf(stopNames, newLength);
+                    locationTypes = Arrays.copyOf(locationTypes, newLength);
+                    fill(parents, latitudes, longitudes, stopNames, oldLength);
+                }
+                if (parent >= 0) {
+                    parents[stop] = parent;
+                }
+                if (!reader.isEmpty(locationTypeColumn)) {
+                    try {
+                        locationTypes[stop] = (byte) reader.getInt(locationTypeColumn);
+                    } catch (IllegalArgumentException e) {
+                        counter.malformed("location type of stop " + reader.getString(stopIdColumn) + " - " + e.getMessage());
+                    }
+                }
+                if (!reader.isEmpty(nameColumn)) {
+                    stopNames[stop] = names.intern(reader, nameColumn);
+                }
+                // Generic nodes and boarding areas may have no location
+                if (!reader.isEmpty(latitudeColumn) && !reader.isEmpty(longitudeColumn)) {
+                    try {
+                        latitudes[stop] = reader.getFixedPoint(latitudeColumn, 6);
+                        longitudes[stop] = reader.getFixedPoint(longitudeColumn, 6);
+                    } catch (IllegalArgumentException e) {
+                        counter.malformed("location of stop " + reader.getString(stopIdColumn) + " - " + e.getMessage());
+                        latitudes[stop] = StopIndex.NO_COORDINATE;
+                        longitudes[stop] = StopIndex.NO_COORDINATE;
+                    }
+                }
+            }
+            counter.read(reader, 0);
+        } catch (Exception e) {
+            loadFailed("Failed to load stops: ", e);
+        }
+        finish(counter);
+        int count = stops.size();
+        StopIndex index = new StopIndex(Arrays.copyOf(latitudes, count), Arrays.copyOf(longitudes, count), names,
+                Arrays.copyOf(stopNames, count), Arrays.copyOf(locationTypes, count));
+        return new LoadedStops(Arrays.copyOf(parents, count), index);
+    }
+
+    private static void fill(int[] parents, int[] latitudes, int[] longitudes, int[] stopNames, int from) {
+        Arrays.fill(parents, from, parents.length, -1);
+        Arrays.fill(latitudes, from, latitudes.length, StopIndex.NO_COORDINATE);
+        Arrays.fill(longitudes, from, longitudes.length, StopIndex.NO_COORDINATE);
+        Arrays.fill(stopNames, from, stopNames.length, -1);
+    }
+
+    /**
+     * @param slotCount Number of timelines, which are for the stops with ids below it
+     * @return For each stop, the timeline of its parent station if that has one, otherwise -1.
+     * A stop time belongs to the timeline of its stop (when the stop id is below slotCount)
+     * and to the timeline of the parent station, so boards can show both a platform and its station.
+     */
+    private static int[] parentSlots(int[] parentStops, int slotCount) {
+        int[] slots = new int[parentStops.length];
+        for (int stop = 0; stop < slots.length; stop++) {
+            int parent = parentStops[stop];
+            slots[stop] = parent >= 0 && parent < slotCount ? parent : -1;
+        }
+        return slots;
+    }
+
+    /**
+     * Stop times of one chunk of stop_times.txt, with trips and headsigns interned in tables of the chunk
+     * @param builders Stop times of each timeline on the heap, or none when they are kept in {@code columns}
+     * @param columns Stop times of the timelines off the heap, or null
+     * @param network Stop times of all trips, or null when journeys are not planned
+     */
+    private record StopTimesChunk(IdTable trips, IdTable headsigns, StopTimeline.Builder[] builders,
+                                  StopTimeColumns.Builder columns, TransitNetwork.Builder network) {
+    }
+
+    /**
+     * @param network Builder for the stop times of all trips, or null to keep only those of the indexed stops
+     * @return The timeline of each slot
+     */
+    private StopTimeline[] loadStopTimes(IdTable stops, int[] parentSlots, int slotCount, IdTable trips,
+                                         IdTable headsigns, TransitNetwork.Builder network) {
+        StopTimeline.Builder[] builders = new StopTimeline.Builder[offHeap ? 0 : slotCount];
+        Arrays.setAll(builders, i -> new StopTimeline.Builder());
+        List<StopTimeColumns.Builder> columns = new ArrayList<>();
+        List<int[]> columnTrips = new ArrayList<>();
+        List<int[]> columnHeadsigns = new ArrayList<>();
+        FileCounter counter = new FileCounter("stop_times.txt");
+        try (GtfsCsvReader reader = openCsv("stop_times.txt")) {
+            List<StopTimesChunk> chunks = splitForParallelParsing(reader).parallelStream()
+                    .map(chunk -> readStopTimes(chunk, stops, parentSlots, slotCount, network != null, counter))
+                    .toList();
+            // Append the chunks in file order, mapping their ids to the shared tables
+            for (StopTimesChunk chunk : chunks) {
+                int[] tripIds = intern(chunk.trips(), trips);
+                int[] headsignIds = intern(chunk.headsigns(), headsigns);
+                if (chunk.columns() != null) {
+                    columns.add(chunk.columns());
+                    columnTrips.add(tripIds);
+                    columnHeadsigns.add(headsignIds);
+                }
+                for (int slot = 0; slot < builders.length; slot++) {
+                    StopTimeline.Builder from = chunk.builders()[slot];
+                    for (int i = 0; i < from.size(); i++) {
+                        builders[slot].add(from.departure(i), tripIds[from.trip(i)], headsignIds[from.headsign(i)]);
+                    }
+                }
+                TransitNetwork.Builder from = chunk.network();
+                for (int i = 0; network != null && i < from.size(); i++) {
+                    network.add(tripIds[from.trip(i)], from.sequence(i), from.stop(i), from.arrival(i), from.departure(i));
+                }
+            }
+        } catch (Exception e) {
+            loadFailed("Failed to load stop times: ", e);
+        }
+        finish(counter);
+        StopTimeline[] timelines = new StopTimeline[slotCount];
+        if (offHeap) {
+            StopTimeColumns stopTimes = StopTimeColumns.of(columns, columnTrips, columnHeadsigns, slotCount);
+            Arrays.setAll(timelines, stopTimes::timeline);
+        } else {
+            Arrays.setAll(timelines, slot -> builders[slot].build());
+        }
+        return timelines;
+    }
+
+    private StopTimesChunk readStopTimes(GtfsCsvReader reader, IdTable stops, int[] parentSlots, int slotCount,
+                                         boolean allTrips, FileCounter counter) {
+        IdTable trips = new IdTable();
+        IdTable headsigns = new IdTable();
+        StopTimeline.Builder[] builders = new StopTimeline.Builder[offHeap ? 0 : slotCount];
+        Arrays.setAll(builders, i -> new StopTimeline.Builder());
+        StopTimeColumns.Builder columns = offHeap ? new StopTimeColumns.Builder() : null;
+        TransitNetwork.Builder network = allTrips ? new TransitNetwork.Builder() : null;
+        int tripIdColumn = reader.requiredColumn("trip_id");
+        int departureTimeColumn = reader.requiredColumn("departure_time");
+        int stopIdColumn = reader.requiredColumn("stop_id");
+        int stopHeadsignColumn = reader.column("stop_headsign");
+        int arrivalTimeColumn = reader.column("arrival_time");
+        int stopSequenceColumn = allTrips ? reader.requiredColumn("stop_sequence") : -1;
+        long skipped = 0;
+        try {
+            while (reader.next()) {
+                // Stop times of other stops are skipped without decoding any field
+                int stop = stops.find(reader, stopIdColumn);
+                int ownSlot = stop >= 0 && stop < slotCount ? stop : -1;
+                int parentSlot = stop >= 0 ? parentSlots[stop] : -1;
+                if (ownSlot < 0 && parentSlot < 0 && (network == null || stop < 0)) {
+                    skipped++;
+                    continue;
+                }
+                int departure;
+                try {
+                    departure = reader.getServiceTime(departureTimeColumn);
+                } catch (IllegalArgumentException e) {
+                    counter.malformed("time " + reader.getString(departureTimeColumn) + " - " + e.getMessage());
+                    continue;
+                }
+                int trip = trips.intern(reader, tripIdColumn);
+                if (network != null) {
+                    try {
+                        int arrival = reader.isEmpty(arrivalTimeColumn) ? departure : reader.getServiceTime(arrivalTimeColumn);
+                        network.add(trip, reader.getInt(stopSequenceColumn), stop, arrival, departure);
+                    } catch (IllegalArgumentException e) {
+                        counter.malformed("arrival or sequence of trip " + reader.getString(tripIdColumn) + " - " + e.getMessage());
+                    }
+                }
+                if (ownSlot < 0 && parentSlot < 0) {
+                    continue;
+                }
+                int headsign = headsigns.intern(reader, stopHeadsignColumn);
+                if (ownSlot >= 0) {
+                    add(builders, columns, ownSlot, departure, trip, headsign);
+                }
+                if (parentSlot >= 0) {
+                    add(builders, columns, parentSlot, departure, trip, headsign);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        counter.read(reader, skipped);
+        return new StopTimesChunk(trips, headsigns, builders, columns, network);
+    }
+
+    private static void add(StopTimeline.Builder[] builders, StopTimeColumns.Builder columns, int slot, int departure,
+                            int trip, int headsign) {
+        if (columns != null) {
+            columns.add(slot, departure, trip, headsign);
+        } else {
+            builders[slot].add(departure, trip, headsign);
+        }
+    }
+
+    /**
+     * Interns the values of one table in another
+     * @return The id in {@code to} of each id in {@code from}
+     */
+    private static int[] intern(IdTable from, IdTable to) {
+        int[] ids = new int[from.size()];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = to.intern(from.get(id));
+        }
+        return ids;
+    }
+
+    /**
+     * Service and route of each trip, or null for trips that are not in trips.txt
+     */
+    private record TripColumns(String[] serviceIds, String[] routeIds) {
+    }
+
+    /**
+     * Reads the services and routes of the given trips from trips.txt
+     */
+    private TripColumns loadTrips(IdTable trips) {
+        String[] serviceIds = new String[trips.size()];
+        String[] routeIds = new String[trips.size()];
+        FileCounter counter = new FileCounter("trips.txt");
+        try (GtfsCsvReader reader = openCsv("trips.txt")) {
+            // The trip table is only read while parsing, so all chunks can share it
+            List<TripColumns> chunks = splitForParallelParsing(reader).parallelStream()
+                    .map(chunk -> readTrips(chunk, trips, counter))
+                    .toList();
+            for (TripColumns chunk : chunks) {
+                for (int trip = 0; trip < serviceIds.length; trip++) {
+                    if (chunk.serviceIds()[trip] != null) {
+                        serviceIds[trip] = chunk.serviceIds()[trip];
+                        routeIds[trip] = chunk.routeIds()[trip];
+                    }
+                }
+            }
+        } catch (Exception e) {
+            loadFailed("Failed to load trips: ", e);
+        }
+        finish(counter);
+        return new TripColumns(serviceIds, routeIds);
+    }
+
+    private static TripColumns readTrips(GtfsCsvReader reader, IdTable trips, FileCounter counter) {
+        String[] serviceIds = new String[trips.size()];
+        String[] routeIds = new String[trips.size()];
+        // Service and route ids repeat for many trips, so each is decoded once per chunk
+        IdTable services = new IdTable();
+        IdTable routes = new IdTable();
+        int tripIdColumn = reader.requiredColumn("trip_id");
+        int serviceIdColumn = reader.requiredColumn("service_id");
+        int routeIdColumn = reader.column("route_id");
+        long skipped = 0;
+        try {
+            while (reader.next()) {
+                int trip = trips.find(reader, tripIdColumn);
+                if (trip < 0) {
+                    skipped++;
+                } else {
+                    serviceIds[trip] = services.get(services.intern(reader, serviceIdColumn));
+                    if (!reader.isEmpty(routeIdColumn)) {
+                        routeIds[trip] = routes.get(routes.intern(reader, routeIdColumn));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        counter.read(reader, skipped);
+        return new TripColumns(serviceIds, routeIds);
+    }
+
+    /**
+     * Routes of routes.txt and the line of each route
+     */
+    private record LoadedRoutes(IdTable routeIds, int[] routeLines, Lines lines) {
+    }
+
+    /**
+     * Reads the line names and modes of all routes from routes.txt, which is small
+     */
+    private LoadedRoutes loadRoutes() {
+        IdTable routeIds = new IdTable();
+        int[] routeLines = new int[1024];
+        Lines.Builder lines = new Lines.Builder();
+        FileCounter counter = new FileCounter("routes.txt");
+        try (GtfsCsvReader reader = openCsv("routes.txt")) {
+            int routeIdColumn = reader.requiredColumn("route_id");
+            int routeTypeColumn = reader.requiredColumn("route_type");
+            int shortNameColumn = reader.column("route_short_name");
+            int longNameColumn = reader.column("route_long_name");
+            int descriptionColumn = reader.column("route_desc");
+            while (reader.next()) {
+                TransportMode mode;
+                try {
+                    mode = TransportMode.of(reader.getInt(routeTypeColumn));
+                } catch (IllegalArgumentException e) {
+                    counter.malformed("route type of route " + reader.getString(routeIdColumn) + " - " + e.getMessage());
+                    mode = TransportMode.OTHER;
+                }
+                int route = routeIds.intern(reader, routeIdColumn);
+                if (route >= routeLines.length) {
+                    routeLines = Arrays.copyOf(routeLines, routeLines.length * 2);
+                }
+                routeLines[route] = lines.add(Lines.name(reader.getString(shortNameColumn),
+                        reader.getString(longNameColumn), reader.getString(descriptionColumn), mode), mode);
+            }
+            counter.read(reader, 0);
+        } catch (Exception e) {
+            loadFailed("Failed to load routes: ", e);
+        }
+        finish(counter);
+        return new LoadedRoutes(routeIds, Arrays.copyOf(routeLines, routeIds.size()), lines.build());
+    }
+
+    /**
+     * Loads calendar.txt and calendar_dates.txt, which are read at the same time
+     */
+    private ServiceCalendar loadCalendar() {
+        CompletableFuture<List<ServiceCalendar.Period>> periods = CompletableFuture.supplyAsync(this::readCalendarPeriods);
+        List<ServiceCalendar.ExceptionDate> exceptions = readCalendarExceptions();
+        return ServiceCalendar.of(periods.join(), exceptions);
+    }
+
+    /**
+     * Reads the service date ranges from calendar.txt
+     */
+    private List<ServiceCalendar.Period> readCalendarPeriods() {
+        List<ServiceCalendar.Period> periods = new ArrayList<>();
+        FileCounter counter = new FileCounter("calendar.txt");
+        try (GtfsCsvReader reader = openCsv("calendar.txt")) {
+            int serviceIdColumn = reader.requiredColumn("service_id");
+            int[] weekdayColumns = new int[DayOfWeek.values().length];
+            for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+                weekdayColumns[dayOfWeek.ordinal()] = reader.requiredColumn(dayOfWeek.name().toLowerCase(Locale.ROOT));
+            }
+            int startDateColumn = reader.requiredColumn("start_date");
+            int endDateColumn = reader.requiredColumn("end_date");
+            while (reader.next()) {
+                try {
+                    int weekdays = 0;
+                    for (DayOfWeek dayOfWeek : DayOfWeek.values()) {
+                        if (reader.getInt(weekdayColumns[dayOfWeek.ordinal()]) == 1) {
+                            weekdays |= ServiceCalendar.Period.weekdayBit(dayOfWeek);
+                        }
+                    }
+                    periods.add(new ServiceCalendar.Period(reader.getString(serviceIdColumn), weekdays,
+                            reader.getInt(startDateColumn), reader.getInt(endDateColumn)));
+                } catch (IllegalArgumentException | DateTimeException e) {
+                    counter.malformed("period of service " + reader.getString(serviceIdColumn) + " - " + e.getMessage());
+                }
+            }
+            counter.read(reader, 0);
+        } catch (Exception e) {
+            loadFailed("Failed to load calendar data: ", e);
+        }
+        finish(counter);
+        return periods;
+    }
+
+    /**
+     * Reads the added and removed service dates from calendar_dates.txt, in file order
+     */
+    private List<ServiceCalendar.ExceptionDate> readCalendarExceptions() {
+        List<ServiceCalendar.ExceptionDate> exceptions = new ArrayList<>();
+        FileCounter counter = new FileCounter("calendar_dates.txt");
+        try (GtfsCsvReader reader = openCsv("calendar_dates.txt")) {
+            int serviceIdColumn = reader.requiredColumn("service_id");
+            int dateColumn = reader.requiredColumn("date");
+            int exceptionTypeColumn = reader.requiredColumn("exception_type");
+            while (reader.next()) {
+                try {
+                    exceptions.add(new ServiceCalendar.ExceptionDate(reader.getString(serviceIdColumn),
+                            reader.getInt(dateColumn), reader.getInt(exceptionTypeColumn)));
+                } catch (IllegalArgumentException | DateTimeException e) {
+                    counter.malformed("date of service " + reader.getString(serviceIdColumn) + " - " + e.getMessage());
+                }
+            }
+            counter.read(reader, 0);
+        } catch (Exception e) {
+            loadFailed("Failed to load calendar dates data: ", e);
+        }
+        finish(counter);
+        return exceptions;
+    }
+
+    private void loadFailed(String message, Exception e) {
+        System.err.println(message + e.getMessage());
+        if (!(e instanceof FileNotFoundException)) {
+            failures.incrementAndGet();
+        }
+    }
+
+    private static List<GtfsCsvReader> splitForParallelParsing(GtfsCsvReader reader) {
+        return reader.split(Runtime.getRuntime().availableProcessors(), MIN_CHUNK_BYTES);
+    }
+
+    private GtfsCsvReader openCsv(String fileName) throws IOException {
+        Optional<Path> localFile = feedSource.localFile(fileName);
+        if (localFile.isPresent()) {
+            return GtfsCsvReader.open(localFile.get());
+        }
+        return GtfsCsvReader.open(feedSource.open(fileName));
+    }
+}
@@ -0,0 +1,342 @@
+package com.ocklund.gtfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a parsed timetable, so that later startups can skip parsing the CSV files.
+ * <p>
+ * A snapshot file is named after a key computed from the feed checksum, the indexed stops and the format
+ * version, so a changed feed simply has no matching snapshot. The id tables of the timetable are stored as
+ * string lists, and everything else as the int arrays referring to them, so the file is memory-mapped and
+ * read back into the same arrays without any lookups. Timelines may instead be left in the mapped file, as views of
+ * it outside the heap.
+ * <p>
+ * Layout (big-endian): magic, version, key, stops with parents, stop names, location types and coordinates, lines with
+ * modes, trips with services and lines, headsigns, timelines, service calendar bit sets per date, and the route
+ * patterns of the transit network with their stops, trips and times (no patterns when journeys are not planned).
+ */
+final class TimetableSnapshot {
+
+    private static final int MAGIC = 0x47544653; // "GTFS"
+    private static final int VERSION = 7;
+    private static final String FILE_PREFIX = "timetable-";
+    private static final String FILE_SUFFIX = ".bin";
+
+    /**
+     * Computes the snapshot key for a feed and the stops indexed from it
+     * @param feedFingerprint Checksum of the feed files, see {@link com.ocklund.gtfs.configuration.GtfsFeedSource#fingerprint}
+     * @param stopIds Stops that timelines are built for
+     * @param allStops true if timelines are built for all stops
+     * @param routing true if the transit network is built for planning journeys
+     * @return The key
+     */
+    static long key(long feedFingerprint, Collection<String> stopIds, boolean allStops, boolean routing) {
+        CRC32 crc = new CRC32();
+        crc.update(VERSION);
+        crc.update(allStops ? 1 : 0);
+        crc.update(routing ? 1 : 0);
+        crc.update(Long.toString(feedFingerprint).getBytes(StandardCharsets.US_ASCII));
+        for (String stopId : stopIds) {
+            crc.update(stopId.getBytes(StandardCharsets.UTF_8));
+            crc.update(',');
+        }
+        return crc.getValue();
+    }
+
+    private TimetableSnapshot() {
+    }
+
+    static Path file(Path directory, long key) {
+        return directory.resolve(FILE_PREFIX + Long.toHexString(key) + FILE_SUFFIX);
+    }
+
+    /**
+     * Writes the snapshot for the given key, replacing snapshots for other keys in the same directory.
+     * The file is written under a temporary name and moved into place, so readers never see a partial file.
+     */
+    static void write(Timetable timetable, Path directory, long key) throws IOException {
+        Files.createDirectories(directory);
+        Path target = file(directory, key);
+        Path temporary = Files.createTempFile(directory, FILE_PREFIX, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                writeTo(timetable, out, key);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path path : stale) {
+                if (!path.equals(target)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static void writeTo(Timetable timetable, DataOutputStream out, long key) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(key);
+
+        IdTable stops = timetable.stops();
+        writeStrings(out, stops);
+        for (int stop = 0; stop < stops.size(); stop++) {
+            out.writeInt(timetable.parentStop(stop));
+        }
+        StopIndex stopIndex = timetable.stopIndex();
+        writeStrings(out, stopIndex.names());
+        for (int stop = 0; stop < stops.size(); stop++) {
+            out.writeInt(stopIndex.nameId(stop));
+        }
+        for (int stop = 0; stop < stops.size(); stop++) {
+            out.writeByte(stopIndex.locationType(stop));
+        }
+        for (int stop = 0; stop < stops.size(); stop++) {
+            out.writeInt(stop < stopIndex.size() ? stopIndex.latitudeMicrodegrees(stop) : StopIndex.NO_COORDINATE);
+        }
+        for (int stop = 0; stop < stops.size(); stop++) {
+            out.writeInt(stop < stopIndex.size() ? stopIndex.longitudeMicrodegrees(stop) : StopIndex.NO_COORDINATE);
+        }
+        Lines lines = timetable.lines();
+        writeStrings(out, lines.names());
+        for (int line = 0; line < lines.size(); line++) {
+            out.writeByte(lines.mode(line).ordinal());
+        }
+        IdTable trips = timetable.trips();
+        writeStrings(out, trips);
+        for (int trip = 0; trip < trips.size(); trip++) {
+            out.writeInt(timetable.tripService(trip));
+        }
+        for (int trip = 0; trip < trips.size(); trip++) {
+            out.writeInt(timetable.tripLine(trip));
+        }
+        writeStrings(out, timetable.headsigns());
+
+        out.writeInt(timetable.timelines().size());
+        for (Map.Entry<String, StopTimeline> entry : timetable.timelines().entrySet()) {
+            StopTimeline timeline = entry.getValue();
+            writeString(out, entry.getKey());
+            out.writeInt(timeline.size());
+            for (int i = 0; i < timeline.size(); i++) {
+                out.writeInt(timeline.departure(i));
+            }
+            for (int i = 0; i < timeline.size(); i++) {
+                out.writeInt(timeline.trip(i));
+            }
+            for (int i = 0; i < timeline.size(); i++) {
+                out.writeInt(timeline.headsign(i));
+            }
+        }
+
+        ServiceCalendar calendar = timetable.calendar();
+        out.writeInt(calendar.serviceCount());
+        for (int i = 0; i < calendar.serviceCount(); i++) {
+            writeString(out, calendar.serviceId(i));
+        }
+        out.writeLong(calendar.firstEpochDay());
+        out.writeInt(calendar.dayCount());
+        for (int day = 0; day < calendar.dayCount(); day++) {
+            long[] words = calendar.activeOn(LocalDate.ofEpochDay(calendar.firstEpochDay() + day)).toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+
+        // Stored in the layout of the network, so it is read back into the same arrays
+        TransitNetwork network = timetable.network();
+        out.writeInt(network.patternCount());
+        for (int pattern = 0; pattern < network.patternCount(); pattern++) {
+            out.writeInt(network.size(pattern));
+            out.writeInt(network.tripCount(pattern));
+        }
+        for (int pattern = 0; pattern < network.patternCount(); pattern++) {
+            for (int position = 0; position < network.size(pattern); position++) {
+                out.writeInt(network.stop(pattern, position));
+            }
+        }
+        for (int pattern = 0; pattern < network.patternCount(); pattern++) {
+            for (int index = 0; index < network.tripCount(pattern); index++) {
+                out.writeInt(network.trip(pattern, index));
+            }
+        }
+        for (int pattern = 0; pattern < network.patternCount(); pattern++) {
+            for (int position = 0; position < network.size(pattern); position++) {
+                for (int index = 0; index < network.tripCount(pattern); index++) {
+                    out.writeInt(network.arrival(pattern, index, position));
+                }
+            }
+        }
+        for (int pattern = 0; pattern < network.patternCount(); pattern++) {
+            for (int position = 0; position < network.size(pattern); position++) {
+                for (int index = 0; index < network.tripCount(pattern); index++) {
+                    out.writeInt(network.departure(pattern, index, position));
+                }
+            }
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, IdTable table) throws IOException {
+        out.writeInt(table.size());
+        for (int id = 0; id < table.size(); id++) {
+            writeString(out, table.get(id));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the snapshot for the given key, with the timelines on the heap
+     * @return The timetable, or null if there is no snapshot for the key
+     * @throws IOException if the file exists but cannot be read or is not a valid snapshot
+     */
+    static Timetable read(Path directory, long key) throws IOException {
+        return read(directory, key, false);
+    }
+
+    /**
+     * Reads the snapshot for the given key
+     * @param offHeap true to keep the timelines in the memory-mapped file instead of copying them to the heap.
+     * The file stays mapped while the timetable is in use, also after it has been replaced by a newer snapshot.
+     * @return The timetable, or null if there is no snapshot for the key
+     * @throws IOException if the file exists but cannot be read or is not a valid snapshot
+     */
+    static Timetable read(Path directory, long key, boolean offHeap) throws IOException {
+        Path path = file(directory, key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return readFrom(in, key, offHeap);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid timetable snapshot " + path + ": " + e, e);
+        }
+    }
+
+    private static Timetable readFrom(ByteBuffer in, long key, boolean offHeap) throws IOException {
+        if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != key) {
+            throw new IOException("Unexpected snapshot header");
+        }
+
+        IdTable stops = IdTable.of(readStrings(in));
+        int[] parentStops = readInts(in, stops.size());
+        IdTable names = IdTable.of(readStrings(in));
+        int[] stopNames = readInts(in, stops.size());
+        byte[] locationTypes = new byte[stops.size()];
+        in.get(locationTypes);
+        int[] latitudes = readInts(in, stops.size());
+        int[] longitudes = readInts(in, stops.size());
+        IdTable lineNames = IdTable.of(readStrings(in));
+        byte[] lineModes = new byte[lineNames.size()];
+        in.get(lineModes);
+        IdTable trips = IdTable.of(readStrings(in));
+        int[] tripServices = readInts(in, trips.size());
+        int[] tripLines = readInts(in, trips.size());
+        IdTable headsigns = IdTable.of(readStrings(in));
+
+        int timelineCount = in.getInt();
+        Map<String, StopTimeline> timelines = new HashMap<>();
+        for (int t = 0; t < timelineCount; t++) {
+            String stopId = readString(in);
+            int size = in.getInt();
+            if (offHeap) {
+                IntBuffer departures = sliceInts(in, size);
+                IntBuffer tripIds = sliceInts(in, size);
+                IntBuffer headsignIds = sliceInts(in, size);
+                timelines.put(stopId, StopTimeline.ofSorted(departures, tripIds, headsignIds));
+            } else {
+                int[] departures = readInts(in, size);
+                int[] tripIds = readInts(in, size);
+                int[] headsignIds = readInts(in, size);
+                timelines.put(stopId, StopTimeline.ofSorted(departures, tripIds, headsignIds));
+            }
+        }
+
+        String[] serviceIds = readStrings(in);
+        long firstEpochDay = in.getLong();
+        BitSet[] days = new BitSet[in.getInt()];
+        for (int day = 0; day < days.length; day++) {
+            long[] words = new long[in.getInt()];
+            in.asLongBuffer().get(words);
+            in.position(in.position() + words.length * Long.BYTES);
+            days[day] = BitSet.valueOf(words);
+        }
+        StopIndex stopIndex = new StopIndex(latitudes, longitudes, names, stopNames, locationTypes);
+
+        int patternCount = in.getInt();
+        int[] patternStopStarts = new int[patternCount + 1];
+        int[] patternTripStarts = new int[patternCount + 1];
+        int times = 0;
+        for (int pattern = 0; pattern < patternCount; pattern++) {
+            int size = in.getInt();
+            int tripCount = in.getInt();
+            patternStopStarts[pattern + 1] = patternStopStarts[pattern] + size;
+            patternTripStarts[pattern + 1] = patternTripStarts[pattern] + tripCount;
+            times += size * tripCount;
+        }
+        int[] patternStops = readInts(in, patternStopStarts[patternCount]);
+        int[] patternTrips = readInts(in, patternTripStarts[patternCount]);
+        int[] arrivals = readInts(in, times);
+        int[] departures = readInts(in, times);
+        TransitNetwork network = patternCount > 0 ? new TransitNetwork(stops.size(), patternStopStarts, patternStops,
+                patternTripStarts, patternTrips, arrivals, departures, stopIndex) : TransitNetwork.EMPTY;
+
+        return new Timetable(stops, parentStops, trips, tripServices, tripLines, new Lines(lineNames, lineModes),
+                headsigns, Map.copyOf(timelines),
+                ServiceCalendar.ofDays(serviceIds, firstEpochDay, days), stopIndex, network);
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        return strings;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static IntBuffer sliceInts(ByteBuffer in, int count) {
+        IntBuffer values = in.slice(in.position(), count * Integer.BYTES).asIntBuffer();
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+}
@@ -0,0 +1,403 @@
+package com.ocklund.gtfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All trips of the feed grouped into route patterns, and the walks between nearby stops, for planning journeys
+ * (see {@link JourneyPlanner}).
+ * <p>
+ * A pattern is a sequence of stops served by trips that never overtake each other, so its trips are in the same
+ * order at every stop. The times of a pattern are stored position-major: the times of all its trips at the first
+ * stop, then at the second stop, and so on, so the first trip leaving a stop after a given time is found with a
+ * binary search over adjacent ints. Each stop lists the patterns serving it with its position in them
+ * ({@code stopPatterns[stopPatternStarts[stop]..stopPatternStarts[stop + 1])}), and the served stops within walking
+ * distance in the same way.
+ * <p>
+ * Instances are not modified once built and can be shared between threads.
+ */
+final class TransitNetwork {
+
+    static final TransitNetwork EMPTY = new TransitNetwork(0, new int[1], new int[0], new int[1], new int[0],
+            new int[0], new int[0], StopIndex.EMPTY);
+
+    /**
+     * Longest walk between two stops, in straight-line metres
+     */
+    static final int MAX_WALK_METRES = 400;
+    // Walks are timed along the straight line at a slow pace, plus a minute for finding the way
+    private static final double WALK_METRES_PER_SECOND = 1.2;
+    private static final int WALK_EXTRA_SECONDS = 60;
+
+    private final int stopCount;
+    private final int[] patternStopStarts;
+    private final int[] patternStops;
+    private final int[] patternTripStarts;
+    private final int[] patternTrips;
+    private final int[] patternTimeStarts;
+    private final int[] arrivals;
+    private final int[] departures;
+    private final int[] stopPatternStarts;
+    private final int[] stopPatterns;
+    private final int[] stopPatternPositions;
+    private final int[] walkStarts;
+    private final int[] walkStops;
+    private final int[] walkSeconds;
+
+    /**
+     * @param stopCount Number of stops in the timetable
+     * @param patternStopStarts Start of the stops of each pattern in {@code patternStops}, and the end of the last
+     * @param patternStops Stops of the patterns in the order they are served
+     * @param patternTripStarts Start of the trips of each pattern in {@code patternTrips}, and the end of the last
+     * @param patternTrips Trips of the patterns, in the order they leave the first stop
+     * @param arrivals Arrival of each trip at each stop of its pattern, in seconds since service-day midnight,
+     * position-major per pattern
+     * @param departures Departure of each trip at each stop of its pattern, like {@code arrivals}
+     * @param stopIndex Locations of the stops, for the walks between them
+     */
+    TransitNetwork(int stopCount, int[] patternStopStarts, int[] patternStops, int[] patternTripStarts,
+                   int[] patternTrips, int[] arrivals, int[] departures, StopIndex stopIndex) {
+        this.stopCount = stopCount;
+        this.patternStopStarts = patternStopStarts;
+        this.patternStops = patternStops;
+        this.patternTripStarts = patternTripStarts;
+        this.patternTrips = patternTrips;
+        this.arrivals = arrivals;
+        this.departures = departures;
+
+        int patternCount = patternStopStarts.length - 1;
+        patternTimeStarts = new int[patternCount + 1];
+        for (int pattern = 0; pattern < patternCount; pattern++) {
+            patternTimeStarts[pattern + 1] = patternTimeStarts[pattern] + size(pattern) * tripCount(pattern);
+        }
+
+        // Counting sort of the pattern positions by stop
+        stopPatternStarts = new int[stopCount + 1];
+        for (int stop : patternStops) {
+            stopPatternStarts[stop + 1]++;
+        }
+        for (int stop = 1; stop <= stopCount; stop++) {
+            stopPatternStarts[stop] += stopPatternStarts[stop - 1];
+        }
+        stopPatterns = new int[patternStops.length];
+        stopPatternPositions = new int[patternStops.length];
+        int[] next = Arrays.copyOf(stopPatternStarts, stopCount);
+        for (int pattern = 0; pattern < patternCount; pattern++) {
+            for (int position = 0; position < size(pattern); position++) {
+                int slot = next[stop(pattern, position)]++;
+                stopPatterns[slot] = pattern;
+                stopPatternPositions[slot] = position;
+            }
+        }
+
+        // Walks between served stops, nearest first
+        walkStarts = new int[stopCount + 1];
+        int[] toStops = new int[1024];
+        int[] seconds = new int[1024];
+        int walks = 0;
+        for (int stop = 0; stop < stopCount; stop++) {
+            if (isServed(stop) && stopIndex.hasLocation(stop)) {
+                int from = stop;
+                int[] near = stopIndex.within(stopIndex.latitude(stop), stopIndex.longitude(stop), MAX_WALK_METRES,
+                        other -> other != from && isServed(other));
+                if (walks + near.length > toStops.length) {
+                    toStops = Arrays.copyOf(toStops, Math.max(toStops.length * 2, walks + near.length));
+                    seconds = Arrays.copyOf(seconds, toStops.length);
+                }
+                for (int other : near) {
+                    double metres = stopIndex.distance(other, stopIndex.latitude(stop), stopIndex.longitude(stop));
+                    toStops[walks] = other;
+                    seconds[walks++] = WALK_EXTRA_SECONDS + (int) Math.ceil(metres / WALK_METRES_PER_SECOND);
+                }
+            }
+            walkStarts[stop + 1] = walks;
+        }
+        walkStops = Arrays.copyOf(toStops, walks);
+        walkSeconds = Arrays.copyOf(seconds, walks);
+    }
+
+    int stopCount() {
+        return stopCount;
+    }
+
+    int patternCount() {
+        return patternStopStarts.length - 1;
+    }
+
+    /**
+     * @return Number of stops of the pattern
+     */
+    int size(int pattern) {
+        return patternStopStarts[pattern + 1] - patternStopStarts[pattern];
+    }
+
+    int stop(int pattern, int position) {
+        return patternStops[patternStopStarts[pattern] + position];
+    }
+
+    int tripCount(int pattern) {
+        return patternTripStarts[pattern + 1] - patternTripStarts[pattern];
+    }
+
+    /**
+     * @param index Index of the trip in the pattern, in the order of departure
+     * @return Trip id in the timetable's trip table
+     */
+    int trip(int pattern, int index) {
+        return patternTrips[patternTripStarts[pattern] + index];
+    }
+
+    int arrival(int pattern, int index, int position) {
+        return arrivals[patternTimeStarts[pattern] + position * tripCount(pattern) + index];
+    }
+
+    int departure(int pattern, int index, int position) {
+        return departures[patternTimeStarts[pattern] + position * tripCount(pattern) + index];
+    }
+
+    /**
+     * @return Index of the first trip of the pattern leaving the stop at the position at or after the given time,
+     * or {@link #tripCount} if there is none
+     */
+    int firstDepartureAtOrAfter(int pattern, int position, int seconds) {
+        int trips = tripCount(pattern);
+        int start = patternTimeStarts[pattern] + position * trips;
+        int low = 0;
+        int high = trips;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departures[start + mid] < seconds) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return true if any trip stops at the stop
+     */
+    boolean isServed(int stop) {
+        return stopPatternStarts[stop + 1] > stopPatternStarts[stop];
+    }
+
+    /**
+     * The patterns of a stop are {@link #stopPattern} and {@link #stopPatternPosition} of the indices from
+     * {@code stopPatternStart(stop)} to {@code stopPatternStart(stop + 1)}
+     */
+    int stopPatternStart(int stop) {
+        return stopPatternStarts[stop];
+    }
+
+    int stopPattern(int index) {
+        return stopPatterns[index];
+    }
+
+    int stopPatternPosition(int index) {
+        return stopPatternPositions[index];
+    }
+
+    /**
+     * The walks from a stop are {@link #walkStop} and {@link #walkSeconds} of the indices from
+     * {@code walkStart(stop)} to {@code walkStart(stop + 1)}
+     */
+    int walkStart(int stop) {
+        return walkStarts[stop];
+    }
+
+    int walkStop(int index) {
+        return walkStops[index];
+    }
+
+    int walkSeconds(int index) {
+        return walkSeconds[index];
+    }
+
+    /**
+     * Collects the stop times of all trips in any order, and groups the trips into patterns
+     */
+    static final class Builder {
+        private int size;
+        private int[] trips = new int[1024];
+        private int[] sequences = new int[1024];
+        private int[] stops = new int[1024];
+        private int[] arrivals = new int[1024];
+        private int[] departures = new int[1024];
+
+        void add(int trip, int sequence, int stop, int arrival, int departure) {
+            if (size == trips.length) {
+                int newLength = size * 2;
+                trips = Arrays.copyOf(trips, newLength);
+                sequences = Arrays.copyOf(sequences, newLength);
+                stops = Arrays.copyOf(stops, newLength);
+                arrivals = Arrays.copyOf(arrivals, newLength);
+                departures = Arrays.copyOf(departures, newLength);
+            }
+            trips[size] = trip;
+            sequences[size] = sequence;
+            stops[size] = stop;
+            arrivals[size] = arrival;
+            departures[size] = departure;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int trip(int index) {
+            return trips[index];
+        }
+
+        int sequence(int index) {
+            return sequences[index];
+        }
+
+        int stop(int index) {
+            return stops[index];
+        }
+
+        int arrival(int index) {
+            return arrivals[index];
+        }
+
+        int departure(int index) {
+            return departures[index];
+        }
+
+        /**
+         * @param tripCount Number of trips in the timetable, larger than every trip id that was added
+         * @param stopIndex Names and locations of the stops of the timetable
+         */
+        TransitNetwork build(int tripCount, StopIndex stopIndex) {
+            // Counting sort of the stop times by trip, then each trip by stop sequence
+            int[] tripStarts = new int[tripCount + 1];
+            for (int i = 0; i < size; i++) {
+                tripStarts[trips[i] + 1]++;
+            }
+            for (int trip = 1; trip <= tripCount; trip++) {
+                tripStarts[trip] += tripStarts[trip - 1];
+            }
+            int[] rows = new int[size];
+            int[] next = Arrays.copyOf(tripStarts, tripCount);
+            for (int i = 0; i < size; i++) {
+                rows[next[trips[i]]++] = i;
+            }
+            long[] keys = new long[64];
+            Map<StopSequence, List<Integer>> tripsBySequence = new LinkedHashMap<>();
+            for (int trip = 0; trip < tripCount; trip++) {
+                int start = tripStarts[trip];
+                int length = tripStarts[trip + 1] - start;
+                // A trip needs two stops to take anyone anywhere
+                if (length < 2) {
+                    continue;
+                }
+                if (keys.length < length) {
+                    keys = new long[Math.max(keys.length * 2, length)];
+                }
+                for (int i = 0; i < length; i++) {
+                    keys[i] = ((long) sequences[rows[start + i]] << 32) | rows[start + i];
+                }
+                Arrays.sort(keys, 0, length);
+                int[] sequenceStops = new int[length];
+                for (int i = 0; i < length; i++) {
+                    rows[start + i] = (int) keys[i];
+                    sequenceStops[i] = stops[rows[start + i]];
+                }
+                tripsBySequence.computeIfAbsent(new StopSequence(sequenceStops), k -> new ArrayList<>()).add(trip);
+            }
+
+            // Trips with the same stops are split into patterns where no trip overtakes another
+            List<int[]> patternStopLists = new ArrayList<>();
+            List<int[]> patternTripLists = new ArrayList<>();
+            for (Map.Entry<StopSequence, List<Integer>> entry : tripsBySequence.entrySet()) {
+                int[] sequenceStops = entry.getKey().stops();
+                List<Integer> sorted = new ArrayList<>(entry.getValue());
+                sorted.sort((a, b) -> Integer.compare(departures[rows[tripStarts[a]]], departures[rows[tripStarts[b]]]));
+                List<List<Integer>> groups = new ArrayList<>();
+                for (int trip : sorted) {
+                    List<Integer> group = null;
+                    for (List<Integer> candidate : groups) {
+                        if (follows(trip, candidate.get(candidate.size() - 1), tripStarts, rows, sequenceStops.length)) {
+                            group = candidate;
+                            break;
+                        }
+                    }
+                    if (group == null) {
+                        group = new ArrayList<>();
+                        groups.add(group);
+                    }
+                    group.add(trip);
+                }
+                for (List<Integer> group : groups) {
+                    patternStopLists.add(sequenceStops);
+                    patternTripLists.add(group.stream().mapToInt(Integer::intValue).toArray());
+                }
+            }
+
+            int patternCount = patternStopLists.size();
+            int[] patternStopStarts = new int[patternCount + 1];
+            int[] patternTripStarts = new int[patternCount + 1];
+            int times = 0;
+            for (int pattern = 0; pattern < patternCount; pattern++) {
+                patternStopStarts[pattern + 1] = patternStopStarts[pattern] + patternStopLists.get(pattern).length;
+                patternTripStarts[pattern + 1] = patternTripStarts[pattern] + patternTripLists.get(pattern).length;
+                times += patternStopLists.get(pattern).length * patternTripLists.get(pattern).length;
+            }
+            int[] patternStops = new int[patternStopStarts[patternCount]];
+            int[] patternTrips = new int[patternTripStarts[patternCount]];
+            int[] patternArrivals = new int[times];
+            int[] patternDepartures = new int[times];
+            int time = 0;
+            for (int pattern = 0; pattern < patternCount; pattern++) {
+                int[] patternStopList = patternStopLists.get(pattern);
+                int[] patternTripList = patternTripLists.get(pattern);
+                System.arraycopy(patternStopList, 0, patternStops, patternStopStarts[pattern], patternStopList.length);
+                System.arraycopy(patternTripList, 0, patternTrips, patternTripStarts[pattern], patternTripList.length);
+                for (int position = 0; position < patternStopList.length; position++) {
+                    for (int trip : patternTripList) {
+                        int row = rows[tripStarts[trip] + position];
+                        patternArrivals[time] = arrivals[row];
+                        patternDepartures[time++] = departures[row];
+                    }
+                }
+            }
+            return new TransitNetwork(stopIndex.size(), patternStopStarts, patternStops, patternTripStarts,
+                    patternTrips, patternArrivals, patternDepartures, stopIndex);
+        }
+
+        /**
+         * @return true if the trip arrives and departs no earlier than the previous trip at every stop
+         */
+        private boolean follows(int trip, int previous, int[] tripStarts, int[] rows, int length) {
+            for (int i = 0; i < length; i++) {
+                int row = rows[tripStarts[trip] + i];
+                int previousRow = rows[tripStarts[previous] + i];
+                if (arrivals[row] < arrivals[previousRow] || departures[row] < departures[previousRow]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The stops of a trip, as a key for grouping trips into patterns
+     */
+    private record StopSequence(int[] stops) {
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof StopSequence sequence && Arrays.equals(stops, sequence.stops);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(stops);
+        }
+    }
+}
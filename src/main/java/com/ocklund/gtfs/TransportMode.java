@@ -0,0 +1,51 @@
+package com.ocklund.gtfs;
+
+/**
+ * Mode of transport of a line, from the GTFS route_type. Both the basic route types (0-12) and the extended
+ * ones (100-1700) used by SL are understood.
+ */
+public enum TransportMode {
+    TRAM("Spårvagn"),
+    METRO("Tunnelbana"),
+    RAIL("Tåg"),
+    BUS("Buss"),
+    FERRY("Båt"),
+    OTHER("Linje");
+
+    private static final TransportMode[] VALUES = values();
+
+    private final String label;
+
+    TransportMode(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return Name of the mode as shown before the line number, e.g. "Buss"
+     */
+    String label() {
+        return label;
+    }
+
+    static TransportMode of(int routeType) {
+        return switch (routeType) {
+            case 0, 5 -> TRAM;
+            case 1 -> METRO;
+            case 2 -> RAIL;
+            case 3, 11 -> BUS;
+            case 4 -> FERRY;
+            default -> switch (routeType / 100) {
+                case 1 -> RAIL;
+                case 2, 7, 8 -> BUS;
+                case 4 -> METRO;
+                case 9 -> TRAM;
+                case 10, 12 -> FERRY;
+                default -> OTHER;
+            };
+        };
+    }
+
+    static TransportMode ofOrdinal(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
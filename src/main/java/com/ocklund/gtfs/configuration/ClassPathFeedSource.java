@@ -0,0 +1,53 @@
+package com.ocklund.gtfs.configuration;
+
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Feed source for the GTFS files bundled in src/main/resources/gtfs.
+ * The bundled feed has no full stop_times.txt, so requests for it are served
+ * from the smaller stop_times_extracted.txt (see README).
+ */
+public class ClassPathFeedSource implements GtfsFeedSource {
+
+    private static final String STOP_TIMES = "stop_times.txt";
+    private static final String STOP_TIMES_EXTRACTED = "stop_times_extracted.txt";
+
+    private final String directory;
+
+    public ClassPathFeedSource(String directory) {
+        this.directory = directory.endsWith("/") ? directory : directory + "/";
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        return resource(fileName).getInputStream();
+    }
+
+    @Override
+    public Optional<Path> localFile(String fileName) {
+        ClassPathResource resource = resource(fileName);
+        try {
+            return resource.isFile() ? Optional.of(resource.getFile().toPath()) : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public String description() {
+        return "classpath:" + directory;
+    }
+
+    private ClassPathResource resource(String fileName) {
+        ClassPathResource resource = new ClassPathResource(directory + fileName);
+        if (STOP_TIMES.equals(fileName) && !resource.exists()) {
+            return new ClassPathResource(directory + STOP_TIMES_EXTRACTED);
+        }
+        return resource;
+    }
+}
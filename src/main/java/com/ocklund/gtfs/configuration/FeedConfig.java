@@ -0,0 +1,25 @@
+package com.ocklund.gtfs.configuration;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+@EnableConfigurationProperties(GtfsProperties.class)
+public class FeedConfig {
+
+    /**
+     * Reads the feed from the archive in property gtfs.feed.zip when it is set,
+     * otherwise from the files bundled in the classpath.
+     */
+    @Bean
+    public GtfsFeedSource gtfsFeedSource(GtfsProperties properties) {
+        String zipPath = properties.getFeed().getZip();
+        if (zipPath == null || zipPath.isBlank()) {
+            return new ClassPathFeedSource("gtfs");
+        }
+        return new ZipFeedSource(Path.of(zipPath));
+    }
+}
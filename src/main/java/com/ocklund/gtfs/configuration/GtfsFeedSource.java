@@ -0,0 +1,62 @@
+package com.ocklund.gtfs.configuration;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Interface for reading the files of a static GTFS feed, such as stops.txt and stop_times.txt.
+ * This abstraction lets the same loaders read bundled resources or a downloaded feed archive.
+ */
+public interface GtfsFeedSource {
+    /**
+     * Opens a file of the feed for streaming.
+     * @param fileName File name within the feed, e.g. "stops.txt"
+     * @return A stream that the caller must close
+     * @throws java.io.FileNotFoundException if the feed does not contain the file
+     */
+    InputStream open(String fileName) throws IOException;
+
+    /**
+     * Gets a file of the feed as a local path, for callers that can memory-map it.
+     * @param fileName File name within the feed
+     * @return The path, or empty if the file is only available as a stream
+     */
+    default Optional<Path> localFile(String fileName) {
+        return Optional.empty();
+    }
+
+    /**
+     * Computes a checksum over the content of the given files, for detecting that the feed has changed.
+     * Files missing from the feed are part of the checksum too.
+     * The default implementation reads every file completely; sources with cheaper metadata should override it.
+     * @param fileNames File names within the feed
+     * @return The checksum
+     */
+    default long fingerprint(List<String> fileNames) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        for (String fileName : fileNames) {
+            crc.update(fileName.getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = open(fileName)) {
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                }
+            } catch (FileNotFoundException e) {
+                crc.update(0);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return Human-readable description of where the feed is read from
+     */
+    String description();
+}
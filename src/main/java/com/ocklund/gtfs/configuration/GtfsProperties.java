@@ -0,0 +1,233 @@
+package com.ocklund.gtfs.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Application settings under the "gtfs" prefix, see application.properties.
+ */
+@ConfigurationProperties("gtfs")
+public class GtfsProperties {
+
+    private final Feed feed = new Feed();
+    private final Snapshot snapshot = new Snapshot();
+    private final Realtime realtime = new Realtime();
+    private final Reload reload = new Reload();
+    private final Routing routing = new Routing();
+    // Keyed by board id, in the order of the configuration
+    private final Map<String, Board> boards = new LinkedHashMap<>();
+
+    public Feed getFeed() {
+        return feed;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public Realtime getRealtime() {
+        return realtime;
+    }
+
+    public Reload getReload() {
+        return reload;
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    /**
+     * Departure boards, served at /board/{id}. When none are configured, a built-in board is used.
+     */
+    public Map<String, Board> getBoards() {
+        return boards;
+    }
+
+    public static class Feed {
+        /**
+         * Path to a downloaded GTFS archive. When empty, the bundled feed is used.
+         */
+        private String zip = "";
+        /**
+         * Build timelines for every stop of the feed, so that boards near any location can be shown.
+         * When false, only the stops of the configured boards have timelines.
+         */
+        private boolean indexAllStops = false;
+        /**
+         * Keep the stop times of the timelines in direct memory outside the Java heap, so that indexing all stops
+         * of a large feed does not grow the heap or the garbage collection pauses. Direct memory is limited by
+         * -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+         */
+        private boolean offHeap = false;
+
+        public String getZip() {
+            return zip;
+        }
+
+        public void setZip(String zip) {
+            this.zip = zip;
+        }
+
+        public boolean isIndexAllStops() {
+            return indexAllStops;
+        }
+
+        public void setIndexAllStops(boolean indexAllStops) {
+            this.indexAllStops = indexAllStops;
+        }
+
+        public boolean isOffHeap() {
+            return offHeap;
+        }
+
+        public void setOffHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+        }
+    }
+
+    public static class Snapshot {
+        /**
+         * Directory for the binary timetable snapshot. When empty, no snapshot is read or written.
+         */
+        private String dir = "";
+
+        public String getDir() {
+            return dir;
+        }
+
+        public void setDir(String dir) {
+            this.dir = dir;
+        }
+    }
+
+    public static class Realtime {
+        /**
+         * GTFS-Realtime TripUpdates feed: an http(s) or file URL, a file, or a directory whose newest .pb file
+         * is read. When empty, only the static timetable is shown.
+         */
+        private String source = "";
+        /**
+         * Time between the end of one poll and the start of the next
+         */
+        private Duration interval = Duration.ofSeconds(15);
+
+        public String getSource() {
+            return source;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    public static class Reload {
+        /**
+         * Reload the feed when the archive in gtfs.feed.zip is replaced
+         */
+        private boolean watch = false;
+        /**
+         * Time without further changes to the archive before it is read, so that a copy in progress is not read
+         */
+        private Duration quietPeriod = Duration.ofSeconds(10);
+        /**
+         * Accept POST /admin/reload to reload the feed
+         */
+        private boolean endpoint = false;
+
+        public boolean isWatch() {
+            return watch;
+        }
+
+        public void setWatch(boolean watch) {
+            this.watch = watch;
+        }
+
+        public Duration getQuietPeriod() {
+            return quietPeriod;
+        }
+
+        public void setQuietPeriod(Duration quietPeriod) {
+            this.quietPeriod = quietPeriod;
+        }
+
+        public boolean isEndpoint() {
+            return endpoint;
+        }
+
+        public void setEndpoint(boolean endpoint) {
+            this.endpoint = endpoint;
+        }
+    }
+
+    public static class Routing {
+        /**
+         * Keep the stop times of all trips, so that journeys between any two stops can be planned at
+         * /api/journeys. This needs memory for the whole stop_times.txt.
+         */
+        private boolean enabled = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    public static class Board {
+        /**
+         * Rows of the board, each with a header and the stops shown under it
+         */
+        private List<Row> rows = new ArrayList<>();
+
+        public List<Row> getRows() {
+            return rows;
+        }
+
+        public void setRows(List<Row> rows) {
+            this.rows = rows;
+        }
+    }
+
+    public static class Row {
+        /**
+         * Header of the row. When empty, no header is shown.
+         */
+        private String title = "";
+        /**
+         * Stop ids, one block per stop. Stop times of child stops are included for parent stations.
+         */
+        private List<String> stops = new ArrayList<>();
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public List<String> getStops() {
+            return stops;
+        }
+
+        public void setStops(List<String> stops) {
+            this.stops = stops;
+        }
+    }
+}
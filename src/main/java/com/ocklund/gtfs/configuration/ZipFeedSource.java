@@ -0,0 +1,76 @@
+package com.ocklund.gtfs.configuration;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Feed source for an official GTFS archive on local disk, such as sl.zip.
+ * Each file is inflated on the fly while it is read, so no entry is ever extracted or held in memory.
+ */
+public class ZipFeedSource implements GtfsFeedSource {
+
+    private final Path zipPath;
+
+    public ZipFeedSource(Path zipPath) {
+        this.zipPath = zipPath;
+    }
+
+    @Override
+    public InputStream open(String fileName) throws IOException {
+        ZipFile zipFile = new ZipFile(zipPath.toFile());
+        try {
+            ZipEntry entry = zipFile.getEntry(fileName);
+            if (entry == null) {
+                throw new FileNotFoundException(fileName + " not found in " + zipPath);
+            }
+            // Closing the entry stream also closes the archive
+            return new FilterInputStream(zipFile.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zipFile.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            zipFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Uses the checksums and sizes stored in the archive, so nothing has to be inflated
+     */
+    @Override
+    public long fingerprint(List<String> fileNames) throws IOException {
+        CRC32 crc = new CRC32();
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            for (String fileName : fileNames) {
+                crc.update(fileName.getBytes(StandardCharsets.UTF_8));
+                ZipEntry entry = zipFile.getEntry(fileName);
+                if (entry == null) {
+                    crc.update(0);
+                } else {
+                    crc.update(Long.toString(entry.getCrc()).getBytes(StandardCharsets.US_ASCII));
+                    crc.update(Long.toString(entry.getSize()).getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    @Override
+    public String description() {
+        return zipPath.toString();
+    }
+}
@@ -0,0 +1,12 @@
+// The server sends the clock and the stop reports when they change, in the order of the blocks
+const events = new EventSource(document.body.dataset.events);
+events.addEventListener('board', event => {
+    const update = JSON.parse(event.data);
+    document.querySelector('.current-time').textContent = update.time;
+    const blocks = document.querySelectorAll('.stop-block');
+    update.reports.forEach((report, i) => {
+        if (blocks[i] && blocks[i].innerHTML !== report) {
+            blocks[i].innerHTML = report;
+        }
+    });
+});
@@ -0,0 +1,86 @@
+package com.ocklund.gtfs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BoardEventPublisherTest {
+
+    private static final Board BOARD = GtfsService.DEFAULT_BOARD;
+
+    @Mock
+    private GtfsService gtfsService;
+
+    @Mock
+    private ReportCache reportCache;
+
+    private BoardEventPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        publisher = new BoardEventPublisher(gtfsService, reportCache, new ObjectMapper());
+    }
+
+    @Test
+    void publishChanges_shouldComputeOncePerCheckForAllSubscribers() throws Exception {
+        when(gtfsService.getCurrentDateTime()).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        when(reportCache.getStopReports(BOARD))
+                .thenReturn(List.of("report"))
+                .thenReturn(List.of("report"))
+                .thenReturn(List.of("report"))
+                .thenReturn(List.of("changed"));
+        for (int i = 0; i < 3; i++) {
+            publisher.subscribe(BOARD);
+        }
+        assertEquals(3, publisher.subscriberCount(BOARD.id()));
+
+        publisher.publishChanges();
+        publisher.publishChanges();
+        publisher.publishChanges();
+
+        // One computation per subscription before the first event, then one per check for all subscribers
+        verify(reportCache, times(6)).getStopReports(BOARD);
+        assertEquals(0, publisher.subscriberCount("other"), "Boards without subscribers should have none");
+        publisher.stop();
+    }
+
+    @Test
+    void mailbox_shouldSendInOrderAndDropSupersededEvents() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<String> sent = new ArrayList<>();
+        BoardEventPublisher.Mailbox mailbox = new BoardEventPublisher.Mailbox(tasks::add, sent::add);
+
+        mailbox.offer(new BoardEventPublisher.Event(1, "first"));
+        mailbox.offer(new BoardEventPublisher.Event(3, "third"));
+        mailbox.offer(new BoardEventPublisher.Event(2, "second"));
+        assertEquals(1, tasks.size(), "Only one task should send the events of a subscriber");
+        tasks.remove(0).run();
+        assertEquals(List.of("third"), sent, "Superseded and older events should be dropped");
+
+        mailbox.offer(new BoardEventPublisher.Event(3, "third"));
+        mailbox.offer(new BoardEventPublisher.Event(4, "fourth"));
+        tasks.remove(0).run();
+        assertEquals(List.of("third", "fourth"), sent, "An event should not be sent twice");
+        assertTrue(tasks.isEmpty());
+    }
+
+    @Test
+    void publishChanges_shouldSkipBoardsWithoutSubscribers() {
+        publisher.publishChanges();
+
+        verify(reportCache, times(0)).getStopReports(BOARD);
+    }
+}
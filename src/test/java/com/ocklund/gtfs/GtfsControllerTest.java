@@ -1,21 +1,38 @@
 package com.ocklund.gtfs;
 
+import com.ocklund.gtfs.configuration.GtfsProperties;
 import com.ocklund.gtfs.configuration.TimeProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.ui.Model;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
@@ -27,70 +44,292 @@ class GtfsControllerTest {
     @Mock
     private GtfsService gtfsService;
     
+    @Mock
+    private ReportCache reportCache;
+
+    @Mock
+    private BoardEventPublisher boardEventPublisher;
+
     @Mock
     private TimeProvider timeProvider;
-    
-    private GtfsController controller;
 
     @Mock
-    private Model model;
+    private Metrics metrics;
     
+    private final GtfsProperties properties = new GtfsProperties();
+
+    private GtfsController controller;
+
     @BeforeEach
     void setUp() {
-        controller = new GtfsController(gtfsService, timeProvider);
+        controller = new GtfsController(gtfsService, reportCache, boardEventPublisher, timeProvider, properties, metrics);
     }
 
     @Test
-    void index_shouldWorkWithDarkModeTrue() {
+    void index_shouldWorkWithDarkModeTrue() throws Exception {
         List<String> mockReports = Arrays.asList("Report 1", "Report 2", "Report 3", "Report 4");
         LocalDateTime mockTime = LocalDateTime.of(2025, 8, 7, 12, 36);
-        when(gtfsService.getStopReports()).thenReturn(mockReports);
+        when(reportCache.getStopReports(GtfsService.DEFAULT_BOARD)).thenReturn(mockReports);
         when(timeProvider.now(any(ZoneId.class))).thenReturn(mockTime);
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        MockHttpServletResponse response = new MockHttpServletResponse();
 
-        String viewName = controller.index(true, model);
+        controller.index(true, response);
 
-        assertEquals("index", viewName, "View name should be 'index'");
-        verify(model).addAttribute(eq("reports"), eq(mockReports));
-        verify(model).addAttribute(eq("darkMode"), eq(true));
+        String page = response.getContentAsString(StandardCharsets.UTF_8);
+        assertTrue(page.contains("<body class=\"dark-mode\" data-events=\"/board/default/events\">"), page);
+        assertTrue(page.contains("<div class=\"stop-block\">Report 4</div>"), page);
+        assertTrue(page.contains("<div class=\"current-time\">12:36</div>"), page);
         verify(timeProvider).now(eq(ZoneId.of("Europe/Stockholm")));
-        ArgumentCaptor<LocalDateTime> timeCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
-        verify(model).addAttribute(eq("currentTime"), timeCaptor.capture());
-        assertInstanceOf(LocalDateTime.class, timeCaptor.getValue(), "Current time should be a LocalDateTime");
+        assertEquals("text/html;charset=UTF-8", response.getContentType());
+        assertEquals(response.getContentAsByteArray().length, response.getContentLength(),
+                "Content length should be the length of the page in bytes");
     }
 
     @Test
-    void index_shouldWorkWithDarkModeFalse() {
+    void index_shouldWorkWithDarkModeFalse() throws Exception {
         List<String> mockReports = Arrays.asList("Report 1", "Report 2", "Report 3", "Report 4");
-        LocalDateTime mockTime = LocalDateTime.of(2025, 8, 7, 12, 36);
-        when(gtfsService.getStopReports()).thenReturn(mockReports);
+        LocalDateTime mockTime = LocalDateTime.of(2025, 8, 7, 9, 5);
+        when(reportCache.getStopReports(GtfsService.DEFAULT_BOARD)).thenReturn(mockReports);
         when(timeProvider.now(any(ZoneId.class))).thenReturn(mockTime);
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        MockHttpServletResponse response = new MockHttpServletResponse();
 
-        String viewName = controller.index(false, model);
+        controller.index(false, response);
 
-        assertEquals("index", viewName, "View name should be 'index'");
-        verify(model).addAttribute(eq("reports"), eq(mockReports));
-        verify(model).addAttribute(eq("darkMode"), eq(false));
-        verify(timeProvider).now(eq(ZoneId.of("Europe/Stockholm")));
-        ArgumentCaptor<LocalDateTime> timeCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
-        verify(model).addAttribute(eq("currentTime"), timeCaptor.capture());
-        assertInstanceOf(LocalDateTime.class, timeCaptor.getValue(), "Current time should be a LocalDateTime");
+        String page = response.getContentAsString(StandardCharsets.UTF_8);
+        assertTrue(page.contains("<body data-events=\"/board/default/events\">"), "Page should not be in dark mode");
+        assertTrue(page.contains("<div class=\"current-time\">09:05</div>"), page);
+        assertEquals(4, page.split("class=\"stop-block\"").length - 1, "Each report should have a block");
     }
 
     @Test
-    void index_shouldWorkWithEmptyReports() {
+    void index_shouldWorkWithEmptyReports() throws Exception {
         List<String> emptyReports = List.of();
         LocalDateTime mockTime = LocalDateTime.of(2025, 8, 7, 12, 36);
-        when(gtfsService.getStopReports()).thenReturn(emptyReports);
+        when(reportCache.getStopReports(GtfsService.DEFAULT_BOARD)).thenReturn(emptyReports);
         when(timeProvider.now(any(ZoneId.class))).thenReturn(mockTime);
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        MockHttpServletResponse response = new MockHttpServletResponse();
 
-        String viewName = controller.index(false, model);
+        controller.index(false, response);
 
-        assertEquals("index", viewName, "View name should be 'index'");
-        verify(model).addAttribute(eq("reports"), eq(emptyReports));
-        verify(model).addAttribute(eq("darkMode"), eq(false));
-        verify(timeProvider).now(eq(ZoneId.of("Europe/Stockholm")));
-        ArgumentCaptor<LocalDateTime> timeCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
-        verify(model).addAttribute(eq("currentTime"), timeCaptor.capture());
-        assertInstanceOf(LocalDateTime.class, timeCaptor.getValue(), "Current time should be a LocalDateTime");
+        String page = response.getContentAsString(StandardCharsets.UTF_8);
+        assertFalse(page.contains("class=\"stop-block\""), "No blocks should be shown without reports");
+        assertTrue(page.endsWith("</html>\n"), page);
+    }
+
+    @Test
+    void board_shouldRenderConfiguredBoardInRows() throws Exception {
+        Board board = new Board("sickla", List.of(
+                new Board.Row("Tvärbanan <Sickla>", List.of("stop1", "stop2", "stop3")),
+                new Board.Row("", List.of("stop4"))));
+        List<String> mockReports = Arrays.asList("Report 1", "Report 2", "Report 3", "10:35 → Årstadal<br>");
+        when(gtfsService.getBoard("sickla")).thenReturn(board);
+        when(reportCache.getStopReports(board)).thenReturn(mockReports);
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 7, 12, 36));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.board("sickla", false, response);
+
+        String page = response.getContentAsString(StandardCharsets.UTF_8);
+        assertTrue(page.contains("style=\"grid-template-columns: repeat(3, 1fr)\""), page);
+        assertTrue(page.contains("<h3 class=\"row-header\">Tvärbanan &lt;Sickla&gt;</h3>"), "Title should be escaped");
+        assertEquals(1, page.split("row-header").length - 1, "Row without a title should have no header");
+        assertTrue(page.indexOf("Report 3") < page.indexOf("<div class=\"stop-block\">10:35 → Årstadal<br></div>"),
+                "Reports should be HTML in the order of the board");
+        assertEquals(List.of(
+                new GtfsController.RowReports("Tvärbanan <Sickla>", List.of("Report 1", "Report 2", "Report 3")),
+                new GtfsController.RowReports("", List.of("10:35 → Årstadal<br>"))),
+                GtfsController.rowReports(board, mockReports));
+    }
+
+    @Test
+    void board_shouldThrowNotFoundForUnknownBoard() {
+        when(gtfsService.getBoard("unknown")).thenReturn(null);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> controller.board("unknown", false, new MockHttpServletResponse()));
+        assertEquals(404, exception.getStatusCode().value(), "Unknown board should give 404");
+    }
+
+    @Test
+    void asset_shouldServeAssetsOfThePageGzippedWithLongCaching() throws Exception {
+        when(reportCache.getStopReports(GtfsService.DEFAULT_BOARD)).thenReturn(List.of());
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 7, 12, 36));
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        MockHttpServletResponse page = new MockHttpServletResponse();
+        controller.index(false, page);
+        Matcher style = Pattern.compile("href=\"/assets/([^\"]+\\.css)\"").matcher(page.getContentAsString());
+        assertTrue(style.find(), "Page should link the style sheet");
+
+        ResponseEntity<byte[]> gzipped = controller.asset(style.group(1), "gzip, deflate, br",
+                new ServletWebRequest(new MockHttpServletRequest()));
+        assertEquals("gzip", gzipped.getHeaders().getFirst("Content-Encoding"));
+        assertEquals("max-age=31536000, public, immutable", gzipped.getHeaders().getCacheControl());
+        String css;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getBody()))) {
+            css = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Matcher logo = Pattern.compile("url\\(([^)]+\\.svg)\\)").matcher(css);
+        assertTrue(logo.find(), "Style sheet should refer to the logo by its name with the hash");
+
+        ResponseEntity<byte[]> plain = controller.asset(logo.group(1), null, new ServletWebRequest(new MockHttpServletRequest()));
+        assertNull(plain.getHeaders().getFirst("Content-Encoding"), "Asset should not be gzipped when not accepted");
+        assertTrue(new String(plain.getBody(), StandardCharsets.UTF_8).startsWith("<svg"));
+        assertEquals("image/svg+xml", plain.getHeaders().getContentType().toString());
+
+        MockHttpServletRequest revalidation = new MockHttpServletRequest();
+        revalidation.addHeader("If-None-Match", plain.getHeaders().getETag());
+        assertNull(controller.asset(logo.group(1), null, new ServletWebRequest(revalidation, new MockHttpServletResponse())),
+                "Matching ETag should give 304");
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> controller.asset("board.css", "gzip", new ServletWebRequest(new MockHttpServletRequest())));
+        assertEquals(404, exception.getStatusCode().value(), "Asset without its hash should give 404");
+    }
+
+    @Test
+    void acceptsGzip_shouldRespectQualityZero() {
+        assertTrue(GtfsController.acceptsGzip("deflate, gzip;q=1.0"));
+        assertTrue(GtfsController.acceptsGzip("*"));
+        assertFalse(GtfsController.acceptsGzip("gzip;q=0"));
+        assertFalse(GtfsController.acceptsGzip("identity"));
+        assertFalse(GtfsController.acceptsGzip(null));
+    }
+
+    @Test
+    void acceptsGzip_shouldPreferGzipEntryOverWildcard() {
+        assertTrue(GtfsController.acceptsGzip("*;q=0, gzip"), "Explicit gzip should override a refused wildcard");
+        assertFalse(GtfsController.acceptsGzip("*, gzip;q=0"), "Refused gzip should override the wildcard");
+        assertFalse(GtfsController.acceptsGzip("br, *;q=0"));
+        assertTrue(GtfsController.acceptsGzip("br;q=1, *;q=0.5"));
+    }
+
+    @Test
+    void events_shouldSubscribeToBoard() throws Exception {
+        Board board = GtfsService.DEFAULT_BOARD;
+        SseEmitter emitter = new SseEmitter();
+        when(gtfsService.getBoard(board.id())).thenReturn(board);
+        when(boardEventPublisher.subscribe(board)).thenReturn(emitter);
+
+        assertSame(emitter, controller.events(board.id()), "Should return the emitter of the subscription");
+    }
+
+    @Test
+    void events_shouldThrowNotFoundForUnknownBoard() {
+        when(gtfsService.getBoard("unknown")).thenReturn(null);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> controller.events("unknown"));
+        assertEquals(404, exception.getStatusCode().value(), "Unknown board should give 404");
+    }
+
+    @Test
+    void departures_shouldReturnDeparturesWithETag() {
+        Departure departure = new Departure(GtfsService.STOP_ID_TRAM_FROM_LILJEHOLMEN, LocalDate.of(2025, 8, 6), "10:35", 60, "Liljeholmen", "trip", null, null);
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        when(reportCache.get(GtfsService.DEFAULT_BOARD)).thenReturn(new ReportCache.Reports(
+                List.of(List.of(departure), List.of()), List.of(), "\"abc\""));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        ResponseEntity<GtfsController.BoardDepartures> response =
+                controller.departures(null, null, new ServletWebRequest(request, new MockHttpServletResponse()));
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("\"abc\"", response.getHeaders().getETag());
+        assertEquals(new GtfsController.BoardDepartures("default", List.of(departure)), response.getBody());
+    }
+
+    @Test
+    void nextDepartures_shouldReturnNextDeparturesOfEachStop() {
+        LocalDateTime now = LocalDateTime.of(2025, 8, 8, 23, 50);
+        Departure departure = new Departure(GtfsService.STOP_ID_TRAM_FROM_LILJEHOLMEN, LocalDate.of(2025, 8, 9), "00:20", 0,
+                "Liljeholmen", "trip", null, null);
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(now);
+        when(gtfsService.getNextDepartures(GtfsService.DEFAULT_BOARD, now, 5, Duration.ofHours(2)))
+                .thenReturn(List.of(List.of(departure), List.of()));
+
+        assertEquals(new GtfsController.BoardDepartures("default", List.of(departure)),
+                controller.nextDepartures(null, 5, 120));
+    }
+
+    @Test
+    void nextDepartures_shouldRejectInvalidLimitOrHorizon() {
+        for (int[] invalid : new int[][]{{0, 60}, {101, 60}, {10, 0}, {10, 1441}}) {
+            ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                    () -> controller.nextDepartures(null, invalid[0], invalid[1]));
+            assertEquals(400, exception.getStatusCode().value(), "Invalid parameters should give 400: " + Arrays.toString(invalid));
+        }
+    }
+
+    @Test
+    void departures_shouldFilterByMode() {
+        Departure tram = new Departure(GtfsService.STOP_ID_TRAM_FROM_LILJEHOLMEN, LocalDate.of(2025, 8, 6), "10:35", 0, "Sickla", "trip1",
+                "Tvärbanan 30", TransportMode.TRAM);
+        Departure bus = new Departure(GtfsService.STOP_ID_BUS_TO_LILJEHOLMEN, LocalDate.of(2025, 8, 6), "10:36", 0, "Liljeholmen", "trip2",
+                "Buss 134", TransportMode.BUS);
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        when(reportCache.get(GtfsService.DEFAULT_BOARD)).thenReturn(new ReportCache.Reports(
+                List.of(List.of(tram), List.of(bus)), List.of(), "\"abc\""));
+
+        ResponseEntity<GtfsController.BoardDepartures> response = controller.departures(null, "bus",
+                new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse()));
+
+        assertEquals(List.of(bus), response.getBody().departures());
+        assertEquals("\"abc-bus\"", response.getHeaders().getETag(), "Each mode should have its own ETag");
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> controller.departures(
+                null, "zeppelin", new ServletWebRequest(new MockHttpServletRequest(), new MockHttpServletResponse())));
+        assertEquals(400, exception.getStatusCode().value(), "Unknown mode should give 400");
+    }
+
+    @Test
+    void departures_shouldAnswerNotModifiedForMatchingETag() {
+        when(gtfsService.getDefaultBoard()).thenReturn(GtfsService.DEFAULT_BOARD);
+        when(reportCache.get(GtfsService.DEFAULT_BOARD)).thenReturn(new ReportCache.Reports(
+                List.of(), List.of(), "\"abc\""));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/departures");
+        request.addHeader("If-None-Match", "\"abc\"");
+        MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+
+        ResponseEntity<GtfsController.BoardDepartures> response =
+                controller.departures(null, null, new ServletWebRequest(request, servletResponse));
+
+        assertNull(response, "Matching ETag should not build a response");
+        assertEquals(304, servletResponse.getStatus(), "Matching ETag should give 304");
+    }
+
+    @Test
+    void reload_shouldOnlyBeAvailableWhenEnabled() {
+        ReloadResult result = new ReloadResult(true, "Reloaded GTFS feed", 10, 0, 0, 1, 1);
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> controller.reload());
+        assertEquals(404, exception.getStatusCode().value(), "Reload should be disabled by default");
+
+        properties.getReload().setEndpoint(true);
+        when(gtfsService.reload()).thenReturn(result);
+
+        assertSame(result, controller.reload());
+    }
+
+    @Test
+    void journeys_shouldOnlyBeAvailableWhenEnabled() {
+        LocalDateTime now = LocalDateTime.of(2025, 8, 6, 10, 30);
+        List<Journey> journeys = List.of(new Journey(now.plusMinutes(5), now.plusMinutes(20), 0, List.of()));
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> controller.journeys("A", "B", null, 0, 3));
+        assertEquals(404, exception.getStatusCode().value(), "Journeys should be disabled by default");
+
+        properties.getRouting().setEnabled(true);
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(now);
+        when(gtfsService.planJourneys("A", "B", LocalDateTime.of(2025, 8, 6, 8, 0), Duration.ofMinutes(60), 2))
+                .thenReturn(journeys);
+        when(gtfsService.planJourneys(eq("A"), eq("unknown"), any(), any(), eq(3)))
+                .thenThrow(new IllegalArgumentException("Unknown stop: unknown"));
+
+        assertSame(journeys, controller.journeys("A", "B", LocalTime.of(8, 0), 60, 2));
+        assertEquals(404, assertThrows(ResponseStatusException.class,
+                () -> controller.journeys("A", "unknown", null, 0, 3)).getStatusCode().value(), "Unknown stop should give 404");
+        assertEquals(400, assertThrows(ResponseStatusException.class,
+                () -> controller.journeys("A", "B", null, 0, JourneyPlanner.MAX_TRANSFERS + 1)).getStatusCode().value());
     }
 }
@@ -0,0 +1,150 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsCsvReaderTest {
+
+    private static final String STOPS = "﻿stop_id,stop_name,stop_lat,stop_lon,location_type,parent_station\r\n"
+            + "9021001015865000,\"Folkets hus, Ölsta\",59.403318,17.656728,1,\r\n"
+            + "\r\n"
+            + "9022001015865001,\"Say \"\"hi\"\"\nthere\",59.402900,17.656714,0,9021001015865000";
+
+    @Test
+    void next_shouldHandleQuotedFieldsByteOrderMarkAndBlankLines() throws IOException {
+        try (GtfsCsvReader reader = GtfsCsvReader.open(ByteBuffer.wrap(STOPS.getBytes(StandardCharsets.UTF_8)))) {
+            int stopId = reader.requiredColumn("stop_id");
+            int stopName = reader.requiredColumn("stop_name");
+            int parentStation = reader.requiredColumn("parent_station");
+
+            assertTrue(reader.next(), "First row should be read");
+            assertEquals("9021001015865000", reader.getString(stopId), "Byte order mark should not be part of the first column");
+            assertEquals("Folkets hus, Ölsta", reader.getString(stopName), "Quoted comma should stay in the field");
+            assertTrue(reader.isEmpty(parentStation), "Empty last field should be empty");
+
+            assertTrue(reader.next(), "Blank line should be skipped");
+            assertEquals("Say \"hi\"\nthere", reader.getString(stopName), "Escaped quotes and line breaks should be kept");
+            assertTrue(reader.fieldEquals(parentStation, "9021001015865000".getBytes(StandardCharsets.US_ASCII)));
+            assertFalse(reader.fieldEquals(stopId, "9021001015865000".getBytes(StandardCharsets.US_ASCII)));
+
+            assertFalse(reader.next(), "There should be no more rows");
+            assertEquals(2, reader.rowCount(), "Header and blank lines should not be counted");
+        }
+    }
+
+    @Test
+    void requiredColumn_shouldThrowWhenColumnMissing() throws IOException {
+        try (GtfsCsvReader reader = GtfsCsvReader.open(ByteBuffer.wrap(STOPS.getBytes(StandardCharsets.UTF_8)))) {
+            assertEquals(-1, reader.column("platform_code"), "Missing optional column should be -1");
+            assertThrows(IllegalStateException.class, () -> reader.requiredColumn("platform_code"));
+        }
+    }
+
+    @Test
+    void getters_shouldParseNumbersAndTimes() throws IOException {
+        String csv = "trip_id,departure_time,date\n14010000690947328,25:38:00,20250908\n";
+        try (GtfsCsvReader reader = GtfsCsvReader.open(ByteBuffer.wrap(csv.getBytes(StandardCharsets.US_ASCII)))) {
+            assertTrue(reader.next());
+            assertEquals(14010000690947328L, reader.getLong(0));
+            assertEquals(ServiceTime.of(25, 38, 0), reader.getServiceTime(1));
+            assertEquals(20250908, reader.getInt(2));
+            assertThrows(IllegalArgumentException.class, () -> reader.getInt(1), "Time is not a number");
+            assertThrows(IllegalArgumentException.class, () -> reader.getServiceTime(-1), "Missing column has no time");
+            assertThrows(IllegalArgumentException.class, () -> reader.getServiceTime(3), "Missing field has no time");
+            assertThrows(IllegalArgumentException.class, () -> reader.getLong(-1), "Missing column is not a number");
+            assertThrows(IllegalArgumentException.class, () -> reader.getFixedPoint(-1, 6));
+            assertEquals("", reader.getString(-1));
+        }
+    }
+
+    @Test
+    void getFixedPoint_shouldScaleSignedDecimals() throws IOException {
+        String csv = "stop_lat,stop_lon,other\n59.307482,-18.0286219,18\n";
+        try (GtfsCsvReader reader = GtfsCsvReader.open(ByteBuffer.wrap(csv.getBytes(StandardCharsets.US_ASCII)))) {
+            assertTrue(reader.next());
+            assertEquals(59307482, reader.getFixedPoint(0, 6));
+            assertEquals(-18028621, reader.getFixedPoint(1, 6), "Further decimals should be truncated");
+            assertEquals(18000000, reader.getFixedPoint(2, 6), "Integers should be scaled");
+            assertThrows(IllegalArgumentException.class, () -> reader.getFixedPoint(3, 6), "Missing field is not a number");
+        }
+    }
+
+    @Test
+    void open_shouldStreamInputLargerThanBufferAndLongRows() throws IOException {
+        StringBuilder csv = new StringBuilder("id,value\n");
+        int rows = 20_000;
+        for (int i = 0; i < rows; i++) {
+            csv.append(i).append(",row").append(i).append('\n');
+        }
+        String longValue = "x".repeat(200_000);
+        csv.append("last,\"").append(longValue).append('"');
+
+        try (GtfsCsvReader reader = GtfsCsvReader.open(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.US_ASCII)))) {
+            for (int i = 0; i < rows; i++) {
+                assertTrue(reader.next(), "Row " + i + " should be read");
+                assertEquals(i, reader.getInt(0));
+                assertEquals("row" + i, reader.getString(1));
+            }
+            assertTrue(reader.next(), "Row longer than the buffer should be read");
+            assertEquals(longValue, reader.getString(1));
+            assertFalse(reader.next());
+            assertEquals(csv.length(), reader.bytesConsumed(), "All bytes should be consumed");
+        }
+    }
+
+    @Test
+    void open_shouldMemoryMapFiles(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("stops.txt");
+        Files.writeString(file, STOPS, StandardCharsets.UTF_8);
+
+        try (GtfsCsvReader reader = GtfsCsvReader.open(file)) {
+            assertTrue(reader.next());
+            assertEquals("Folkets hus, Ölsta", reader.getString(reader.requiredColumn("stop_name")));
+        }
+    }
+
+    @Test
+    void split_shouldCoverAllRowsInOrderAtLineBoundaries() throws IOException {
+        StringBuilder csv = new StringBuilder("id,value\n");
+        int rows = 1000;
+        for (int i = 0; i < rows; i++) {
+            csv.append(i).append(",\"value, ").append(i).append("\"\r\n");
+        }
+
+        try (GtfsCsvReader reader = GtfsCsvReader.open(ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.US_ASCII)))) {
+            List<GtfsCsvReader> chunks = reader.split(7, 100);
+
+            assertEquals(7, chunks.size(), "Input should be split into the requested number of chunks");
+            int expected = 0;
+            for (GtfsCsvReader chunk : chunks) {
+                int value = chunk.requiredColumn("value");
+                while (chunk.next()) {
+                    assertEquals(expected, chunk.getInt(0), "Rows should be read in file order");
+                    assertEquals("value, " + expected, chunk.getString(value));
+                    expected++;
+                }
+            }
+            assertEquals(rows, expected, "Every row should be in exactly one chunk");
+            assertFalse(reader.next(), "Split reader should have no rows left");
+        }
+    }
+
+    @Test
+    void split_shouldKeepStreamsAndSmallInputsInOneChunk() throws IOException {
+        try (GtfsCsvReader stream = GtfsCsvReader.open(new ByteArrayInputStream(STOPS.getBytes(StandardCharsets.UTF_8)));
+             GtfsCsvReader small = GtfsCsvReader.open(ByteBuffer.wrap(STOPS.getBytes(StandardCharsets.UTF_8)))) {
+            assertEquals(List.of(stream), stream.split(4, 1), "Streams cannot be split");
+            assertEquals(List.of(small), small.split(4, 1024 * 1024), "Small inputs should not be split");
+        }
+    }
+}
@@ -1,15 +1,32 @@
 package com.ocklund.gtfs;
 
+import com.google.transit.realtime.GtfsRealtime;
+import com.ocklund.gtfs.configuration.GtfsProperties;
 import com.ocklund.gtfs.configuration.TimeProvider;
+import com.ocklund.gtfs.configuration.ZipFeedSource;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static com.ocklund.gtfs.GtfsService.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -21,6 +38,8 @@ class GtfsServiceTest {
 
     @Mock
     private TimeProvider timeProvider;
+    @Spy
+    private GtfsProperties properties = new GtfsProperties();
     @InjectMocks
     private GtfsService gtfsService;
     
@@ -50,17 +69,228 @@ class GtfsServiceTest {
         gtfsService.setStopTimesMap(stopTimesMap);
         gtfsService.setTripsMap(tripsMap);
         gtfsService.setActiveServiceIds(activeServiceIds);
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
         
         List<String> reports = gtfsService.getStopReports();
         
         assertNotNull(reports, "Reports should not be null");
         assertEquals(4, reports.size(), "There should be 4 reports (one for each target stop)");
-        for (String report : reports) {
-            assertNotNull(report, "Report should not be null");
-            assertFalse(report.isEmpty(), "Report should not be empty");
+        for (int i = 0; i < stopIds.length; i++) {
+            assertEquals("10:35 → Destination " + stopIds[i] + "<br>", reports.get(i),
+                    "Report should list the departure inside the time window");
         }
     }
+
+    @Test
+    void getStopReports_shouldOnlyListActiveDeparturesInsideWindowOncePerMinute() {
+        String stopId = STOP_ID_BUS_TO_LILJEHOLMEN;
+        List<StopTime> stopTimes = new ArrayList<>(List.of(
+                new StopTime("late", stopId, "10:50:00", "10:50:00", "Too late"),
+                new StopTime("inactive", stopId, "10:36:00", "10:36:00", "Inactive"),
+                new StopTime("second", stopId, "10:40:30", "10:40:30", "Same minute"),
+                new StopTime("first", stopId, "10:40:00", "10:40:00", "Liljeholmen"),
+                new StopTime("past", stopId, "10:29:00", "10:29:00", "Already gone")
+        ));
+        Map<String, Trip> tripsMap = new HashMap<>();
+        for (StopTime stopTime : stopTimes) {
+            String serviceId = "inactive".equals(stopTime.tripId()) ? "off" : "on";
+            tripsMap.put(stopTime.tripId(), new Trip(stopTime.tripId(), serviceId));
+        }
+        gtfsService.setStopTimesMap(Map.of(stopId, stopTimes));
+        gtfsService.setTripsMap(tripsMap);
+        gtfsService.setActiveServiceIds(Set.of("on"));
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+
+        List<String> reports = gtfsService.getStopReports();
+
+        assertEquals("10:40 → Liljeholmen<br>", reports.get(3), "Only the first active departure in the window should be listed");
+        assertTrue(reports.get(0).startsWith("Inga avgångar"), "Stops without stop times should report no departures");
+    }
     
+    @Test
+    void getStopReports_shouldReadOneTimetableWhileItIsReplaced() throws Exception {
+        Timetable[] timetables = new Timetable[2];
+        for (int t = 0; t < timetables.length; t++) {
+            Map<String, List<StopTime>> stopTimesMap = new HashMap<>();
+            for (String stopId : DEFAULT_BOARD.stopIds()) {
+                stopTimesMap.put(stopId, List.of(new StopTime("trip", stopId, "10:35:00", "10:35:00", "Timetable " + t)));
+            }
+            gtfsService.setStopTimesMap(stopTimesMap);
+            gtfsService.setTripsMap(Map.of("trip", new Trip("trip", "on")));
+            gtfsService.setActiveServiceIds(Set.of("on"));
+            timetables[t] = gtfsService.getTimetable();
+        }
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+
+        Thread swapper = Thread.ofPlatform().start(() -> {
+            for (int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+                gtfsService.setTimetable(timetables[i % 2]);
+            }
+        });
+        try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(readers.submit(() -> gtfsService.getStopReports()));
+            }
+            for (Future<List<String>> result : results) {
+                List<String> reports = result.get();
+                assertEquals(1, new HashSet<>(reports).size(), "All stops of a report should come from one timetable");
+            }
+        } finally {
+            swapper.interrupt();
+            swapper.join();
+        }
+    }
+
+    @Test
+    void getStopReports_shouldUsePreviousServiceDayForTimesPastMidnight() {
+        String stopId = STOP_ID_TRAM_FROM_LILJEHOLMEN;
+        gtfsService.setStopTimesMap(Map.of(stopId, new ArrayList<>(List.of(
+                new StopTime("yesterday", stopId, "24:05:00", "24:05:00", "Night tram"),
+                new StopTime("today", stopId, "00:10:00", "00:10:00", "Early tram"),
+                new StopTime("notRunning", stopId, "24:07:00", "24:07:00", "Not running")
+        ))));
+        gtfsService.setTripsMap(Map.of(
+                "yesterday", new Trip("yesterday", "weekdays"),
+                "today", new Trip("today", "weekends"),
+                "notRunning", new Trip("notRunning", "weekends")
+        ));
+        int weekdays = 0b0011111;
+        int weekends = 0b1100000;
+        gtfsService.setCalendar(ServiceCalendar.of(List.of(
+                new ServiceCalendar.Period("weekdays", weekdays, 20250801, 20250831),
+                new ServiceCalendar.Period("weekends", weekends, 20250801, 20250831)
+        ), List.of()));
+        // Saturday just after midnight: Friday's trips past 24:00 are still running
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 9, 0, 0));
+
+        List<String> reports = gtfsService.getStopReports();
+
+        assertEquals("00:05 → Night tram<br>00:10 → Early tram<br>", reports.get(0),
+                "Departures of both service days should be listed in time order");
+    }
+
+    @Test
+    void getNextDepartures_shouldMergeServiceDaysAcrossMidnight() {
+        String stopId = STOP_ID_TRAM_FROM_LILJEHOLMEN;
+        gtfsService.setStopTimesMap(Map.of(stopId, new ArrayList<>(List.of(
+                new StopTime("early", stopId, "05:30:00", "05:30:00", "Early tram"),
+                new StopTime("morning", stopId, "06:00:00", "06:00:00", "Weekday tram"),
+                new StopTime("late", stopId, "23:55:00", "23:55:00", "Late tram"),
+                new StopTime("night", stopId, "24:20:00", "24:20:00", "Night tram"),
+                new StopTime("sunday", stopId, "24:10:00", "24:10:00", "Sunday tram")
+        ))));
+        gtfsService.setTripsMap(Map.of(
+                "early", new Trip("early", "weekends"),
+                "morning", new Trip("morning", "weekdays"),
+                "late", new Trip("late", "weekdays"),
+                "night", new Trip("night", "weekdays"),
+                "sunday", new Trip("sunday", "weekends")
+        ));
+        gtfsService.setCalendar(ServiceCalendar.of(List.of(
+                new ServiceCalendar.Period("weekdays", 0b0011111, 20250801, 20250831),
+                new ServiceCalendar.Period("weekends", 0b1100000, 20250801, 20250831)
+        ), List.of()));
+        // Friday evening: Friday's trips past 24:00 and Saturday's first trips come next
+        LocalDateTime friday = LocalDateTime.of(2025, 8, 8, 23, 50);
+
+        List<Departure> departures = gtfsService.getNextDepartures(GtfsService.DEFAULT_BOARD, friday, 10,
+                Duration.ofDays(1)).get(0);
+
+        assertEquals(List.of("late", "night", "early"), departures.stream().map(Departure::tripId).toList(),
+                "Departures of all service days should be merged in time order");
+        assertEquals(List.of(LocalDate.of(2025, 8, 8), LocalDate.of(2025, 8, 9), LocalDate.of(2025, 8, 9)),
+                departures.stream().map(Departure::date).toList(), "Departures should have the date they leave");
+        assertEquals(List.of("23:55", "00:20", "05:30"), departures.stream().map(Departure::time).toList());
+        assertEquals(List.of("late", "night"), gtfsService.getNextDepartures(GtfsService.DEFAULT_BOARD, friday, 2,
+                        Duration.ofDays(1)).get(0).stream().map(Departure::tripId).toList(),
+                "Only the first departures should be returned");
+        assertEquals(List.of("late", "night"), gtfsService.getNextDepartures(GtfsService.DEFAULT_BOARD, friday, 10,
+                        Duration.ofMinutes(30)).get(0).stream().map(Departure::tripId).toList(),
+                "Departures after the horizon should be left out");
+        assertEquals(List.of("night", "early", "sunday"), gtfsService.getNextDepartures(GtfsService.DEFAULT_BOARD,
+                        friday.plusMinutes(25), 10, Duration.ofDays(1)).get(0).stream().map(Departure::tripId).toList(),
+                "Departures should be found in yesterday's timetable after midnight");
+    }
+
+    @Test
+    void getStopReports_shouldApplyRealtimeDelaysAndCancellations() {
+        String stopId = STOP_ID_BUS_TO_LILJEHOLMEN;
+        gtfsService.setStopTimesMap(Map.of(stopId, new ArrayList<>(List.of(
+                new StopTime("delayed", stopId, "10:25:00", "10:25:00", "Delayed"),
+                new StopTime("cancelled", stopId, "10:35:00", "10:35:00", "Cancelled"),
+                new StopTime("onTime", stopId, "10:40:00", "10:40:00", "On time"),
+                new StopTime("tooLate", stopId, "10:44:00", "10:44:00", "Too late")
+        ))));
+        Map<String, Trip> tripsMap = new HashMap<>();
+        for (String tripId : List.of("delayed", "cancelled", "onTime", "tooLate")) {
+            tripsMap.put(tripId, new Trip(tripId, "on"));
+        }
+        gtfsService.setTripsMap(tripsMap);
+        gtfsService.setActiveServiceIds(Set.of("on"));
+        GtfsRealtime.FeedMessage feed = GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(1754469000))
+                .addEntity(tripUpdate("delayed", 20 * 60))
+                .addEntity(GtfsRealtime.FeedEntity.newBuilder().setId("cancelled").setTripUpdate(
+                        GtfsRealtime.TripUpdate.newBuilder().setTrip(GtfsRealtime.TripDescriptor.newBuilder()
+                                .setTripId("cancelled")
+                                .setScheduleRelationship(GtfsRealtime.TripDescriptor.ScheduleRelationship.CANCELED))))
+                .addEntity(tripUpdate("tooLate", 2 * 60))
+                .addEntity(tripUpdate("unknownTrip", 60))
+                .build();
+        gtfsService.setRealtimeUpdates(new RealtimeIndex(gtfsService.getTimetable()).apply(feed, 1, 0));
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+
+        List<String> reports = gtfsService.getStopReports();
+
+        assertEquals("10:40 → On time<br>10:45 → Delayed<br>", reports.get(3),
+                "Departures should be shown at their expected time, without cancelled trips");
+        assertEquals(1, gtfsService.getRealtimeVersion());
+        assertEquals(List.of(
+                        new Departure(stopId, LocalDate.of(2025, 8, 6), "10:40", 0, "On time", "onTime", null, null),
+                        new Departure(stopId, LocalDate.of(2025, 8, 6), "10:45", 20 * 60, "Delayed", "delayed", null, null)),
+                gtfsService.getDepartures(GtfsService.DEFAULT_BOARD, LocalDateTime.of(2025, 8, 6, 10, 30)).get(3),
+                "Departures should have their expected time and delay");
+    }
+
+    @Test
+    void getNextDepartures_shouldApplyCancellationOnlyToTheRunOfItsStartDate() {
+        String stopId = STOP_ID_BUS_TO_LILJEHOLMEN;
+        gtfsService.setStopTimesMap(Map.of(stopId, new ArrayList<>(List.of(
+                new StopTime("early", stopId, "10:20:00", "10:20:00", "Early"),
+                new StopTime("later", stopId, "10:35:00", "10:35:00", "Later")
+        ))));
+        gtfsService.setTripsMap(Map.of("early", new Trip("early", "on"), "later", new Trip("later", "on")));
+        gtfsService.setActiveServiceIds(Set.of("on"));
+        GtfsRealtime.FeedMessage feed = GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(1754469000))
+                .addEntity(cancelledTomorrow("early"))
+                .addEntity(cancelledTomorrow("later"))
+                .build();
+        gtfsService.setRealtimeUpdates(new RealtimeIndex(gtfsService.getTimetable()).apply(feed, 1, 0));
+
+        List<Departure> departures = gtfsService.getNextDepartures(GtfsService.DEFAULT_BOARD,
+                LocalDateTime.of(2025, 8, 6, 10, 30), 10, Duration.ofDays(1)).get(3);
+
+        assertEquals(List.of("later"), departures.stream().map(Departure::tripId).toList(),
+                "Today's run should stay when tomorrow's is cancelled, and tomorrow's should be left out");
+    }
+
+    private static GtfsRealtime.FeedEntity cancelledTomorrow(String tripId) {
+        return GtfsRealtime.FeedEntity.newBuilder().setId(tripId).setTripUpdate(GtfsRealtime.TripUpdate.newBuilder()
+                .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId(tripId).setStartDate("20250807")
+                        .setScheduleRelationship(GtfsRealtime.TripDescriptor.ScheduleRelationship.CANCELED)))
+                .build();
+    }
+
+    static GtfsRealtime.FeedEntity tripUpdate(String tripId, int delay) {
+        return GtfsRealtime.FeedEntity.newBuilder().setId(tripId).setTripUpdate(GtfsRealtime.TripUpdate.newBuilder()
+                .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId(tripId))
+                .addStopTimeUpdate(GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder().setStopSequence(1)
+                        .setDeparture(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setDelay(delay))))
+                .build();
+    }
+
     @Test
     void parseGtfsTime_shouldReturnCorrectDateTimeOrThrowWhenInvalidFormat() {
         // Setup a fixed current date for testing
@@ -112,4 +342,299 @@ class GtfsServiceTest {
         boolean nearFutureResult = gtfsService.isOutsideTimeWindow(nearFutureTime);
         assertFalse(nearFutureResult, "Near future time (10 minutes ahead) should be inside time window");
     }
+
+    @Test
+    void init_shouldLoadFromZipFeed(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"));
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), new GtfsProperties());
+
+        service.init();
+
+        assertEquals("10:35 → Liljeholmen<br>", service.getStopReports().get(3), "Departure should be read from the archive");
+    }
+
+    @Test
+    void init_shouldWriteSnapshotAndLoadItOnNextStart(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"));
+        Path snapshotDirectory = directory.resolve("snapshot");
+        GtfsProperties properties = new GtfsProperties();
+        properties.getSnapshot().setDir(snapshotDirectory.toString());
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+
+        GtfsService first = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        first.init();
+        List<Path> snapshots;
+        try (var files = Files.list(snapshotDirectory)) {
+            snapshots = files.toList();
+        }
+        assertEquals(1, snapshots.size(), "One snapshot should be written after parsing the feed");
+
+        GtfsService second = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        second.init();
+        assertEquals(first.getStopReports(), second.getStopReports(), "Snapshot should give the same reports as the feed");
+
+        // A snapshot that cannot be read must not stop the feed from loading
+        Files.writeString(snapshots.get(0), "corrupt");
+        GtfsService third = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        third.init();
+        assertEquals(first.getStopReports(), third.getStopReports(), "Unreadable snapshot should fall back to the feed");
+    }
+
+    @Test
+    void init_shouldIndexStopsOfAllConfiguredBoards(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"));
+        GtfsProperties properties = new GtfsProperties();
+        properties.getBoards().put("station", board("Sjövikstorget", "9021001013905000"));
+        properties.getBoards().put("platform", board("Mot Liljeholmen", STOP_ID_BUS_TO_LILJEHOLMEN, "9022001000000001"));
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+
+        service.init();
+
+        assertEquals("station", service.getDefaultBoard().id(), "First configured board should be the default");
+        assertNull(service.getBoard("default"), "Built-in board should not be used when boards are configured");
+        assertEquals(List.of("10:35 → Liljeholmen<br>"), service.getStopReports(service.getBoard("station")),
+                "Parent station should include the stop times of its child stops");
+        assertEquals(List.of("10:35 → Liljeholmen<br>", "10:36 → Elsewhere<br>"),
+                service.getStopReports(service.getBoard("platform")), "Each board should show its own stops");
+    }
+
+    @Test
+    void constructor_shouldRejectBoardIdOfNearbyBoards() {
+        GtfsProperties properties = new GtfsProperties();
+        properties.getBoards().put("near:1", board("Sjövikstorget", "9021001013905000"));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new GtfsService(timeProvider, new ZipFeedSource(Path.of("sl.zip")), properties),
+                "Configured board should not share ids with boards near a location");
+    }
+
+    @Test
+    void reload_shouldReplaceTimetableOnlyWithValidFeed(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"));
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), new GtfsProperties());
+        service.init();
+        Timetable initial = service.getTimetable();
+
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            addEntry(out, "stops.txt", "stop_id,stop_name\n" + STOP_ID_BUS_TO_LILJEHOLMEN + ",Sjövikstorget\n");
+        }
+        ReloadResult rejected = service.reload();
+        assertFalse(rejected.swapped(), "Feed without departures should be rejected");
+        assertSame(initial, service.getTimetable(), "Rejected feed should keep the current timetable");
+
+        writeFeed(zip, "10:37:00");
+        ReloadResult reloaded = service.reload();
+        assertTrue(reloaded.swapped(), reloaded.message());
+        assertEquals(1, reloaded.departures(), "Only departures from the stops of the boards should be indexed");
+        assertEquals("10:37 → Liljeholmen<br>", service.getStopReports().get(3), "New feed should be used after the reload");
+    }
+
+    @Test
+    void getNearbyBoard_shouldShowNearestStationsWhenAllStopsAreIndexed(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"));
+        GtfsProperties properties = new GtfsProperties();
+        properties.getFeed().setIndexAllStops(true);
+        properties.getSnapshot().setDir(directory.resolve("snapshot").toString());
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        service.init();
+
+        Board board = service.getNearbyBoard(59.3075, 18.0286, 4);
+
+        assertEquals(List.of(new Board.Row("Sjövikstorget", List.of("9021001013905000"))), board.rows(),
+                "Platform should be shown as its station");
+        assertEquals(List.of("10:35 → Liljeholmen<br>"), service.getStopReports(board));
+        List<NearbyStop> stops = service.getNearbyStops(59.3075, 18.0286, 100, 10);
+        assertEquals(List.of(STOP_ID_BUS_TO_LILJEHOLMEN, "9021001013905000"), stops.stream().map(NearbyStop::stopId).toList());
+        assertEquals("9021001013905000", stops.get(0).parentStation());
+
+        GtfsService fromSnapshot = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        fromSnapshot.init();
+        assertEquals(stops, fromSnapshot.getNearbyStops(59.3075, 18.0286, 100, 10), "Snapshot should keep the locations");
+        assertEquals(List.of(new StopMatch("9021001013905000", "Sjövikstorget", List.of(STOP_ID_BUS_TO_LILJEHOLMEN))),
+                fromSnapshot.searchStops("sjovik", 10), "Snapshot should keep the location types");
+    }
+
+    @Test
+    void init_shouldKeepDeparturesOffHeapWhenConfigured(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"));
+        GtfsProperties properties = new GtfsProperties();
+        properties.getFeed().setIndexAllStops(true);
+        properties.getFeed().setOffHeap(true);
+        properties.getSnapshot().setDir(directory.resolve("snapshot").toString());
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        service.init();
+
+        Board board = new Board("all", List.of(new Board.Row("", List.of("9021001013905000", STOP_ID_BUS_TO_LILJEHOLMEN))));
+        assertEquals(List.of("10:35 → Liljeholmen<br>", "10:35 → Liljeholmen<br>"), service.getStopReports(board),
+                "Departures of the station and its platform should be read from direct memory");
+
+        GtfsService fromSnapshot = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        fromSnapshot.init();
+        assertTrue(fromSnapshot.getLoadMetrics().lastLoad().snapshot());
+        assertEquals(service.getStopReports(board), fromSnapshot.getStopReports(board),
+                "Departures should be read from the mapped snapshot");
+    }
+
+    @Test
+    void init_shouldRecordStatisticsOfEachFile(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"), "25:99:00");
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), new GtfsProperties());
+        service.init();
+
+        LoadMetrics.Load load = service.getLoadMetrics().lastLoad();
+        assertFalse(load.snapshot());
+        TimetableLoader.FileStats stopTimes = load.files().stream()
+                .filter(file -> file.file().equals("stop_times.txt")).findFirst().orElseThrow();
+        assertEquals(2, stopTimes.rows());
+        assertEquals(1, stopTimes.skippedRows(), "Stop time of a stop without a timeline should be skipped");
+        assertEquals(1, stopTimes.malformedRows(), "Invalid time should be counted");
+        assertTrue(stopTimes.bytes() > 0);
+        assertEquals(1, service.getLoadMetrics().malformedRows().get("stop_times.txt").sum());
+        assertEquals(5, load.files().size(), "Missing routes.txt should not be reported");
+    }
+
+    @Test
+    void init_shouldSkipMalformedCalendarRows(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"), "10:35:00", null,
+                "2,1,1,1,1,1,1,1,20250230,20250831\n3,x,1,1,1,1,1,1,20250801,20250831\n",
+                "1,20250230,1\n1,20250805,x\n1,20250806,1\n");
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), new GtfsProperties());
+        service.init();
+
+        assertEquals(List.of("10:35 → Liljeholmen<br>"), service.getStopReports(
+                new Board("b", List.of(new Board.Row("", List.of(STOP_ID_BUS_TO_LILJEHOLMEN))))),
+                "Rows after the malformed ones should be loaded");
+        Map<String, Long> malformed = service.getLoadMetrics().lastLoad().files().stream()
+                .collect(Collectors.toMap(TimetableLoader.FileStats::file, TimetableLoader.FileStats::malformedRows));
+        assertEquals(2, malformed.get("calendar.txt"), "Invalid date and weekday should be counted");
+        assertEquals(2, malformed.get("calendar_dates.txt"), "Invalid date and exception type should be counted");
+    }
+
+    @Test
+    void getDepartures_shouldShowLineAndModeOfTheRoute(@TempDir Path directory) throws IOException {
+        Path zip = writeFeed(directory.resolve("sl.zip"), "10:35:00", "route1,SL,134,,700,\n");
+        GtfsProperties properties = new GtfsProperties();
+        properties.getSnapshot().setDir(directory.resolve("snapshot").toString());
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        service.init();
+
+        Departure departure = service.getDepartures(GtfsService.DEFAULT_BOARD, LocalDateTime.of(2025, 8, 6, 10, 30)).get(3).get(0);
+        assertEquals("Buss 134", departure.line());
+        assertEquals(TransportMode.BUS, departure.mode());
+        assertEquals("10:35 Buss 134 → Liljeholmen<br>", service.getStopReports().get(3), "Report should show the line");
+
+        GtfsService fromSnapshot = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        fromSnapshot.init();
+        assertEquals("10:35 Buss 134 → Liljeholmen<br>", fromSnapshot.getStopReports().get(3), "Snapshot should keep the lines");
+    }
+
+    @Test
+    void planJourneys_shouldPlanBetweenStationsWhenRoutingIsEnabled(@TempDir Path directory) throws IOException {
+        Path zip = directory.resolve("sl.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            addEntry(out, "routes.txt", "route_id,agency_id,route_short_name,route_long_name,route_type,route_desc\n"
+                    + "route1,SL,134,,700,\n");
+            addEntry(out, "stops.txt", "stop_id,stop_name,stop_lat,stop_lon,location_type,parent_station,platform_code\n"
+                    + "9021001013905000,Sjövikstorget,59.307419,18.028688,1,,\n"
+                    + STOP_ID_BUS_TO_LILJEHOLMEN + ",Sjövikstorget,59.307482,18.028621,0,9021001013905000,\n"
+                    + "9021001004000000,Liljeholmen,59.310500,18.022800,1,,\n"
+                    + "9022001004000001,Liljeholmen,59.310600,18.022900,0,9021001004000000,\n");
+            addEntry(out, "stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign\n"
+                    + "trip1,10:35:00,10:35:00," + STOP_ID_BUS_TO_LILJEHOLMEN + ",1,Liljeholmen\n"
+                    + "trip1,10:44:00,10:45:00,9022001004000001,2,Liljeholmen\n");
+            addEntry(out, "trips.txt", "route_id,service_id,trip_id,trip_headsign,direction_id\n"
+                    + "route1,1,trip1,,0\n");
+            addEntry(out, "calendar.txt", "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+                    + "1,1,1,1,1,1,1,1,20250801,20250831\n");
+            addEntry(out, "calendar_dates.txt", "service_id,date,exception_type\n");
+        }
+        GtfsProperties properties = new GtfsProperties();
+        properties.getSnapshot().setDir(directory.resolve("snapshot").toString());
+        properties.getRouting().setEnabled(true);
+        when(timeProvider.now(any(ZoneId.class))).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        GtfsService service = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        service.init();
+
+        List<Journey> journeys = service.planJourneys("9021001013905000", "9021001004000000",
+                LocalDateTime.of(2025, 8, 6, 10, 30), Duration.ZERO, 3);
+        assertEquals(1, journeys.size());
+        Journey.Leg leg = journeys.get(0).legs().get(0);
+        assertEquals(new Journey.Leg(STOP_ID_BUS_TO_LILJEHOLMEN, "Sjövikstorget", "9022001004000001", "Liljeholmen",
+                LocalDateTime.of(2025, 8, 6, 10, 35), LocalDateTime.of(2025, 8, 6, 10, 44), "trip1", "Buss 134",
+                TransportMode.BUS), leg, "Stations should include their platforms");
+        assertEquals(LocalDateTime.of(2025, 8, 7, 10, 44), service.planJourneys("9021001013905000", "9021001004000000",
+                        LocalDateTime.of(2025, 8, 6, 10, 40), Duration.ZERO, 3).get(0).arrival(),
+                "Tomorrow's trip should be taken when today's has left");
+        assertThrows(IllegalArgumentException.class, () -> service.planJourneys("unknown", "9021001004000000",
+                LocalDateTime.of(2025, 8, 6, 10, 30), Duration.ZERO, 3));
+
+        GtfsService fromSnapshot = new GtfsService(timeProvider, new ZipFeedSource(zip), properties);
+        fromSnapshot.init();
+        assertEquals(journeys, fromSnapshot.planJourneys("9021001013905000", "9021001004000000",
+                LocalDateTime.of(2025, 8, 6, 10, 30), Duration.ofHours(1), 3), "Snapshot should keep the network");
+    }
+
+    private static GtfsProperties.Board board(String title, String... stopIds) {
+        GtfsProperties.Row row = new GtfsProperties.Row();
+        row.setTitle(title);
+        row.setStops(List.of(stopIds));
+        GtfsProperties.Board board = new GtfsProperties.Board();
+        board.setRows(List.of(row));
+        return board;
+    }
+
+    private static Path writeFeed(Path zip) throws IOException {
+        return writeFeed(zip, "10:35:00");
+    }
+
+    private static Path writeFeed(Path zip, String departureTime) throws IOException {
+        return writeFeed(zip, departureTime, null);
+    }
+
+    /**
+     * @param routes Rows of routes.txt, or null to leave the file out
+     */
+    private static Path writeFeed(Path zip, String departureTime, String routes) throws IOException {
+        return writeFeed(zip, departureTime, routes, "", "1,20250806,1\n");
+    }
+
+    /**
+     * @param periods Rows of calendar.txt besides the period of service 1
+     * @param exceptions Rows of calendar_dates.txt
+     */
+    private static Path writeFeed(Path zip, String departureTime, String routes, String periods, String exceptions)
+            throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            if (routes != null) {
+                addEntry(out, "routes.txt", "route_id,agency_id,route_short_name,route_long_name,route_type,route_desc\n" + routes);
+            }
+            addEntry(out, "stops.txt", "stop_id,stop_name,stop_lat,stop_lon,location_type,parent_station,platform_code\n"
+                    + "9021001013905000,Sjövikstorget,59.307419,18.028688,1,,\n"
+                    + STOP_ID_BUS_TO_LILJEHOLMEN + ",Sjövikstorget,59.307482,18.028621,0,9021001013905000,\n");
+            addEntry(out, "stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign\n"
+                    + "trip1," + departureTime + "," + departureTime + "," + STOP_ID_BUS_TO_LILJEHOLMEN + ",5,Liljeholmen\n"
+                    + "trip2,10:36:00,10:36:00,9022001000000001,1,Elsewhere\n");
+            addEntry(out, "trips.txt", "route_id,service_id,trip_id,trip_headsign,direction_id\n"
+                    + "route1,1,trip1,,0\n"
+                    + "route1,1,trip2,,0\n");
+            addEntry(out, "calendar.txt", "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+                    + "1,0,0,0,0,0,0,0,20250801,20250831\n" + periods);
+            addEntry(out, "calendar_dates.txt", "service_id,date,exception_type\n" + exceptions);
+        }
+        return zip;
+    }
+
+    private static void addEntry(ZipOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
 }
@@ -0,0 +1,57 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdTableTest {
+
+    @Test
+    void intern_shouldAssignDenseIdsInOrderOfFirstUse() {
+        IdTable table = new IdTable(2);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.intern("stop" + i), "New values should get the next id");
+        }
+        assertEquals(1000, table.size(), "Table should grow past its expected size");
+        assertEquals(17, table.intern("stop17"), "Known value should keep its id");
+        assertEquals(999, table.find("stop999"));
+        assertEquals(-1, table.find("stop1000"), "Unknown value should not be found");
+        assertEquals("Årstadal", table.get(table.intern("Årstadal")), "Non-ASCII values should round-trip");
+    }
+
+    @Test
+    void find_shouldMatchFieldsOfTheCurrentRowWithoutDecoding() throws IOException {
+        IdTable table = IdTable.of(new String[]{"9022001013905002", "Say \"hi\"", ""});
+        String csv = "stop_id,stop_headsign,platform_code\n"
+                + "9022001013905002,\"Say \"\"hi\"\"\",\n"
+                + "9022001013905001,Sjövikstorget,1\n";
+        try (GtfsCsvReader reader = GtfsCsvReader.open(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)))) {
+            assertTrue(reader.next());
+            assertEquals(0, table.find(reader, 0), "Plain field should be found by its bytes");
+            assertEquals(1, table.find(reader, 1), "Escaped field should be found by its value");
+            assertEquals(2, table.find(reader, 2), "Empty field should match the empty value");
+
+            assertTrue(reader.next());
+            assertEquals(-1, table.find(reader, 0), "Unknown field should not be found");
+            int id = table.intern(reader, 1);
+            assertEquals(3, id, "Unknown field should be added");
+            assertEquals("Sjövikstorget", table.get(id));
+            assertEquals(id, table.find("Sjövikstorget"), "Field added from a row should be found by its string");
+        }
+    }
+
+    @Test
+    void copy_shouldNotChangeTheOriginal() {
+        IdTable table = IdTable.of(new String[]{"a", "b"});
+        IdTable copy = table.copy();
+        copy.intern("c");
+
+        assertEquals(2, table.size(), "Original should keep its values");
+        assertEquals(-1, table.find("c"));
+        assertArrayEquals(new String[]{"a", "b", "c"}, copy.toArray());
+    }
+}
@@ -0,0 +1,139 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JourneyPlannerTest {
+
+    // Stops A to D about a kilometre apart on a line north, and B2 about 55 metres from B
+    private static final String[] STOP_IDS = {"A", "B", "B2", "C", "D"};
+    private static final int[] LATITUDES = {59_300_000, 59_310_000, 59_310_500, 59_320_000, 59_330_000};
+    private static final String[] TRIP_IDS = {"toB", "laterToB", "fromB2", "direct", "night"};
+    private static final LocalDate DATE = LocalDate.of(2025, 8, 6);
+
+    private final JourneyPlanner planner = new JourneyPlanner(timetable());
+
+    private static Timetable timetable() {
+        StopIndex stopIndex = new StopIndex(LATITUDES, new int[]{18_000_000, 18_000_000, 18_000_000, 18_000_000, 18_000_000},
+                IdTable.of(STOP_IDS), new int[]{0, 1, 2, 3, 4}, new byte[STOP_IDS.length]);
+        TransitNetwork.Builder network = new TransitNetwork.Builder();
+        // Stop times in any order, with stop sequences that do not start at 1
+        network.add(0, 2, 1, time(10, 10), time(10, 10));
+        network.add(0, 1, 0, time(10, 0), time(10, 0));
+        network.add(1, 1, 0, time(10, 30), time(10, 30));
+        network.add(1, 2, 1, time(10, 40), time(10, 40));
+        network.add(2, 5, 2, time(10, 15), time(10, 15));
+        network.add(2, 6, 3, time(10, 25), time(10, 25));
+        network.add(3, 1, 0, time(10, 5), time(10, 5));
+        network.add(3, 2, 3, time(10, 50), time(10, 50));
+        // After midnight on the trip's service day
+        network.add(4, 1, 3, time(24, 30), time(24, 30));
+        network.add(4, 2, 4, time(24, 40), time(24, 40));
+        // All trips run on the date only
+        ServiceCalendar calendar = ServiceCalendar.of(List.of(new ServiceCalendar.Period("1", 0b1111111, 20250806, 20250806)),
+                List.of());
+        int[] tripServices = new int[TRIP_IDS.length];
+        int[] tripLines = new int[TRIP_IDS.length];
+        Arrays.fill(tripLines, -1);
+        return new Timetable(IdTable.of(STOP_IDS), new int[]{-1, -1, -1, -1, -1}, IdTable.of(TRIP_IDS), tripServices,
+                tripLines, Lines.EMPTY, new IdTable(), Map.of(), calendar, stopIndex,
+                network.build(TRIP_IDS.length, stopIndex));
+    }
+
+    private static int time(int hours, int minutes) {
+        return ServiceTime.of(hours, minutes, 0);
+    }
+
+    @Test
+    void earliestArrival_shouldChangeTripsAndWalkBetweenStops() {
+        Journey journey = planner.earliestArrival(new int[]{0}, new int[]{3}, DATE, time(9, 55), 3);
+
+        assertEquals(List.of("toB", "fromB2"), journey.legs().stream().map(Journey.Leg::tripId).filter(trip -> trip != null).toList(),
+                "Changing to the trip from B2 should arrive before the direct trip");
+        assertEquals(List.of("A", "B", "B2"), journey.legs().stream().map(Journey.Leg::fromStopId).toList());
+        assertNull(journey.legs().get(1).tripId(), "The walk between B and B2 should have no trip");
+        assertEquals("B2", journey.legs().get(1).toName());
+        assertEquals(LocalDateTime.of(2025, 8, 6, 10, 0), journey.departure());
+        assertEquals(LocalDateTime.of(2025, 8, 6, 10, 25), journey.arrival());
+        assertEquals(1, journey.transfers());
+    }
+
+    @Test
+    void earliestArrival_shouldRespectMaxTransfers() {
+        Journey journey = planner.earliestArrival(new int[]{0}, new int[]{3}, DATE, time(9, 55), 0);
+
+        assertEquals(List.of("direct"), journey.legs().stream().map(Journey.Leg::tripId).toList());
+        assertEquals(LocalDateTime.of(2025, 8, 6, 10, 50), journey.arrival());
+        assertEquals(0, journey.transfers());
+    }
+
+    @Test
+    void earliestArrival_shouldRideTripsOfYesterdaysServicesAfterMidnight() {
+        Journey journey = planner.earliestArrival(new int[]{3}, new int[]{4}, DATE.plusDays(1), time(0, 20), 3);
+
+        assertNotNull(journey, "Trip of yesterday's service should run after midnight");
+        assertEquals(LocalDateTime.of(2025, 8, 7, 0, 30), journey.departure());
+        assertEquals(LocalDateTime.of(2025, 8, 7, 0, 40), journey.arrival());
+        assertEquals(journey, planner.earliestArrival(new int[]{3}, new int[]{4}, DATE, time(23, 0), 3),
+                "The same trip should be found before midnight");
+        assertNull(planner.earliestArrival(new int[]{3}, new int[]{4}, DATE.plusDays(1), time(23, 0), 3),
+                "No trip should run the next evening");
+    }
+
+    @Test
+    void earliestArrival_shouldReturnNullWithoutJourney() {
+        assertNull(planner.earliestArrival(new int[]{4}, new int[]{0}, DATE, time(9, 0), 3));
+        assertNull(planner.earliestArrival(new int[]{0}, new int[]{3}, DATE, time(11, 0), 3), "No trip should be left");
+    }
+
+    @Test
+    void range_shouldReturnJourneysThatNoLaterJourneyBeats() {
+        List<Journey> journeys = planner.range(new int[]{0}, new int[]{3}, DATE, time(9, 55), time(10, 35), 3);
+
+        assertEquals(List.of(LocalDateTime.of(2025, 8, 6, 10, 0), LocalDateTime.of(2025, 8, 6, 10, 5)),
+                journeys.stream().map(Journey::departure).toList());
+        assertEquals(List.of(LocalDateTime.of(2025, 8, 6, 10, 25), LocalDateTime.of(2025, 8, 6, 10, 50)),
+                journeys.stream().map(Journey::arrival).toList());
+    }
+
+    @Test
+    void build_shouldSplitTripsThatOvertakeIntoPatterns() {
+        StopIndex stopIndex = new StopIndex(LATITUDES, new int[5], IdTable.of(STOP_IDS), new int[5], new byte[5]);
+        TransitNetwork.Builder builder = new TransitNetwork.Builder();
+        // Two slow trips and an express that leaves between them and overtakes the first
+        builder.add(0, 1, 0, time(10, 0), time(10, 0));
+        builder.add(0, 2, 3, time(10, 30), time(10, 30));
+        builder.add(1, 1, 0, time(10, 5), time(10, 5));
+        builder.add(1, 2, 3, time(10, 20), time(10, 20));
+        builder.add(2, 1, 0, time(10, 10), time(10, 10));
+        builder.add(2, 2, 3, time(10, 40), time(10, 40));
+
+        TransitNetwork network = builder.build(3, stopIndex);
+
+        assertEquals(2, network.patternCount(), "The express should have a pattern of its own");
+        assertEquals(2, network.tripCount(0));
+        assertEquals(0, network.trip(0, 0));
+        assertEquals(2, network.trip(0, 1));
+        assertEquals(1, network.trip(1, 0));
+        assertEquals(1, network.firstDepartureAtOrAfter(0, 0, time(10, 1)));
+        assertTrue(network.isServed(3));
+        assertFalse(network.isServed(1));
+    }
+
+    @Test
+    void build_shouldConnectStopsWithinWalkingDistance() {
+        TransitNetwork network = timetable().network();
+
+        assertEquals(1, network.walkStart(2) - network.walkStart(1), "B should only be near B2");
+        assertEquals(2, network.walkStop(network.walkStart(1)));
+        assertEquals(60 + 47, network.walkSeconds(network.walkStart(1)), 2, "55 metres should take about 47 seconds and a minute");
+        assertEquals(0, network.walkStart(1) - network.walkStart(0), "A should have no stop near it");
+    }
+}
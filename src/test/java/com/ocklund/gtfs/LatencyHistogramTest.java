@@ -0,0 +1,39 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucket_shouldHoldItsLowestValue() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextLong(Long.MAX_VALUE) >>> random.nextInt(63);
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.lowestValue(bucket) <= value, "Bucket of " + value);
+            assertTrue(LatencyHistogram.bucket(LatencyHistogram.lowestValue(bucket)) == bucket, "Bucket of " + value);
+        }
+        assertEquals(LatencyHistogram.bucket(Long.MAX_VALUE), LatencyHistogram.bucket(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    void quantiles_shouldBeWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        long[] quantiles = histogram.quantiles(0.5, 0.99, 0.999);
+
+        assertEquals(500_000, quantiles[0], 500_000 / 16.0, "Median");
+        assertEquals(990_000, quantiles[1], 990_000 / 16.0, "99th percentile");
+        assertEquals(999_000, quantiles[2], 999_000 / 16.0, "99.9th percentile");
+        assertEquals(1000, histogram.count());
+        assertEquals(500_500_000L, histogram.sum());
+        assertArrayEquals(new long[]{0}, new LatencyHistogram().quantiles(0.5), "Empty histogram should give 0");
+    }
+}
@@ -0,0 +1,41 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinesTest {
+
+    @Test
+    void name_shouldNameLinesAsOnTheBoard() {
+        assertEquals("Buss 133", Lines.name("133", "", "", TransportMode.of(700)));
+        assertEquals("Tvärbanan 30", Lines.name("30", "Tvärbanan", "Tvärbanan", TransportMode.of(900)));
+        assertEquals("Tunnelbana 17", Lines.name("17", "Gröna linjen", "tunnelbanans gröna linje", TransportMode.of(401)));
+        assertEquals("Tåg 40", Lines.name("40", "", "Pendeltåg", TransportMode.of(100)));
+        assertEquals("Djurgårdsfärjan", Lines.name("", "Djurgårdsfärjan", "Pendelbåt", TransportMode.of(1000)));
+    }
+
+    @Test
+    void of_shouldMapBasicAndExtendedRouteTypes() {
+        assertEquals(TransportMode.TRAM, TransportMode.of(0));
+        assertEquals(TransportMode.BUS, TransportMode.of(3));
+        assertEquals(TransportMode.FERRY, TransportMode.of(4));
+        assertEquals(TransportMode.RAIL, TransportMode.of(109));
+        assertEquals(TransportMode.METRO, TransportMode.of(401));
+        assertEquals(TransportMode.BUS, TransportMode.of(717));
+        assertEquals(TransportMode.FERRY, TransportMode.of(1000));
+        assertEquals(TransportMode.OTHER, TransportMode.of(1300));
+    }
+
+    @Test
+    void builder_shouldMergeRoutesWithTheSameName() {
+        Lines.Builder builder = new Lines.Builder();
+        int first = builder.add("Tvärbanan 30", TransportMode.TRAM);
+        int second = builder.add("Buss 30", TransportMode.BUS);
+
+        assertEquals(first, builder.add("Tvärbanan 30", TransportMode.TRAM));
+        Lines lines = builder.build();
+        assertEquals(2, lines.size());
+        assertEquals(TransportMode.BUS, lines.mode(second));
+    }
+}
@@ -0,0 +1,49 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MetricsTest {
+
+    @Mock
+    private GtfsService gtfsService;
+
+    @Mock
+    private ReportCache reportCache;
+
+    @Test
+    void scrape_shouldWritePrometheusText() {
+        LoadMetrics loadMetrics = new LoadMetrics();
+        loadMetrics.loaded(new LoadMetrics.Load(false, 2_000_000_000L, List.of(
+                new TimetableLoader.FileStats("stop_times.txt", 1_500_000_000L, 100, 4096, 90, 2))));
+        loadMetrics.reloaded(false);
+        LatencyHistogram departures = new LatencyHistogram();
+        departures.record(1000);
+        when(gtfsService.getLoadMetrics()).thenReturn(loadMetrics);
+        when(gtfsService.getDeparturesLatency()).thenReturn(departures);
+        when(gtfsService.getRealtimeUpdates()).thenReturn(RealtimeUpdates.EMPTY);
+        when(reportCache.hits()).thenReturn(7L);
+        Metrics metrics = new Metrics(gtfsService, reportCache);
+        metrics.requestLatency("/board/{boardId}").record(3_000_000);
+
+        String text = metrics.scrape();
+
+        assertTrue(text.contains("# TYPE gtfs_http_request_seconds summary\n"), text);
+        assertTrue(text.contains("gtfs_http_request_seconds_count{endpoint=\"/board/{boardId}\"} 1\n"), text);
+        assertTrue(text.contains("gtfs_departures_seconds{quantile=\"0.99\"} 1.023E-6\n"), text);
+        assertTrue(text.contains("gtfs_load_file_rows{file=\"stop_times.txt\"} 100\n"), text);
+        assertTrue(text.contains("gtfs_load_file_seconds{file=\"stop_times.txt\"} 1.5\n"), text);
+        assertTrue(text.contains("gtfs_load_malformed_rows_total{file=\"stop_times.txt\"} 2\n"), text);
+        assertTrue(text.contains("gtfs_reloads_total{result=\"rejected\"} 1\n"), text);
+        assertTrue(text.contains("gtfs_report_cache_hits_total 7\n"), text);
+        assertSame(metrics.requestLatency("/board/{boardId}"), metrics.requestLatency("/board/{boardId}"));
+    }
+}
@@ -0,0 +1,219 @@
+package com.ocklund.gtfs;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RealtimeIndexTest {
+
+    private static final LocalDate DAY = LocalDate.of(2025, 8, 6);
+    private static final long FEED_TIME = DAY.atTime(10, 0).atZone(ZoneId.of("Europe/Stockholm")).toEpochSecond();
+
+    // Station A with platform A1, and stop B. Timelines are built for A and B.
+    private final Timetable timetable = new Timetable(IdTable.of(new String[]{"A", "B", "A1"}), new int[]{-1, -1, 0},
+            new IdTable(), new int[0], new int[0], Lines.EMPTY, new IdTable(), Map.of(), ServiceCalendar.EMPTY, StopIndex.EMPTY,
+            TransitNetwork.EMPTY)
+            .withStopTimes(Map.of(
+                    "A", List.of(
+                            new StopTime("trip1", "A1", "10:10:00", "10:10:00", "X"),
+                            new StopTime("trip2", "A1", "10:20:00", "10:20:00", "X")),
+                    "B", List.of(
+                            new StopTime("trip3", "B", "10:30:00", "10:30:00", "Y"))));
+
+    @Test
+    void apply_shouldOnlyUpdateChangedEntities() {
+        RealtimeIndex index = new RealtimeIndex(timetable);
+
+        RealtimeUpdates first = index.apply(feed(
+                tripUpdate("e1", "trip1", 100, 60),
+                cancelled("e2", "trip2")), 1, FEED_TIME * 1000 + 500);
+        assertArrayEquals(new int[]{60, RealtimeUpdates.CANCELLED}, first.delays("A", DAY));
+        assertNull(first.delays("B", DAY), "Timelines without updates should have no delays");
+        assertEquals(2, first.changedEntities());
+        assertEquals(500, first.ingestionLagMillis(), "Lag should be measured from the feed time");
+
+        RealtimeUpdates same = index.apply(feed(
+                tripUpdate("e1", "trip1", 100, 60),
+                cancelled("e2", "trip2")), 2, FEED_TIME * 1000);
+        assertSame(first, same, "An unchanged feed should keep the published updates");
+
+        RealtimeUpdates second = index.apply(feed(
+                tripUpdate("e1", "trip1", 100, 999),
+                tripUpdate("e3", "trip3", 200, 120)), 3, FEED_TIME * 1000);
+        assertArrayEquals(new int[]{60, 0}, second.delays("A", DAY),
+                "Entity with the same timestamp should be skipped, and a removed entity should be reverted");
+        assertArrayEquals(new int[]{120}, second.delays("B", DAY));
+        assertEquals(2, second.changedEntities());
+        assertArrayEquals(new int[]{60, RealtimeUpdates.CANCELLED}, first.delays("A", DAY), "Published updates should not change");
+
+        RealtimeUpdates third = index.apply(feed(
+                tripUpdate("e1", "trip1", 100, 999),
+                tripUpdate("e3", "trip3", 201, 180)), 4, FEED_TIME * 1000);
+        assertSame(second.delays("A", DAY), third.delays("A", DAY), "Unchanged timelines should be shared");
+        assertEquals(180, third.maxDelay());
+    }
+
+    @Test
+    void apply_shouldDropTimelinesWhoseDelaysAreGone() {
+        RealtimeIndex index = new RealtimeIndex(timetable);
+
+        RealtimeUpdates onTime = index.apply(feed(tripUpdate("e3", "trip3", 200, 0)), 1, 0);
+        assertNull(onTime.delays("B", DAY), "A trip on time should not add delays");
+
+        RealtimeUpdates late = index.apply(feed(tripUpdate("e3", "trip3", 201, 120)), 2, 0);
+        assertArrayEquals(new int[]{120}, late.delays("B", DAY));
+
+        RealtimeUpdates gone = index.apply(feed(), 3, 0);
+        assertNull(gone.delays("B", DAY), "Timeline should be dropped when its entity is gone");
+        assertEquals(0, gone.maxDelay());
+
+        RealtimeUpdates again = index.apply(feed(tripUpdate("e3", "trip3", 202, 60)), 4, 0);
+        assertArrayEquals(new int[]{60}, again.delays("B", DAY), "Dropped timeline should get delays again");
+    }
+
+    @Test
+    void apply_shouldUseUpdateOfTheStopOrItsPlatform() {
+        RealtimeIndex index = new RealtimeIndex(timetable);
+        long expected = FEED_TIME + 10 * 60 + 90;
+        FeedEntity trip1 = FeedEntity.newBuilder().setId("e1").setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId("trip1"))
+                .addStopTimeUpdate(stopTimeUpdate("Z").setDeparture(TripUpdate.StopTimeEvent.newBuilder().setDelay(30)))
+                .addStopTimeUpdate(stopTimeUpdate("A1").setDeparture(TripUpdate.StopTimeEvent.newBuilder().setTime(expected))))
+                .build();
+        FeedEntity trip2 = FeedEntity.newBuilder().setId("e2").setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId("trip2"))
+                .addStopTimeUpdate(stopTimeUpdate("A1")
+                        .setScheduleRelationship(TripUpdate.StopTimeUpdate.ScheduleRelationship.SKIPPED)))
+                .build();
+
+        RealtimeUpdates updates = index.apply(feed(trip1, trip2), 1, 0);
+
+        assertArrayEquals(new int[]{90, RealtimeUpdates.CANCELLED}, updates.delays("A", DAY),
+                "Expected time at the platform should give the delay, and a skipped platform should cancel the departure");
+    }
+
+    @Test
+    void apply_shouldSkipEntityWithInvalidStartDate() {
+        RealtimeIndex index = new RealtimeIndex(timetable);
+        long expected = FEED_TIME + 10 * 60 + 90;
+
+        RealtimeUpdates bad = index.apply(feed(
+                timedUpdate("e1", "trip1", "20250230", expected),
+                tripUpdate("e3", "trip3", 200, 120)), 1, 0);
+        assertNull(bad.delays("A", DAY), "Entity with an invalid start date should not be applied");
+        assertArrayEquals(new int[]{120}, bad.delays("B", DAY), "Other entities of the feed should be applied");
+        assertEquals(1, index.malformedEntities());
+
+        RealtimeUpdates good = index.apply(feed(
+                timedUpdate("e1", "trip1", "20250806", expected),
+                tripUpdate("e3", "trip3", 200, 120)), 2, 0);
+        assertArrayEquals(new int[]{90, 0}, good.delays("A", DAY), "Corrected entity should be applied on the next feed");
+        assertEquals(1, good.changedEntities(), "Only the corrected entity should be new");
+        assertEquals(1, index.malformedEntities());
+    }
+
+    @Test
+    void apply_shouldApplyEntityToTheRunOfItsServiceDay() {
+        RealtimeIndex index = new RealtimeIndex(timetable);
+        FeedEntity tomorrow = FeedEntity.newBuilder().setId("e2").setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId("trip2").setStartDate("20250807")
+                        .setScheduleRelationship(TripDescriptor.ScheduleRelationship.CANCELED)))
+                .build();
+        // Expected at 10:11 tomorrow, which is the run of tomorrow
+        long tomorrowMorning = FEED_TIME + 24 * 3600 + 11 * 60;
+        FeedEntity early = FeedEntity.newBuilder().setId("e1").setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId("trip1"))
+                .addStopTimeUpdate(stopTimeUpdate("A1").setDeparture(TripUpdate.StopTimeEvent.newBuilder().setTime(tomorrowMorning))))
+                .build();
+
+        RealtimeUpdates updates = index.apply(feed(tomorrow, tripUpdate("e3", "trip3", 200, 120)), 1, 0);
+        assertArrayEquals(new int[]{0, RealtimeUpdates.CANCELLED}, updates.delays("A", DAY.plusDays(1)),
+                "Cancellation should apply to the run of its start date");
+        assertNull(updates.delays("A", DAY), "Today's run should not be cancelled");
+        assertArrayEquals(new int[]{120}, updates.delays("B", DAY), "Entity without a start date should apply to today");
+
+        RealtimeUpdates shifted = index.apply(feed(early), 2, 0);
+        assertArrayEquals(new int[]{60, 0}, shifted.delays("A", DAY.plusDays(1)),
+                "Expected time should be compared with the run of the closest service day, and the cancellation reverted");
+        assertNull(shifted.delays("A", DAY));
+    }
+
+    @Test
+    void apply_shouldKeepDelaysOfEntityThatSharesItsRunWithARemovedOne() {
+        RealtimeIndex index = new RealtimeIndex(timetable);
+
+        RealtimeUpdates both = index.apply(feed(
+                tripUpdate("a", "trip3", 100, 60),
+                tripUpdate("b", "trip3", 100, 120)), 1, 0);
+        assertArrayEquals(new int[]{120}, both.delays("B", DAY), "Later entity of the feed should win");
+
+        RealtimeUpdates onlyA = index.apply(feed(tripUpdate("a", "trip3", 100, 60)), 2, 0);
+        assertArrayEquals(new int[]{60}, onlyA.delays("B", DAY), "Unchanged entity should be applied again");
+        assertEquals(1, onlyA.changedEntities());
+
+        RealtimeUpdates cancelledB = index.apply(feed(
+                tripUpdate("a", "trip3", 100, 60),
+                cancelled("b", "trip3")), 3, 0);
+        RealtimeUpdates changedB = index.apply(feed(
+                tripUpdate("a", "trip3", 100, 60),
+                tripUpdate("b", "trip3", 101, 0)), 4, 0);
+        assertArrayEquals(new int[]{RealtimeUpdates.CANCELLED}, cancelledB.delays("B", DAY));
+        assertNull(changedB.delays("B", DAY), "Changed entity should still apply after the unchanged one");
+    }
+
+    @Test
+    void apply_shouldSkipEntitiesOfDaysNotShownOnBoards() {
+        RealtimeIndex index = new RealtimeIndex(timetable);
+        FeedEntity nextWeek = FeedEntity.newBuilder().setId("e1").setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId("trip1").setStartDate("20250813"))
+                .setDelay(60))
+                .build();
+
+        RealtimeUpdates updates = index.apply(feed(nextWeek), 1, 0);
+
+        assertTrue(updates.delaysByDay().isEmpty(), "Entity for a day outside the window of the boards should be skipped");
+    }
+
+    private static FeedEntity timedUpdate(String entityId, String tripId, String startDate, long expected) {
+        return FeedEntity.newBuilder().setId(entityId).setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId).setStartDate(startDate))
+                .addStopTimeUpdate(stopTimeUpdate("A1").setDeparture(TripUpdate.StopTimeEvent.newBuilder().setTime(expected))))
+                .build();
+    }
+
+    private static TripUpdate.StopTimeUpdate.Builder stopTimeUpdate(String stopId) {
+        return TripUpdate.StopTimeUpdate.newBuilder().setStopId(stopId);
+    }
+
+    private static FeedEntity tripUpdate(String entityId, String tripId, long timestamp, int delay) {
+        return FeedEntity.newBuilder().setId(entityId).setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId))
+                .setTimestamp(timestamp)
+                .setDelay(delay))
+                .build();
+    }
+
+    private static FeedEntity cancelled(String entityId, String tripId) {
+        return FeedEntity.newBuilder().setId(entityId).setTripUpdate(TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId)
+                        .setScheduleRelationship(TripDescriptor.ScheduleRelationship.CANCELED)))
+                .build();
+    }
+
+    private static FeedMessage feed(FeedEntity... entities) {
+        return FeedMessage.newBuilder()
+                .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(FEED_TIME))
+                .addAllEntity(List.of(entities))
+                .build();
+    }
+}
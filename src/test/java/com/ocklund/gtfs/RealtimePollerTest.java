@@ -0,0 +1,75 @@
+package com.ocklund.gtfs;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.ocklund.gtfs.configuration.GtfsProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RealtimePollerTest {
+
+    @Mock
+    private GtfsService gtfsService;
+
+    @Test
+    void poll_shouldDecodeNewestFeedFileOfDirectory(@TempDir Path directory) throws IOException {
+        Timetable timetable = Timetable.EMPTY.withStopTimes(Map.of("stop", List.of(
+                new StopTime("trip1", "stop", "10:00:00", "10:00:00", "A"))));
+        Path older = directory.resolve("older.pb");
+        Files.write(older, feed(GtfsServiceTest.tripUpdate("trip1", 60)).toByteArray());
+        Files.setLastModifiedTime(older, FileTime.fromMillis(1_000));
+        Files.write(directory.resolve("newer.pb"), feed(GtfsServiceTest.tripUpdate("trip1", 180)).toByteArray());
+        Files.writeString(directory.resolve("notes.txt"), "not a feed");
+        when(gtfsService.getTimetable()).thenReturn(timetable);
+
+        poller(directory.toString()).poll();
+
+        ArgumentCaptor<RealtimeUpdates> updates = ArgumentCaptor.forClass(RealtimeUpdates.class);
+        verify(gtfsService).setRealtimeUpdates(updates.capture());
+        assertTrue(updates.getValue().appliesTo(timetable), "Updates should be indexed for the loaded timetable");
+        assertEquals(180, updates.getValue().delays("stop", LocalDate.of(2025, 8, 6))[0], "Newest file should be read");
+        assertEquals(1, updates.getValue().version());
+    }
+
+    @Test
+    void poll_shouldKeepPreviousUpdatesWhenFeedCannotBeRead(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("feed.pb");
+        Files.write(file, new byte[]{(byte) 0xff, 0x01, 0x02});
+
+        poller(file.toUri().toString()).poll();
+        poller(directory.resolve("missing.pb").toString()).poll();
+
+        verify(gtfsService, never()).setRealtimeUpdates(any());
+    }
+
+    private RealtimePoller poller(String source) {
+        GtfsProperties properties = new GtfsProperties();
+        properties.getRealtime().setSource(source);
+        return new RealtimePoller(gtfsService, properties);
+    }
+
+    private static GtfsRealtime.FeedMessage feed(GtfsRealtime.FeedEntity... entities) {
+        return GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(1754469000))
+                .addAllEntity(List.of(entities))
+                .build();
+    }
+}
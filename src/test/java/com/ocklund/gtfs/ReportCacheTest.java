@@ -0,0 +1,143 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReportCacheTest {
+
+    private static final Board BOARD = GtfsService.DEFAULT_BOARD;
+    private static final List<List<Departure>> DEPARTURES = List.of(
+            List.of(new Departure("stop", LocalDate.of(2025, 8, 6), "10:35", 0, "Liljeholmen", "trip", null, null)));
+    private static final List<String> REPORTS = List.of("10:35 → Liljeholmen<br>");
+
+    @Mock
+    private GtfsService gtfsService;
+
+    private ReportCache reportCache;
+
+    @BeforeEach
+    void setUp() {
+        reportCache = new ReportCache(gtfsService);
+    }
+
+    @Test
+    void getStopReports_shouldComputeOncePerBoardAndMinute() {
+        when(gtfsService.getCurrentDateTime()).thenReturn(
+                LocalDateTime.of(2025, 8, 6, 10, 30, 5),
+                LocalDateTime.of(2025, 8, 6, 10, 30, 55),
+                LocalDateTime.of(2025, 8, 6, 10, 31, 0));
+        when(gtfsService.getDepartures(eq(BOARD), any(LocalDateTime.class))).thenReturn(DEPARTURES);
+
+        assertEquals(REPORTS, reportCache.getStopReports(BOARD));
+        assertEquals(REPORTS, reportCache.getStopReports(BOARD));
+        assertEquals(REPORTS, reportCache.getStopReports(BOARD));
+
+        verify(gtfsService).getDepartures(BOARD, LocalDateTime.of(2025, 8, 6, 10, 30));
+        verify(gtfsService).getDepartures(BOARD, LocalDateTime.of(2025, 8, 6, 10, 31));
+        assertEquals(1, reportCache.hits(), "Second request in the same minute should be a hit");
+        assertEquals(2, reportCache.misses(), "Each new minute should be a miss");
+    }
+
+    @Test
+    void getStopReports_shouldEvictEntriesOfEarlierMinutes() {
+        LocalDateTime start = LocalDateTime.of(2025, 8, 6, 10, 30);
+        when(gtfsService.getCurrentDateTime()).thenReturn(start, start.plusMinutes(1), start.plusMinutes(2));
+        when(gtfsService.getDepartures(eq(BOARD), any(LocalDateTime.class))).thenReturn(DEPARTURES);
+
+        reportCache.getStopReports(BOARD);
+        reportCache.getStopReports(BOARD);
+        reportCache.getStopReports(BOARD);
+
+        assertEquals(2, reportCache.size(), "Only the current and previous minute should be kept");
+    }
+
+    @Test
+    void getStopReports_shouldComputeOnceForConcurrentRequests() throws Exception {
+        when(gtfsService.getCurrentDateTime()).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger computations = new AtomicInteger();
+        when(gtfsService.getDepartures(eq(BOARD), any(LocalDateTime.class))).thenAnswer(invocation -> {
+            computations.incrementAndGet();
+            computing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return DEPARTURES;
+        });
+
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            results.add(executor.submit(() -> reportCache.getStopReports(BOARD)));
+            assertTrue(computing.await(5, TimeUnit.SECONDS), "First request should start computing");
+            for (int i = 1; i < requests; i++) {
+                results.add(executor.submit(() -> reportCache.getStopReports(BOARD)));
+            }
+            // Let the other requests find the computation in progress before it completes
+            while (reportCache.hits() < requests - 1) {
+                Thread.onSpinWait();
+            }
+            release.countDown();
+            for (Future<List<String>> result : results) {
+                assertEquals(REPORTS, result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, computations.get(), "Concurrent requests should share one computation");
+        assertEquals(1, reportCache.misses());
+    }
+
+    @Test
+    void getStopReports_shouldRetryAfterFailedComputation() {
+        when(gtfsService.getCurrentDateTime()).thenReturn(LocalDateTime.of(2025, 8, 6, 10, 30));
+        when(gtfsService.getDepartures(eq(BOARD), any(LocalDateTime.class)))
+                .thenThrow(new IllegalStateException("failed"))
+                .thenReturn(DEPARTURES);
+
+        assertThrows(IllegalStateException.class, () -> reportCache.getStopReports(BOARD));
+        assertEquals(REPORTS, reportCache.getStopReports(BOARD), "Failed computation should not be cached");
+        verify(gtfsService, times(2)).getDepartures(eq(BOARD), any(LocalDateTime.class));
+    }
+
+    @Test
+    void get_shouldGiveEqualETagsForEqualDepartures() {
+        LocalDateTime start = LocalDateTime.of(2025, 8, 6, 10, 30);
+        when(gtfsService.getCurrentDateTime()).thenReturn(start, start.plusMinutes(1), start.plusMinutes(2));
+        when(gtfsService.getDepartures(eq(BOARD), any(LocalDateTime.class)))
+                .thenReturn(DEPARTURES)
+                .thenReturn(DEPARTURES)
+                .thenReturn(List.of(List.of(
+                        new Departure("stop", LocalDate.of(2025, 8, 6), "10:36", 60, "Liljeholmen", "trip", null, null))));
+
+        String first = reportCache.get(BOARD).etag();
+        String second = reportCache.get(BOARD).etag();
+        String third = reportCache.get(BOARD).etag();
+
+        assertTrue(first.startsWith("\"") && first.endsWith("\""), "Strong ETag should be quoted without W/");
+        assertEquals(first, second, "Same departures in a new minute should keep the ETag");
+        assertNotEquals(first, third, "Delayed departure should change the ETag");
+    }
+}
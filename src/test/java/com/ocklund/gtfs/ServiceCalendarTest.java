@@ -0,0 +1,80 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServiceCalendarTest {
+
+    private static final int MONDAY_TO_FRIDAY = 0b0011111;
+
+    @Test
+    void activeOn_shouldHonourWeekdaysAndDateRange() {
+        ServiceCalendar calendar = ServiceCalendar.of(List.of(
+                new ServiceCalendar.Period("weekdays", MONDAY_TO_FRIDAY, 20250804, 20250817),
+                new ServiceCalendar.Period("never", 0, 20250804, 20250817)
+        ), List.of());
+
+        assertTrue(calendar.isActive("weekdays", LocalDate.of(2025, 8, 4)), "Monday should be active");
+        assertTrue(calendar.isActive("weekdays", LocalDate.of(2025, 8, 15)), "Friday should be active");
+        assertFalse(calendar.isActive("weekdays", LocalDate.of(2025, 8, 16)), "Saturday should not be active");
+        assertFalse(calendar.isActive("weekdays", LocalDate.of(2025, 8, 18)), "Date after the range should not be active");
+        assertFalse(calendar.isActive("never", LocalDate.of(2025, 8, 5)), "Service without weekdays should rely on exceptions");
+        assertFalse(calendar.isActive("unknown", LocalDate.of(2025, 8, 5)), "Unknown service should not be active");
+    }
+
+    @Test
+    void activeOn_shouldApplyExceptions() {
+        ServiceCalendar calendar = ServiceCalendar.of(List.of(
+                new ServiceCalendar.Period("1", MONDAY_TO_FRIDAY, 20250804, 20250817)
+        ), List.of(
+                new ServiceCalendar.ExceptionDate("1", 20250805, 2),
+                new ServiceCalendar.ExceptionDate("1", 20250816, 1),
+                new ServiceCalendar.ExceptionDate("2", 20250901, 1)
+        ));
+
+        assertFalse(calendar.isActive("1", LocalDate.of(2025, 8, 5)), "Removed date should not be active");
+        assertTrue(calendar.isActive("1", LocalDate.of(2025, 8, 16)), "Added date should be active");
+        assertTrue(calendar.isActive("2", LocalDate.of(2025, 9, 1)), "Service only in calendar_dates.txt should be active on its date");
+        assertEquals(1, calendar.activeOn(LocalDate.of(2025, 9, 1)).cardinality(), "Only one service should run on the added date");
+        assertTrue(calendar.activeOn(LocalDate.of(2024, 1, 1)).isEmpty(), "Dates before the feed should have no services");
+    }
+
+    @Test
+    void of_shouldOnlyIndexDatesNearTheFeedDate() {
+        ServiceCalendar calendar = ServiceCalendar.of(List.of(
+                new ServiceCalendar.Period("old", MONDAY_TO_FRIDAY, 20000103, 99991231),
+                new ServiceCalendar.Period("open", MONDAY_TO_FRIDAY, 20250804, 99991231)
+        ), List.of(new ServiceCalendar.ExceptionDate("open", 29991231, 1)));
+
+        assertEquals(2 * ServiceCalendar.MAX_DAYS_FROM_FEED_DATE + 1, calendar.dayCount(),
+                "Open-ended periods should only be indexed around the feed date");
+        assertEquals(LocalDate.of(2025, 8, 4).minusDays(ServiceCalendar.MAX_DAYS_FROM_FEED_DATE).toEpochDay(),
+                calendar.firstEpochDay());
+        assertTrue(calendar.isActive("old", LocalDate.of(2025, 8, 5)), "Old period should still be active now");
+        assertTrue(calendar.isActive("open", LocalDate.of(2026, 8, 4)), "Period should be active within a year");
+        assertFalse(calendar.isActive("open", LocalDate.of(2028, 8, 4)), "Dates far from the feed are not indexed");
+        assertFalse(calendar.isActive("open", LocalDate.of(2025, 8, 9)), "Weekdays should still be honoured");
+    }
+
+    @Test
+    void period_shouldRejectInvalidDates() {
+        assertThrows(DateTimeException.class, () -> new ServiceCalendar.Period("1", MONDAY_TO_FRIDAY, 20250230, 20250817));
+        assertThrows(DateTimeException.class, () -> new ServiceCalendar.Period("1", MONDAY_TO_FRIDAY, 20250804, 2025));
+        assertThrows(DateTimeException.class, () -> new ServiceCalendar.ExceptionDate("1", 20251301, 1));
+    }
+
+    @Test
+    void alwaysActive_shouldBeActiveOnAnyDate() {
+        ServiceCalendar calendar = ServiceCalendar.alwaysActive(Set.of("a", "b"));
+
+        assertTrue(calendar.isActive("a", LocalDate.of(2030, 1, 1)));
+        assertTrue(calendar.isActive("b", LocalDate.of(2000, 1, 1)));
+        assertFalse(calendar.isActive("c", LocalDate.of(2030, 1, 1)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServiceTimeTest {
+
+    @Test
+    void parse_shouldHandleHoursPastMidnightAndSingleDigitHours() {
+        assertEquals(ServiceTime.of(14, 30, 5), ServiceTime.parse("14:30:05"), "Regular time should be parsed");
+        assertEquals(ServiceTime.of(25, 45, 0), ServiceTime.parse("25:45:00"), "Hours past 24 should be kept");
+        assertEquals(ServiceTime.of(5, 38, 0), ServiceTime.parse("5:38:00"), "Single digit hours should be accepted");
+    }
+
+    @Test
+    void parse_shouldReadRangeOfCsvLine() {
+        String line = "14010000690947328,05:38:00,05:39:30,9022001004513001";
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(ServiceTime.of(5, 38, 0), ServiceTime.parse(line, 18, 26), "Char range should be parsed");
+        assertEquals(ServiceTime.of(5, 39, 30), ServiceTime.parse(bytes, 27, 35), "Byte range should be parsed");
+    }
+
+    @Test
+    void parse_shouldThrowWhenInvalidFormat() {
+        assertThrows(IllegalArgumentException.class, () -> ServiceTime.parse("invalid"), "Text should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> ServiceTime.parse("12:60:00"), "Minutes above 59 should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> ServiceTime.parse("12-30-00"), "Wrong separators should be rejected");
+        assertThrows(IllegalArgumentException.class, () -> ServiceTime.parse(""), "Empty string should be rejected");
+    }
+
+    @Test
+    void toLocalDateTime_shouldRollOverToNextDay() {
+        LocalDate serviceDate = LocalDate.of(2025, 8, 6);
+
+        assertEquals(LocalDateTime.of(2025, 8, 7, 1, 45), ServiceTime.toLocalDateTime(serviceDate, ServiceTime.parse("25:45:00")),
+                "Hours past 24 should belong to the next calendar day");
+    }
+
+    @Test
+    void appendHoursAndMinutes_shouldKeepGtfsHours() {
+        assertEquals("05:38", ServiceTime.appendHoursAndMinutes(new StringBuilder(), ServiceTime.parse("5:38:59")).toString());
+        assertEquals("24:05", ServiceTime.appendHoursAndMinutes(new StringBuilder(), ServiceTime.parse("24:05:00")).toString());
+    }
+}
@@ -0,0 +1,61 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StopIndexTest {
+
+    @Test
+    void within_shouldFindStopsInsideRadiusNearestFirst() {
+        // Årstadal and Sjövikstorget are about 250 metres apart, and Stavsnäs is far away
+        StopIndex index = new StopIndex(
+                new int[]{59305943, 59307482, 59286405, StopIndex.NO_COORDINATE},
+                new int[]{18025454, 18028621, 18704700, StopIndex.NO_COORDINATE},
+                IdTable.of(new String[]{"Årstadal", "Sjövikstorget", "Stavsnäs"}), new int[]{0, 1, 2, -1}, new byte[4]);
+
+        assertArrayEquals(new int[]{1, 0}, index.within(59.3075, 18.0286, 500, stop -> true));
+        assertArrayEquals(new int[]{1}, index.within(59.3075, 18.0286, 100, stop -> true));
+        assertArrayEquals(new int[]{0}, index.within(59.3075, 18.0286, 500, stop -> stop != 1), "Filter should apply");
+        assertEquals(247, index.distance(0, 59.307482, 18.028621), 5, "Distance should be in metres");
+        assertArrayEquals(new int[]{1, 0, 2}, index.nearest(59.3075, 18.0286, 5, stop -> true),
+                "Stops without a location should never be found");
+        assertEquals("Sjövikstorget", index.name(1));
+        assertEquals("", index.name(3));
+        assertArrayEquals(new int[0], index.within(0, 0, 1000, stop -> true), "Location far away should find nothing");
+    }
+
+    @Test
+    void nearest_shouldMatchBruteForce() {
+        Random random = new Random(42);
+        int count = 5000;
+        int[] latitudes = new int[count];
+        int[] longitudes = new int[count];
+        for (int stop = 0; stop < count; stop++) {
+            latitudes[stop] = 59_000_000 + random.nextInt(600_000);
+            longitudes[stop] = 17_600_000 + random.nextInt(1_200_000);
+        }
+        StopIndex index = new StopIndex(latitudes, longitudes, new IdTable(), new int[0], new byte[0]);
+
+        for (int query = 0; query < 50; query++) {
+            double latitude = 58.9 + random.nextDouble() * 0.8;
+            double longitude = 17.5 + random.nextDouble() * 1.4;
+            int[] expected = IntStream.range(0, count).boxed()
+                    .sorted(Comparator.comparingDouble(stop -> index.distance(stop, latitude, longitude)))
+                    .limit(7)
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            assertArrayEquals(expected, index.nearest(latitude, longitude, 7, stop -> true),
+                    "Nearest stops of " + latitude + "," + longitude);
+            int[] within = index.within(latitude, longitude, 2000, stop -> true);
+            long inside = IntStream.range(0, count).filter(stop -> index.distance(stop, latitude, longitude) <= 2000).count();
+            assertEquals(inside, within.length, "All stops inside the radius should be found");
+            assertTrue(Arrays.stream(within).allMatch(stop -> index.distance(stop, latitude, longitude) <= 2000));
+        }
+    }
+}
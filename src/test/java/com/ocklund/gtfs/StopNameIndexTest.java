@@ -0,0 +1,60 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StopNameIndexTest {
+
+    // Stations Årstadal and Sjövikstorget with two platforms each and an entrance, and two stops without a station
+    private static final String[] STOP_IDS = {"A", "A1", "A2", "AE", "S", "S1", "S2", "L", "T"};
+    private static final int[] PARENTS = {-1, 0, 0, 0, -1, 4, 4, -1, -1};
+    private static final String[] NAMES = {"Årstadal", "Sjövikstorget", "Liljeholmen", "Årstaberg"};
+    private static final int[] STOP_NAMES = {0, 0, 0, 0, 1, 1, 1, 2, 3};
+    private static final byte[] LOCATION_TYPES = {1, 0, 0, 2, 1, 0, 0, 0, 0};
+
+    private final StopNameIndex index = new StopNameIndex(new Timetable(IdTable.of(STOP_IDS), PARENTS,
+            new IdTable(), new int[0], new int[0], Lines.EMPTY, new IdTable(), Map.of(), ServiceCalendar.EMPTY,
+            new StopIndex(new int[STOP_IDS.length], new int[STOP_IDS.length], IdTable.of(NAMES), STOP_NAMES,
+                    LOCATION_TYPES), TransitNetwork.EMPTY));
+
+    @Test
+    void fold_shouldRemoveCaseDiacriticsAndPunctuation() {
+        char[] out = new char[32];
+        assertEquals("arstadal t bana", new String(out, 0, StopNameIndex.fold("  Årstadal (T-bana) ", out)));
+        assertEquals("sjovikstorget", new String(out, 0, StopNameIndex.fold("SJÖVIKSTORGET", out)));
+    }
+
+    @Test
+    void search_shouldGroupPlatformsUnderTheirStation() {
+        assertEquals(4, index.size(), "Platforms and entrances should not be entries of their own");
+        List<StopNameIndex.Match> matches = index.search("arstad", 10);
+
+        assertEquals(0, matches.get(0).stop());
+        assertEquals(List.of(1, 2), matches.get(0).platforms(), "Entrance should not be listed as a platform");
+        assertEquals(List.of(8), matches.subList(1, matches.size()).stream().map(StopNameIndex.Match::stop).toList(),
+                "Similar name should follow the prefix match");
+    }
+
+    @Test
+    void search_shouldFindNameStartsBeforeWordStarts() {
+        List<Integer> stops = index.search("Ärsta", 10).stream().map(StopNameIndex.Match::stop).toList();
+
+        assertEquals(List.of(0, 8), stops, "Shorter name should come first");
+        assertEquals(List.of(4), index.search("sjovik", 10).stream().map(StopNameIndex.Match::stop).toList());
+        assertEquals(List.of(8), index.search("arstab", 1).stream().map(StopNameIndex.Match::stop).toList());
+        assertTrue(index.search(" -- ", 10).isEmpty(), "Query without letters should find nothing");
+    }
+
+    @Test
+    void search_shouldFindMisspelledNames() {
+        List<StopNameIndex.Match> matches = index.search("liljeholmne", 3);
+
+        assertFalse(matches.isEmpty(), "Misspelled name should be found");
+        assertEquals(7, matches.get(0).stop());
+        assertEquals(4, index.search("sjoviktorget", 1).get(0).stop());
+    }
+}
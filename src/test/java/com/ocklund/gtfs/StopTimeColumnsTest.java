@@ -0,0 +1,62 @@
+package com.ocklund.gtfs;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StopTimeColumnsTest {
+
+    @Test
+    void of_shouldSortBySlotAndDepartureAcrossBuilders() {
+        StopTimeColumns.Builder first = new StopTimeColumns.Builder();
+        first.add(2, 600, 0, 0);
+        first.add(0, 300, 1, 0);
+        first.add(2, 60, 0, 1);
+        StopTimeColumns.Builder second = new StopTimeColumns.Builder();
+        second.add(2, 600, 0, 0);
+        second.add(0, 120, 0, 0);
+
+        // Both builders have trip 0, which is trip 5 of the first and trip 7 of the second in the timetable
+        StopTimeColumns columns = StopTimeColumns.of(List.of(first, second),
+                List.of(new int[]{5, 6}, new int[]{7}), List.of(new int[]{0, 1}, new int[]{2}), 3);
+
+        assertEquals(3, columns.slotCount());
+        assertEquals(5, columns.size());
+        StopTimeline stop0 = columns.timeline(0);
+        assertEquals(2, stop0.size());
+        assertEquals(120, stop0.departure(0));
+        assertEquals(7, stop0.trip(0), "Trip should be mapped to the timetable");
+        assertEquals(2, stop0.headsign(0));
+        assertEquals(300, stop0.departure(1));
+        assertEquals(6, stop0.trip(1));
+        assertEquals(0, columns.timeline(1).size());
+        StopTimeline stop2 = columns.timeline(2);
+        assertEquals(60, stop2.departure(0));
+        assertEquals(1, stop2.headsign(0));
+        assertEquals(List.of(5, 7), List.of(stop2.trip(1), stop2.trip(2)),
+                "Departures in the same second should keep the order of the builders");
+        assertEquals(1, stop2.firstAtOrAfter(61));
+    }
+
+    @Test
+    void builder_shouldGrowPastItsFirstCapacity() {
+        StopTimeColumns.Builder builder = new StopTimeColumns.Builder();
+        for (int i = 0; i < 5000; i++) {
+            builder.add(i % 2, 5000 - i, i, 0);
+        }
+        int[] trips = new int[5000];
+        for (int i = 0; i < trips.length; i++) {
+            trips[i] = i;
+        }
+
+        StopTimeColumns columns = StopTimeColumns.of(List.of(builder), List.of(trips), List.of(new int[]{0}), 2);
+
+        assertEquals(5000, builder.size());
+        assertEquals(2500, columns.timeline(1).size());
+        assertEquals(1, columns.timeline(1).departure(0));
+        assertEquals(4999, columns.timeline(1).trip(0));
+        assertEquals(4998, columns.timeline(0).trip(0));
+    }
+}